@@ -0,0 +1,34 @@
+package ch.uzh.ifi.seal.soprafs20;
+
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Starts the application without a web server on a fresh in-memory H2 database, for benchmarks that call the
+ * service layer directly.
+ */
+public final class BenchmarkContext {
+
+    private BenchmarkContext() {
+    }
+
+    /**
+     * @param properties additional properties as key=value, e.g. users.update.locking=PESSIMISTIC
+     */
+    public static ConfigurableApplicationContext start(String... properties) {
+        List<String> all = new ArrayList<>();
+        all.add("spring.datasource.url=jdbc:h2:mem:bench-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1");
+        all.add("spring.h2.console.enabled=false");
+        all.add("logging.level.root=WARN");
+        all.addAll(List.of(properties));
+        return new SpringApplicationBuilder(Application.class)
+                .web(WebApplicationType.NONE)
+                .properties(all.toArray(new String[0]))
+                .run();
+    }
+}
@@ -0,0 +1,76 @@
+package ch.uzh.ifi.seal.soprafs20.controller;
+
+import ch.uzh.ifi.seal.soprafs20.constant.UserStatus;
+import ch.uzh.ifi.seal.soprafs20.rest.dto.UserGetDTO;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson serialisation of user lists as the controller produces them, with the ObjectMapper defaults of Spring:
+ * into one byte array (GET /users, UserListCache) and streamed user by user (GET /users/export).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class UserSerializationBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int users;
+
+    private List<UserGetDTO> userGetDTOs;
+    private ObjectWriter listWriter;
+    private ObjectWriter userWriter;
+
+    @Setup
+    public void setup() {
+        userGetDTOs = new ArrayList<>(users);
+        Date now = new Date();
+        for (int i = 0; i < users; i++) {
+            userGetDTOs.add(new UserGetDTO((long) i + 1, "user" + i, i % 3 == 0 ? UserStatus.ONLINE : UserStatus.OFFLINE, now, i % 2 == 0 ? null : now));
+        }
+        listWriter = Jackson2ObjectMapperBuilder.json().build().writerFor(new TypeReference<List<UserGetDTO>>() {});
+        userWriter = Jackson2ObjectMapperBuilder.json().build().writerFor(UserGetDTO.class);
+    }
+
+    @Benchmark
+    public byte[] listToBytes() throws IOException {
+        return listWriter.writeValueAsBytes(userGetDTOs);
+    }
+
+    @Benchmark
+    public long streamAsNdjson() throws IOException {
+        CountingOutputStream out = new CountingOutputStream();
+        for (UserGetDTO userGetDTO : userGetDTOs) {
+            out.write(userWriter.writeValueAsBytes(userGetDTO));
+            out.write('\n');
+        }
+        return out.count;
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+
+        private long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package ch.uzh.ifi.seal.soprafs20.rest.mapper;
+
+import ch.uzh.ifi.seal.soprafs20.constant.UserStatus;
+import ch.uzh.ifi.seal.soprafs20.entity.User;
+import ch.uzh.ifi.seal.soprafs20.rest.dto.UserGetDTO;
+import ch.uzh.ifi.seal.soprafs20.rest.dto.UserPostDTO;
+import ch.uzh.ifi.seal.soprafs20.rest.dto.UserTokenDTO;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The DTOMapper conversions of the request hot paths.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DTOMapperBenchmark {
+
+    private User user;
+    private UserPostDTO userPostDTO;
+    private UserTokenDTO userTokenDTO;
+
+    @Setup
+    public void setup() {
+        user = new User();
+        user.setId(42L);
+        user.setUsername("firstname@lastname");
+        user.setToken("1d8a2f3c-7b4e-4c1a-9e0f-5a6b7c8d9e0f");
+        user.setPassword("password");
+        user.setStatus(UserStatus.ONLINE);
+        user.setAccountCreationDate(new Date());
+        user.setBirthday(new Date(0));
+
+        userPostDTO = new UserPostDTO();
+        userPostDTO.setUsername("firstname@lastname");
+        userPostDTO.setPassword("password");
+
+        userTokenDTO = new UserTokenDTO();
+        userTokenDTO.setId(42L);
+        userTokenDTO.setToken("1d8a2f3c-7b4e-4c1a-9e0f-5a6b7c8d9e0f");
+    }
+
+    @Benchmark
+    public UserGetDTO entityToUserGetDTO() {
+        return DTOMapper.INSTANCE.convertEntityToUserGetDTO(user);
+    }
+
+    @Benchmark
+    public User userPostDTOToEntity() {
+        return DTOMapper.INSTANCE.convertUserPostDTOtoEntity(userPostDTO);
+    }
+
+    @Benchmark
+    public User userTokenDTOToEntity() {
+        return DTOMapper.INSTANCE.convertUserTokenDTOToEntity(userTokenDTO);
+    }
+
+    @Benchmark
+    public UserTokenDTO entityToUserTokenDTO() {
+        return DTOMapper.INSTANCE.convertEntityToUserTokenDTO(user);
+    }
+}
@@ -0,0 +1,55 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import ch.uzh.ifi.seal.soprafs20.constant.OverflowPolicy;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes one user event to thousands of idle SSE subscribers. The events are written on the calling thread to
+ * emitters that only build them, so the numbers show the cost of serialisation and fan-out without any network.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class UserEventFanOutBenchmark {
+
+    @Param({"1000", "10000"})
+    public int subscribers;
+
+    private UserEventBroadcaster broadcaster;
+    private long userId;
+
+    /**
+     * Builds every event like a real emitter would, then drops it.
+     */
+    private static final class DiscardingEmitter extends SseEmitter {
+
+        // keeps the JIT from removing the build
+        private int parts;
+
+        @Override
+        public void send(SseEventBuilder builder) {
+            parts += builder.build().size();
+        }
+    }
+
+    @Setup
+    public void subscribe() {
+        broadcaster = new UserEventBroadcaster(new ObjectMapper(), 1024, 256, OverflowPolicy.DROP_OLDEST, 0L, 0L,
+                Runnable::run);
+        for (int i = 0; i < subscribers; i++) {
+            broadcaster.register(new DiscardingEmitter(), null);
+        }
+    }
+
+    @Benchmark
+    public void publish() {
+        broadcaster.onUserEvent(UserEvent.loggedIn(++userId));
+    }
+}
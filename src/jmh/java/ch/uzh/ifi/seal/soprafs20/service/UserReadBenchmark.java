@@ -0,0 +1,114 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import ch.uzh.ifi.seal.soprafs20.BenchmarkContext;
+import ch.uzh.ifi.seal.soprafs20.entity.User;
+import ch.uzh.ifi.seal.soprafs20.repository.UserRepository;
+import ch.uzh.ifi.seal.soprafs20.rest.dto.UserGetDTO;
+import ch.uzh.ifi.seal.soprafs20.rest.mapper.DTOMapper;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read paths of users with and without the second-level cache: the profile by id, the login lookup by username and
+ * a page of the list, once as DTO projection and once as entities mapped by DTOMapper. The statements counter reports
+ * the JDBC statements Hibernate prepared, divide it by the operation count for statements per read.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class UserReadBenchmark {
+
+    private static final int USERS = 10_000;
+    private static final int PAGE_SIZE = 100;
+
+    @Param({"true", "false"})
+    public boolean secondLevelCache;
+
+    private ConfigurableApplicationContext context;
+    private UserService userService;
+    private UserRepository userRepository;
+    private UserCacheStatistics userCacheStatistics;
+    private final List<User> users = new ArrayList<>();
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Statements {
+
+        public long statements;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            statements = 0;
+        }
+    }
+
+    @Setup
+    public void start() {
+        context = BenchmarkContext.start("spring.jpa.properties.hibernate.cache.use_second_level_cache=" + secondLevelCache,
+                "users.password.iterations=1");
+        userService = context.getBean(UserService.class);
+        userRepository = context.getBean("userRepository", UserRepository.class);
+        userCacheStatistics = context.getBean(UserCacheStatistics.class);
+
+        List<User> newUsers = new ArrayList<>(USERS);
+        for (int i = 0; i < USERS; i++) {
+            User user = new User();
+            user.setUsername("user" + i);
+            user.setPassword("password");
+            newUsers.add(user);
+        }
+        userService.createUsers(newUsers);
+        users.addAll(userRepository.findAll());
+    }
+
+    @TearDown
+    public void stop() {
+        context.close();
+    }
+
+    @Benchmark
+    public UserGetDTO profileById(Statements statements) {
+        long before = userCacheStatistics.getStatementCount();
+        UserGetDTO profile = userService.getUserProfile(randomUser());
+        statements.statements += userCacheStatistics.getStatementCount() - before;
+        return profile;
+    }
+
+    @Benchmark
+    public User loginLookupByUsername(Statements statements) {
+        long before = userCacheStatistics.getStatementCount();
+        User user = userRepository.findByUsername(randomUser().getUsername());
+        statements.statements += userCacheStatistics.getStatementCount() - before;
+        return user;
+    }
+
+    @Benchmark
+    public List<UserGetDTO> pageAsProjection() {
+        return userService.getUsers(randomUser().getId(), PAGE_SIZE);
+    }
+
+    @Benchmark
+    public List<UserGetDTO> pageAsEntities() {
+        // the read path before the projections: managed entities copied by the mapper
+        List<User> page = userRepository.findAll(PageRequest.of(ThreadLocalRandom.current().nextInt(USERS / PAGE_SIZE), PAGE_SIZE, Sort.by("id"))).getContent();
+        List<UserGetDTO> dtos = new ArrayList<>(page.size());
+        for (User user : page) {
+            dtos.add(DTOMapper.INSTANCE.convertEntityToUserGetDTO(user));
+        }
+        return dtos;
+    }
+
+    private User randomUser() {
+        return users.get(ThreadLocalRandom.current().nextInt(users.size()));
+    }
+}
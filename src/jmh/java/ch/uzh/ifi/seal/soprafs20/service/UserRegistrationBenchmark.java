@@ -0,0 +1,69 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import ch.uzh.ifi.seal.soprafs20.BenchmarkContext;
+import ch.uzh.ifi.seal.soprafs20.entity.User;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registers a whole onboarding batch: one createUser call per user against createUsers in chunks of
+ * UserService.MAX_BATCH_SIZE (JDBC batched inserts, pooled ids). Every measured run starts on an empty database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class UserRegistrationBenchmark {
+
+    @Param({"10000", "100000"})
+    public int users;
+
+    private ConfigurableApplicationContext context;
+    private UserService userService;
+    private int run;
+
+    @Setup(Level.Iteration)
+    public void start() {
+        // a fresh database per run, the password hash is kept cheap to measure the inserts
+        context = BenchmarkContext.start("users.password.iterations=1");
+        userService = context.getBean(UserService.class);
+        run++;
+    }
+
+    @TearDown(Level.Iteration)
+    public void stop() {
+        context.close();
+    }
+
+    @Benchmark
+    public void createUserOneByOne() {
+        for (User user : newUsers()) {
+            userService.createUser(user);
+        }
+    }
+
+    @Benchmark
+    public void createUsersInBatches() {
+        List<User> newUsers = newUsers();
+        for (int from = 0; from < newUsers.size(); from += UserService.MAX_BATCH_SIZE) {
+            userService.createUsers(newUsers.subList(from, Math.min(from + UserService.MAX_BATCH_SIZE, newUsers.size())));
+        }
+    }
+
+    private List<User> newUsers() {
+        List<User> newUsers = new ArrayList<>(users);
+        for (int i = 0; i < users; i++) {
+            User user = new User();
+            user.setUsername("run" + run + "user" + i);
+            user.setPassword("password");
+            newUsers.add(user);
+        }
+        return newUsers;
+    }
+}
@@ -0,0 +1,89 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import ch.uzh.ifi.seal.soprafs20.BenchmarkContext;
+import ch.uzh.ifi.seal.soprafs20.entity.User;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write paths of UserService against in-memory H2: registration, login followed by logout, and profile updates.
+ * Run with more threads (-t 8) to see how they behave under concurrency: registrations rely on the unique constraints,
+ * logins on the presence transitions. The password hash dominates registration and login at the default work factor,
+ * so it is lowered here; pass -p passwordIterations=100000 for production numbers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class UserServiceBenchmark {
+
+    @Param("1000")
+    public int passwordIterations;
+
+    private ConfigurableApplicationContext context;
+    private UserService userService;
+    private final AtomicLong usernames = new AtomicLong();
+
+    /**
+     * A registered user of its own for every benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class ThreadUser {
+
+        private User user;
+        private long birthday;
+
+        @Setup
+        public void register(UserServiceBenchmark benchmark) {
+            User newUser = new User();
+            newUser.setUsername("thread" + benchmark.usernames.incrementAndGet());
+            newUser.setPassword("password");
+            user = benchmark.userService.createUser(newUser);
+        }
+    }
+
+    @Setup
+    public void start() {
+        context = BenchmarkContext.start("users.password.iterations=" + passwordIterations);
+        userService = context.getBean(UserService.class);
+    }
+
+    @TearDown
+    public void stop() {
+        context.close();
+    }
+
+    @Benchmark
+    public User createUser() {
+        User newUser = new User();
+        newUser.setUsername("user" + usernames.incrementAndGet());
+        newUser.setPassword("password");
+        return userService.createUser(newUser);
+    }
+
+    @Benchmark
+    public void loginLogout(ThreadUser threadUser) {
+        User credentials = new User();
+        credentials.setUsername(threadUser.user.getUsername());
+        credentials.setPassword("password");
+        User loggedIn = userService.loginUser(credentials);
+
+        User session = new User();
+        session.setToken(loggedIn.getToken());
+        userService.logOutUser(session);
+    }
+
+    @Benchmark
+    public void updateUser(ThreadUser threadUser) {
+        User update = new User();
+        update.setToken(threadUser.user.getToken());
+        update.setBirthday(new Date(++threadUser.birthday * 86_400_000L));
+        userService.updateUser(update, threadUser.user.getId().toString());
+    }
+}
@@ -0,0 +1,81 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import ch.uzh.ifi.seal.soprafs20.BenchmarkContext;
+import ch.uzh.ifi.seal.soprafs20.entity.User;
+import ch.uzh.ifi.seal.soprafs20.exceptions.UserUpdateConflict;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Concurrent profile updates of a few hot users: version-checked writes with retries (OPTIMISTIC) against
+ * SELECT ... FOR UPDATE (PESSIMISTIC). Updates that exhaust their retries are counted as conflicts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(8)
+@Fork(1)
+public class UserUpdateContentionBenchmark {
+
+    @Param({"OPTIMISTIC", "PESSIMISTIC"})
+    public String locking;
+
+    @Param({"1", "16"})
+    public int hotUsers;
+
+    private ConfigurableApplicationContext context;
+    private UserService userService;
+    private final List<User> users = new ArrayList<>();
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Conflicts {
+
+        public long conflicts;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            conflicts = 0;
+        }
+    }
+
+    @Setup
+    public void start() {
+        context = BenchmarkContext.start("users.update.locking=" + locking, "users.password.iterations=1");
+        userService = context.getBean(UserService.class);
+        for (int i = 0; i < hotUsers; i++) {
+            User newUser = new User();
+            newUser.setUsername("hot" + i);
+            newUser.setPassword("password");
+            users.add(userService.createUser(newUser));
+        }
+    }
+
+    @TearDown
+    public void stop() {
+        context.close();
+    }
+
+    @Benchmark
+    public void updateHotUser(Conflicts conflicts) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        User user = users.get(random.nextInt(users.size()));
+        User update = new User();
+        update.setToken(user.getToken());
+        update.setBirthday(new Date(random.nextLong(1L << 40)));
+        try {
+            userService.updateUser(update, user.getId().toString());
+        }
+        catch (UserUpdateConflict e) {
+            conflicts.conflicts++;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package ch.uzh.ifi.seal.soprafs20.load;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies (in microseconds, up to a minute at 3 significant digits) and errors of one endpoint.
+ */
+final class EndpointRecorder {
+
+    private static final long MAX_LATENCY_MICROS = TimeUnit.MINUTES.toMicros(1);
+
+    private final String name;
+    private final ConcurrentHistogram latencies = new ConcurrentHistogram(MAX_LATENCY_MICROS, 3);
+    private final LongAdder errors = new LongAdder();
+
+    EndpointRecorder(String name) {
+        this.name = name;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * @param scheduledNanos the time the request was scheduled for, not the time it was sent
+     */
+    void completed(long scheduledNanos, boolean success) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - scheduledNanos);
+        latencies.recordValue(Math.min(micros, MAX_LATENCY_MICROS));
+        if (!success) errors.increment();
+    }
+
+    /**
+     * Drops what was recorded so far, e.g. after the warmup.
+     */
+    void reset() {
+        latencies.reset();
+        errors.reset();
+    }
+
+    long getCount() {
+        return latencies.getTotalCount();
+    }
+
+    long getErrorCount() {
+        return errors.sum();
+    }
+
+    /**
+     * @return the latency at the percentile in milliseconds
+     */
+    double getPercentileMillis(double percentile) {
+        return latencies.getValueAtPercentile(percentile) / 1000.0;
+    }
+
+    /**
+     * Writes the full percentile distribution (.hgrm, readable by the HdrHistogram plotter) in milliseconds.
+     */
+    void writeDistribution(Path directory) throws FileNotFoundException {
+        Histogram copy = latencies.copy();
+        try (PrintStream out = new PrintStream(directory.resolve(name.replaceAll("[^A-Za-z0-9]+", "_") + ".hgrm").toFile())) {
+            copy.outputPercentileDistribution(out, 1000.0);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package ch.uzh.ifi.seal.soprafs20.load;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Settings of a load test run, read from system properties (./gradlew loadTest -Pload.rate=500 ...):
+ * <ul>
+ *     <li>load.rate: requests per second, default 200</li>
+ *     <li>load.warmup-seconds / load.duration-seconds: unrecorded warmup and recorded run, default 10 / 30</li>
+ *     <li>load.users: users registered before the run, at least 200 and enough for the login-logout rate (see users())</li>
+ *     <li>load.mix: weights of the operations, default get-user=70,login-logout=20,register=10</li>
+ *     <li>load.max-error-rate: share of failed requests per endpoint, default 0.01</li>
+ *     <li>load.budget.ENDPOINT.PERCENTILE: latency budget in ms, e.g. load.budget.get-user.p99=50</li>
+ *     <li>load.report-dir: where the percentile distributions are written, default build/reports/load</li>
+ * </ul>
+ */
+final class LoadSettings {
+
+    private static final Map<String, String> DEFAULT_BUDGETS = new LinkedHashMap<>();
+
+    static {
+        DEFAULT_BUDGETS.put("get-user.p99", "50");
+        DEFAULT_BUDGETS.put("get-user.p99.9", "250");
+        // login and registration hash the password
+        DEFAULT_BUDGETS.put("login.p99", "1000");
+        DEFAULT_BUDGETS.put("logout.p99", "100");
+        DEFAULT_BUDGETS.put("register.p99", "1000");
+    }
+
+    private LoadSettings() {
+    }
+
+    static double rate() {
+        return Double.parseDouble(System.getProperty("load.rate", "200"));
+    }
+
+    static long warmupMillis() {
+        return Long.parseLong(System.getProperty("load.warmup-seconds", "10")) * 1000;
+    }
+
+    static long durationMillis() {
+        return Long.parseLong(System.getProperty("load.duration-seconds", "30")) * 1000;
+    }
+
+    /**
+     * A login/logout holds its user from the login until the logout has answered. Within budget that is at most the
+     * p99 budgets of both, so rate * share of login-logout * that time users are busy at once (Little's law); twice as
+     * many are registered if load.users asks for fewer. A login/logout that finds no free user fails the run.
+     */
+    static int users() {
+        int configured = Integer.parseInt(System.getProperty("load.users", "200"));
+        Map<String, Integer> mix = mix();
+        double share = mix.getOrDefault("login-logout", 0) / (double) mix.values().stream().mapToInt(Integer::intValue).sum();
+        Map<String, Double> budgets = budgets();
+        double holdSeconds = (budgets.getOrDefault("login.p99", 1000.0) + budgets.getOrDefault("logout.p99", 100.0)) / 1000;
+        int busy = (int) Math.ceil(rate() * share * holdSeconds);
+        return Math.max(configured, 2 * busy);
+    }
+
+    static Map<String, Integer> mix() {
+        Map<String, Integer> mix = new LinkedHashMap<>();
+        for (String entry : System.getProperty("load.mix", "get-user=70,login-logout=20,register=10").split(",")) {
+            String[] weight = entry.trim().split("=");
+            mix.put(weight[0].trim(), Integer.parseInt(weight[1].trim()));
+        }
+        return mix;
+    }
+
+    static double maxErrorRate() {
+        return Double.parseDouble(System.getProperty("load.max-error-rate", "0.01"));
+    }
+
+    /**
+     * @return the latency budgets in ms by endpoint and percentile, e.g. "get-user.p99.9" -> 250
+     */
+    static Map<String, Double> budgets() {
+        Map<String, Double> budgets = new LinkedHashMap<>();
+        DEFAULT_BUDGETS.forEach((key, value) -> budgets.put(key, Double.parseDouble(value)));
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith("load.budget.")) budgets.put(name.substring("load.budget.".length()), Double.parseDouble(System.getProperty(name)));
+        }
+        return budgets;
+    }
+
+    static String reportDir() {
+        return System.getProperty("load.report-dir", "build/reports/load");
+    }
+}
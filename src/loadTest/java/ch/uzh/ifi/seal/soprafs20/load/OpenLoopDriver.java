@@ -0,0 +1,34 @@
+package ch.uzh.ifi.seal.soprafs20.load;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongConsumer;
+
+/**
+ * Starts requests at a fixed rate, no matter how long the earlier ones take (open loop). Every request is handed the
+ * time it was scheduled for; measuring latency from that time instead of from the actual send counts the time a
+ * request waited behind a slow server or a late driver (coordinated omission correction).
+ * The fire callback must not block, it only starts the request.
+ */
+final class OpenLoopDriver {
+
+    private OpenLoopDriver() {
+    }
+
+    /**
+     * @param fire receives the scheduled start time (System.nanoTime) of every request
+     * @return the number of requests started
+     */
+    static long drive(double ratePerSecond, long durationMillis, LongConsumer fire) {
+        double intervalNanos = TimeUnit.SECONDS.toNanos(1) / ratePerSecond;
+        long start = System.nanoTime();
+        long end = start + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        long started = 0;
+        for (long scheduled = start; scheduled < end; scheduled = start + (long) (++started * intervalNanos)) {
+            long wait;
+            while ((wait = scheduled - System.nanoTime()) > 0) LockSupport.parkNanos(wait);
+            fire.accept(scheduled);
+        }
+        return started;
+    }
+}
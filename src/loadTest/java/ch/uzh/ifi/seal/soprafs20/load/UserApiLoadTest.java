@@ -0,0 +1,218 @@
+package ch.uzh.ifi.seal.soprafs20.load;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Drives the REST API of the running application with an open-loop mix of requests (see LoadSettings) and checks the
+ * latency percentiles of every endpoint against their budgets. Run with ./gradlew loadTest, not part of the unit tests.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class UserApiLoadTest {
+
+    private static final class RegisteredUser {
+
+        private final long id;
+        private final String username;
+
+        private RegisteredUser(long id, String username) {
+            this.id = id;
+            this.username = username;
+        }
+    }
+
+    @LocalServerPort
+    private int port;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final AtomicLong usernames = new AtomicLong();
+
+    private final EndpointRecorder getUser = new EndpointRecorder("get-user");
+    private final EndpointRecorder login = new EndpointRecorder("login");
+    private final EndpointRecorder logout = new EndpointRecorder("logout");
+    private final EndpointRecorder register = new EndpointRecorder("register");
+
+    private final List<RegisteredUser> users = new ArrayList<>();
+    // users that are not logged in at the moment, a login/logout takes one and puts it back
+    private final ConcurrentLinkedQueue<RegisteredUser> loggedOut = new ConcurrentLinkedQueue<>();
+    private final AtomicLong skipped = new AtomicLong();
+
+    private HttpClient client;
+
+    @Test
+    public void userApi_underLoad_withinBudgets() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        client = HttpClient.newBuilder().executor(executor).build();
+        try {
+            int userCount = LoadSettings.users();
+            for (int i = 0; i < userCount; i++) {
+                JsonNode user = objectMapper.readTree(client.send(post("/users", credentials("load" + usernames.incrementAndGet())),
+                        HttpResponse.BodyHandlers.ofString()).body());
+                users.add(new RegisteredUser(user.get("id").asLong(), user.get("username").asText()));
+            }
+            loggedOut.addAll(users);
+
+            NavigableMap<Integer, String> mix = new TreeMap<>();
+            int totalWeight = 0;
+            for (Map.Entry<String, Integer> weight : LoadSettings.mix().entrySet()) {
+                totalWeight += weight.getValue();
+                mix.put(totalWeight, weight.getKey());
+            }
+            int weights = totalWeight;
+
+            OpenLoopDriver.drive(LoadSettings.rate(), LoadSettings.warmupMillis(),
+                    scheduled -> fire(mix.higherEntry(ThreadLocalRandom.current().nextInt(weights)).getValue(), scheduled));
+            awaitQuiet();
+            List<EndpointRecorder> recorders = List.of(getUser, login, logout, register);
+            recorders.forEach(EndpointRecorder::reset);
+            skipped.set(0);
+
+            long started = OpenLoopDriver.drive(LoadSettings.rate(), LoadSettings.durationMillis(),
+                    scheduled -> fire(mix.higherEntry(ThreadLocalRandom.current().nextInt(weights)).getValue(), scheduled));
+            awaitQuiet();
+
+            assertWithinBudgets(recorders, started);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void fire(String operation, long scheduled) {
+        switch (operation) {
+            case "get-user":
+                RegisteredUser user = users.get(ThreadLocalRandom.current().nextInt(users.size()));
+                record(getUser, scheduled, client.sendAsync(get("/users/" + user.id), HttpResponse.BodyHandlers.discarding()));
+                break;
+            case "login-logout":
+                loginLogout(scheduled);
+                break;
+            case "register":
+                record(register, scheduled, client.sendAsync(post("/users", credentials("load" + usernames.incrementAndGet())),
+                        HttpResponse.BodyHandlers.discarding()));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown operation in load.mix: " + operation);
+        }
+    }
+
+    private void loginLogout(long scheduled) {
+        RegisteredUser user = loggedOut.poll();
+        if (user == null) {
+            // every user is in the middle of a login/logout: the slot cannot be sent on time, leaving it out would hide
+            // the stall behind it (coordinated omission) -> counted and failing the run
+            skipped.incrementAndGet();
+            return;
+        }
+        client.sendAsync(put("/login", credentials(user.username)), HttpResponse.BodyHandlers.ofString())
+                .whenComplete((response, error) -> {
+                    boolean success = error == null && response.statusCode() == 200;
+                    login.completed(scheduled, success);
+                    if (!success) {
+                        loggedOut.add(user);
+                        return;
+                    }
+                    // the login answers with the id and token the logout expects
+                    long logoutScheduled = System.nanoTime();
+                    client.sendAsync(put("/logout", response.body()), HttpResponse.BodyHandlers.discarding())
+                            .whenComplete((logoutResponse, logoutError) -> {
+                                logout.completed(logoutScheduled, logoutError == null && logoutResponse.statusCode() == 200);
+                                loggedOut.add(user);
+                            });
+                });
+    }
+
+    private static void record(EndpointRecorder recorder, long scheduled, CompletableFuture<HttpResponse<Void>> response) {
+        response.whenComplete((r, error) -> recorder.completed(scheduled, error == null && r.statusCode() < 300));
+    }
+
+    private void assertWithinBudgets(List<EndpointRecorder> recorders, long started) throws IOException {
+        Path reportDir = Paths.get(LoadSettings.reportDir());
+        Files.createDirectories(reportDir);
+
+        StringBuilder report = new StringBuilder(String.format("%d requests started at %.0f/s, %d login/logout skipped%n",
+                started, LoadSettings.rate(), skipped.get()));
+        report.append(String.format("%-10s %8s %8s %10s %10s %10s %10s%n", "endpoint", "count", "errors", "p50 ms", "p99 ms", "p99.9 ms", "max ms"));
+        List<String> violations = new ArrayList<>();
+        for (EndpointRecorder recorder : recorders) {
+            recorder.writeDistribution(reportDir);
+            report.append(String.format("%-10s %8d %8d %10.2f %10.2f %10.2f %10.2f%n", recorder.getName(), recorder.getCount(),
+                    recorder.getErrorCount(), recorder.getPercentileMillis(50), recorder.getPercentileMillis(99),
+                    recorder.getPercentileMillis(99.9), recorder.getPercentileMillis(100)));
+
+            if (recorder.getCount() > 0 && (double) recorder.getErrorCount() / recorder.getCount() > LoadSettings.maxErrorRate()) {
+                violations.add(String.format("%s: %d of %d requests failed", recorder.getName(), recorder.getErrorCount(), recorder.getCount()));
+            }
+        }
+        if (skipped.get() > 0) {
+            violations.add(String.format("%d login/logout slots found no logged out user among %d, logins and logouts "
+                    + "take far longer than their budgets or load.users is too small", skipped.get(), users.size()));
+        }
+        for (Map.Entry<String, Double> budget : LoadSettings.budgets().entrySet()) {
+            String endpoint = budget.getKey().substring(0, budget.getKey().indexOf(".p"));
+            double percentile = Double.parseDouble(budget.getKey().substring(endpoint.length() + 2));
+            for (EndpointRecorder recorder : recorders) {
+                if (!recorder.getName().equals(endpoint) || recorder.getCount() == 0) continue;
+                double latency = recorder.getPercentileMillis(percentile);
+                if (latency > budget.getValue()) {
+                    violations.add(String.format("%s p%s: %.2f ms > %.0f ms", endpoint, budget.getKey().substring(endpoint.length() + 2), latency, budget.getValue()));
+                }
+            }
+        }
+        System.out.print(report);
+        Files.writeString(reportDir.resolve("summary.txt"), report + String.join(System.lineSeparator(), violations));
+
+        assertTrue(violations.isEmpty(), "Load test budgets exceeded: " + violations);
+    }
+
+    /**
+     * Waits for the requests still in flight, at most a few seconds.
+     */
+    private void awaitQuiet() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (loggedOut.size() < users.size() && System.nanoTime() < deadline) Thread.sleep(10);
+        Thread.sleep(500);
+    }
+
+    private static String credentials(String username) {
+        return "{\"username\":\"" + username + "\",\"password\":\"password\"}";
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder(uri(path)).GET().build();
+    }
+
+    private HttpRequest post(String path, String json) {
+        return HttpRequest.newBuilder(uri(path)).header("Content-Type", "application/json").POST(HttpRequest.BodyPublishers.ofString(json)).build();
+    }
+
+    private HttpRequest put(String path, String json) {
+        return HttpRequest.newBuilder(uri(path)).header("Content-Type", "application/json").PUT(HttpRequest.BodyPublishers.ofString(json)).build();
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + port + path);
+    }
+}
@@ -0,0 +1,36 @@
+package ch.uzh.ifi.seal.soprafs20.cache;
+
+import org.ehcache.jsr107.EhcacheCachingProvider;
+import org.ehcache.xml.XmlConfiguration;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Gives the second-level cache of Hibernate a cache manager of its own, configured from ehcache.xml.
+ * The JCache provider hands out one shared manager per configuration file; with it every application context in a
+ * JVM (e.g. the contexts of the integration tests, each on its own database) would read the users cached by the
+ * others, and the first one closed would close the cache of all of them.
+ */
+@Configuration
+public class UserCacheConfig {
+
+    private static final AtomicInteger CACHE_MANAGERS = new AtomicInteger();
+
+    @Bean(destroyMethod = "close")
+    public CacheManager hibernateCacheManager() {
+        EhcacheCachingProvider provider = (EhcacheCachingProvider) Caching.getCachingProvider(EhcacheCachingProvider.class.getName());
+        URI uri = URI.create("urn:soprafs20:hibernate-cache:" + CACHE_MANAGERS.incrementAndGet());
+        return provider.getCacheManager(uri, new XmlConfiguration(getClass().getResource("/ehcache.xml")));
+    }
+
+    @Bean
+    public HibernatePropertiesCustomizer hibernateCacheManagerCustomizer(CacheManager hibernateCacheManager) {
+        return hibernateProperties -> hibernateProperties.put("hibernate.javax.cache.cache_manager", hibernateCacheManager);
+    }
+}
@@ -0,0 +1,5 @@
+package ch.uzh.ifi.seal.soprafs20.constant;
+
+public enum TokenMode {
+    OPAQUE, SIGNED;
+}
@@ -0,0 +1,5 @@
+package ch.uzh.ifi.seal.soprafs20.constant;
+
+public enum UserEventType {
+    CREATED, RENAMED, BIRTHDAY_CHANGED, LOGGED_IN, LOGGED_OUT, DELETED;
+}
@@ -0,0 +1,82 @@
+package ch.uzh.ifi.seal.soprafs20.controller;
+
+import ch.uzh.ifi.seal.soprafs20.exceptions.AdminAccessDenied;
+import ch.uzh.ifi.seal.soprafs20.jfr.FlightRecordings;
+import ch.uzh.ifi.seal.soprafs20.rest.dto.RecordingGetDTO;
+import jdk.jfr.Recording;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.*;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+
+/**
+ * Admin Controller
+ * This class handles the requests for operating a running node, e.g. profiling it with Java Flight Recorder.
+ * It only exists if users.admin.token is configured, every request has to send that token in the X-Admin-Token header.
+ */
+@RestController
+@ConditionalOnProperty("users.admin.token")
+public class AdminController {
+
+    public static final String ADMIN_TOKEN_HEADER = "X-Admin-Token";
+    public static final String APPLICATION_JFR_VALUE = "application/octet-stream";
+
+    private final FlightRecordings flightRecordings;
+
+    private final byte[] adminToken;
+
+    AdminController(FlightRecordings flightRecordings, @Value("${users.admin.token}") String adminToken) {
+        this.flightRecordings = flightRecordings;
+        this.adminToken = adminToken.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @PostMapping("/admin/recordings")
+    @ResponseStatus(HttpStatus.CREATED)
+    @ResponseBody
+    public RecordingGetDTO startRecording(@RequestHeader(value = ADMIN_TOKEN_HEADER, required = false) String token,
+                                          @RequestParam(defaultValue = "60") long durationSeconds,
+                                          @RequestParam(defaultValue = "profile") String settings) {
+        checkAdminToken(token);
+        Recording recording = flightRecordings.start(durationSeconds, settings);
+
+        RecordingGetDTO recordingGetDTO = new RecordingGetDTO();
+        recordingGetDTO.setId(recording.getId());
+        recordingGetDTO.setName(recording.getName());
+        recordingGetDTO.setState(recording.getState().name());
+        recordingGetDTO.setDurationSeconds(durationSeconds);
+        return recordingGetDTO;
+    }
+
+    @PutMapping("/admin/recordings/{recordingId}/stop")
+    @ResponseStatus(HttpStatus.OK)
+    public void stopRecording(@RequestHeader(value = ADMIN_TOKEN_HEADER, required = false) String token,
+                              @PathVariable long recordingId, HttpServletResponse response) throws IOException {
+        checkAdminToken(token);
+        Path recording = flightRecordings.stop(recordingId);
+        try {
+            response.setContentType(APPLICATION_JFR_VALUE);
+            response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"recording-" + recordingId + ".jfr\"");
+            // streamed from the file, a recording can be larger than what should be held in memory
+            Files.copy(recording, response.getOutputStream());
+            response.getOutputStream().flush();
+        }
+        finally {
+            Files.deleteIfExists(recording);
+        }
+    }
+
+    private void checkAdminToken(String token) {
+        // constant time, the comparison must not tell how much of a guessed token was right
+        if (token == null || !MessageDigest.isEqual(adminToken, token.getBytes(StandardCharsets.UTF_8))) {
+            throw new AdminAccessDenied("A valid admin token is required.");
+        }
+    }
+}
@@ -1,12 +1,28 @@
 package ch.uzh.ifi.seal.soprafs20.controller;
 
 import ch.uzh.ifi.seal.soprafs20.entity.User;
+import ch.uzh.ifi.seal.soprafs20.metrics.StatementBudget;
 import ch.uzh.ifi.seal.soprafs20.rest.dto.*;
 import ch.uzh.ifi.seal.soprafs20.rest.mapper.DTOMapper;
+import ch.uzh.ifi.seal.soprafs20.service.RegistrationResult;
+import ch.uzh.ifi.seal.soprafs20.service.UserDirectoryVersion;
+import ch.uzh.ifi.seal.soprafs20.service.UserEventBroadcaster;
 import ch.uzh.ifi.seal.soprafs20.service.UserService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -14,41 +30,110 @@ import java.util.List;
  * User Controller
  * This class is responsible for handling all REST request that are related to the user.
  * The controller will receive the request and delegate the execution to the UserService and finally return the result.
+ * Every endpoint declares the SQL statements it may need with an empty second-level cache (StatementBudget).
  */
 @RestController
 public class UserController {
 
+    public static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    public static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+
     private final UserService userService;
 
-    UserController(UserService userService) {
+    private final UserEventBroadcaster userEventBroadcaster;
+
+    private final UserDirectoryVersion userDirectoryVersion;
+
+    private final UserListCache userListCache;
+
+    private final ObjectWriter userGetDTOWriter;
+
+    UserController(UserService userService, UserEventBroadcaster userEventBroadcaster,
+                   UserDirectoryVersion userDirectoryVersion, UserListCache userListCache, ObjectMapper objectMapper) {
         this.userService = userService;
+        this.userEventBroadcaster = userEventBroadcaster;
+        this.userDirectoryVersion = userDirectoryVersion;
+        this.userListCache = userListCache;
+        this.userGetDTOWriter = objectMapper.writerFor(UserGetDTO.class);
     }
 
+    // no @ResponseStatus on the conditional GETs, it would overwrite the 304 of checkNotModified
     @GetMapping("/users")
+    @StatementBudget(1)
+    public ResponseEntity<byte[]> getAllUsers(@RequestParam(defaultValue = "0") long after,
+                                              @RequestParam(defaultValue = "100") int limit,
+                                              @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding,
+                                              WebRequest request) {
+        // nothing committed since the client's copy of this coding -> 304 without a query
+        long version = userDirectoryVersion.getVersion();
+        String eTag = userDirectoryVersion.eTagOf(version);
+        boolean gzip = acceptsGzip(acceptEncoding);
+        if (request.checkNotModified(gzip ? gzipETag(eTag) : eTag)) return null;
+
+        // one page of users, serialised (and compressed) once per version of the users
+        UserListCache.Page page = userListCache.get(version, after, limit);
+
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .varyBy(HttpHeaders.ACCEPT_ENCODING);
+        if (page.getNextCursor() != null) response.header(NEXT_CURSOR_HEADER, page.getNextCursor().toString());
+        if (gzip) return response.header(HttpHeaders.CONTENT_ENCODING, "gzip").body(page.getGzip());
+        return response.body(page.getJson());
+    }
+
+    @GetMapping(value = "/users/export", produces = APPLICATION_NDJSON_VALUE)
+    @StatementBudget(1)
+    @ResponseStatus(HttpStatus.OK)
+    public void exportUsers(HttpServletResponse response) throws IOException {
+        response.setContentType(APPLICATION_NDJSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+        OutputStream out = response.getOutputStream();
+
+        // write every user as its own JSON line while the rows are read, the servlet buffer flushes as it fills up
+        userService.exportUsers(user -> {
+            try {
+                out.write(userGetDTOWriter.writeValueAsBytes(DTOMapper.INSTANCE.convertEntityToUserGetDTO(user)));
+                out.write('\n');
+            }
+            catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        out.flush();
+    }
+
+    @GetMapping("/users/changes")
+    // users, tombstones and the rest of a bulk status write the page ended in
+    @StatementBudget(3)
     @ResponseStatus(HttpStatus.OK)
     @ResponseBody
-    public List<UserGetDTO> getAllUsers() {
-        // fetch all users in the internal representation
-        List<User> users = userService.getUsers();
-        List<UserGetDTO> userGetDTOs = new ArrayList<>();
-
-        // convert each user to the API representation
-        for (User user : users) {
-            userGetDTOs.add(DTOMapper.INSTANCE.convertEntityToUserGetDTO(user));
-        }
-        return userGetDTOs;
+    public UserChangesGetDTO getUserChanges(@RequestParam(defaultValue = "0") long since,
+                                            @RequestParam(defaultValue = "100") int limit) {
+        // only what changed after the client's last sync, plus the ids of deleted users
+        return userService.getUserChanges(since, limit);
+    }
+
+    @GetMapping(value = "/users/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @StatementBudget(0)
+    public SseEmitter streamUserEvents(@RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
+        // pushes every committed change of a user, replaces polling GET /users
+        return userEventBroadcaster.subscribe(lastEventId);
     }
 
     @GetMapping("/users/{userId}")
-    @ResponseStatus(HttpStatus.OK)
+    // the version lookup and, unless it is unchanged, the profile
+    @StatementBudget(2)
     @ResponseBody
-    public UserGetDTO getUser(@PathVariable String userId) {
+    public UserGetDTO getUser(@PathVariable String userId, WebRequest request) {
         User userInput = DTOMapper.INSTANCE.convertUserIdStringToEntity(userId);
-        UserGetDTO userGetDTO= DTOMapper.INSTANCE.convertEntityToUserGetDTO(userService.getUser(userInput));
-        return userGetDTO;
+        // an unchanged user costs a lookup of its version only
+        if (request.checkNotModified(userService.getUserETag(userInput))) return null;
+        return userService.getUserProfile(userInput);
     }
 
     @PostMapping("/users")
+    // the insert and a new block of ids from the user sequence
+    @StatementBudget(2)
     @ResponseStatus(HttpStatus.CREATED)
     @ResponseBody
     public UserGetDTO createUser(@RequestBody UserPostDTO userPostDTO) {
@@ -62,7 +147,29 @@ public class UserController {
         return DTOMapper.INSTANCE.convertEntityToUserGetDTO(createdUser);
     }
 
+    @PostMapping("/users/batch")
+    // one JDBC batch and at most one block of ids per chunk of 50 users, for the largest batch
+    @StatementBudget(2 * UserService.MAX_BATCH_SIZE / 50)
+    @ResponseStatus(HttpStatus.OK)
+    @ResponseBody
+    public List<UserBatchItemGetDTO> createUsers(@RequestBody List<UserPostDTO> userPostDTOs) {
+        // convert API users to internal representation
+        List<User> userInputs = new ArrayList<>(userPostDTOs.size());
+        for (UserPostDTO userPostDTO : userPostDTOs) {
+            userInputs.add(DTOMapper.INSTANCE.convertUserPostDTOtoEntity(userPostDTO));
+        }
+
+        // create users and report the outcome of every single registration
+        List<UserBatchItemGetDTO> results = new ArrayList<>(userInputs.size());
+        for (RegistrationResult result : userService.createUsers(userInputs)) {
+            results.add(DTOMapper.INSTANCE.convertRegistrationResultToUserBatchItemGetDTO(result));
+        }
+        return results;
+    }
+
     @PutMapping("/login")
+    // username, user, stored status and the write of a signed token or a migrated password
+    @StatementBudget(5)
     @ResponseStatus(HttpStatus.OK)
     @ResponseBody
     public UserTokenDTO loginUser(@RequestBody UserPutDTO userputDTO){
@@ -71,18 +178,59 @@ public class UserController {
     }
 
     @PutMapping("/users/{userId}")
+    // user and update, the stored token of a signed session
+    @StatementBudget(3)
     @ResponseStatus(HttpStatus.NO_CONTENT)
     @ResponseBody
-    public void updateUser(@RequestBody UserPutUserIdDTO userPutUserIdDTO, @PathVariable String userId){
-       userService.updateUser(DTOMapper.INSTANCE.convertUserPutUserIdDTOToEntity(userPutUserIdDTO), userId);
+    public void updateUser(@RequestBody UserPutUserIdDTO userPutUserIdDTO, @PathVariable String userId,
+                           @RequestHeader(value = "If-Match", required = false) String ifMatch){
+       userService.updateUser(DTOMapper.INSTANCE.convertUserPutUserIdDTOToEntity(userPutUserIdDTO), userId, ifMatch);
 
     }
 
+    @DeleteMapping("/users/{userId}")
+    // user, tombstone and delete; change versions come in blocks that are not counted
+    @StatementBudget(3)
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    @ResponseBody
+    public void deleteUser(@RequestBody UserTokenDTO userTokenDTO, @PathVariable String userId){
+        userService.deleteUser(DTOMapper.INSTANCE.convertUserTokenDTOToEntity(userTokenDTO), userId);
+    }
+
     @PutMapping("/logout")
+    // token or stored token, stored status and the token of the next generation of a signed session
+    @StatementBudget(3)
     @ResponseStatus(HttpStatus.OK)
     @ResponseBody
     public void logoutUser(@RequestBody UserTokenDTO userTokenDTO){
         User userInput =DTOMapper.INSTANCE.convertUserTokenDTOToEntity(userTokenDTO);
         userService.logOutUser(userInput) ;
     }
+
+    @PutMapping("/heartbeat")
+    @StatementBudget(1)
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    @ResponseBody
+    public void heartbeat(@RequestBody UserTokenDTO userTokenDTO){
+        userService.heartbeat(DTOMapper.INSTANCE.convertUserTokenDTOToEntity(userTokenDTO));
+    }
+
+    /**
+     * The gzip body has other bytes than the identity body, it must not share the strong tag with it (RFC 7232).
+     */
+    private static String gzipETag(String eTag) {
+        if (eTag == null) return null;
+        return eTag.substring(0, eTag.length() - 1) + "-gzip\"";
+    }
+
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) return false;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            if (!parts[0].trim().equalsIgnoreCase("gzip")) continue;
+            // gzip;q=0 explicitly refuses it
+            return parts.length < 2 || !parts[1].trim().matches("q=0(\\.0*)?");
+        }
+        return false;
+    }
 }
@@ -0,0 +1,183 @@
+package ch.uzh.ifi.seal.soprafs20.controller;
+
+import ch.uzh.ifi.seal.soprafs20.rest.dto.UserGetDTO;
+import ch.uzh.ifi.seal.soprafs20.service.UserService;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * User List Cache
+ * This class keeps the pages of GET /users as ready-to-send bytes: the JSON and its gzip variant, built once per
+ * page and version of the user directory (UserDirectoryVersion). A committed change moves the version, the pages of
+ * the old version are dropped and every page is rebuilt by the first request that asks for it. Concurrent requests
+ * for a page that is being built wait for that build instead of starting their own (single flight).
+ * Without a version (read replicas still catching up) pages are built for the request only and not kept. A request
+ * that read its version before a newer one is cached gets its pages built the same way, the cache never moves back.
+ */
+@Component
+public class UserListCache {
+
+    /**
+     * Immutable, pre-serialised page of users.
+     */
+    public static final class Page {
+
+        private final byte[] json;
+        private final byte[] gzip;
+        private final Long nextCursor;
+
+        private Page(byte[] json, byte[] gzip, Long nextCursor) {
+            this.json = json;
+            this.gzip = gzip;
+            this.nextCursor = nextCursor;
+        }
+
+        public byte[] getJson() {
+            return json;
+        }
+
+        public byte[] getGzip() {
+            return gzip;
+        }
+
+        /**
+         * @return the cursor of the next page or null if this is the last one
+         */
+        public Long getNextCursor() {
+            return nextCursor;
+        }
+    }
+
+    private static final class Generation {
+
+        private final long version;
+        private final ConcurrentHashMap<String, CompletableFuture<Page>> pages = new ConcurrentHashMap<>();
+
+        private Generation(long version) {
+            this.version = version;
+        }
+    }
+
+    private final UserService userService;
+    private final ObjectWriter usersWriter;
+    private final int maxPages;
+
+    private final AtomicReference<Generation> generation = new AtomicReference<>(new Generation(-1));
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder builds = new LongAdder();
+
+    public UserListCache(UserService userService, ObjectMapper objectMapper,
+                         @Value("${users.list-cache.max-pages:256}") int maxPages) {
+        this.userService = userService;
+        this.usersWriter = objectMapper.writerFor(new TypeReference<List<UserGetDTO>>() {});
+        this.maxPages = maxPages;
+    }
+
+    /**
+     * @param version the directory version read before this call, -1 if the page must not be cached
+     */
+    public Page get(long version, long after, int limit) {
+        int pageSize = UserService.pageSize(limit);
+        String key = after + ":" + pageSize;
+        Generation current = currentGeneration(version);
+        // no version, a version that is not the newest anymore or too many pages -> serve without caching
+        if (current == null || (current.pages.size() >= maxPages && !current.pages.containsKey(key))) {
+            return build(after, pageSize);
+        }
+
+        CompletableFuture<Page> page = new CompletableFuture<>();
+        CompletableFuture<Page> building = current.pages.putIfAbsent(key, page);
+        if (building != null) {
+            hits.increment();
+            return await(building);
+        }
+
+        try {
+            page.complete(build(after, pageSize));
+        }
+        catch (RuntimeException | Error e) {
+            // the waiting requests fail as well, the next one builds again
+            current.pages.remove(key, page);
+            page.completeExceptionally(e);
+            throw e;
+        }
+        return page.join();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getBuildCount() {
+        return builds.sum();
+    }
+
+    public int getCachedPageCount() {
+        return generation.get().pages.size();
+    }
+
+    private Generation currentGeneration(long version) {
+        if (version < 0) return null;
+        while (true) {
+            Generation current = generation.get();
+            if (version == current.version) return current;
+            // read before a newer version was cached, its pages may already miss changes of the cached one
+            if (version < current.version) return null;
+
+            // the pages of the previous version are stale, whoever gets here first replaces them
+            Generation next = new Generation(version);
+            if (generation.compareAndSet(current, next)) return next;
+        }
+    }
+
+    private Page build(long after, int pageSize) {
+        builds.increment();
+        List<UserGetDTO> users = userService.getUsers(after, pageSize);
+        // a full page means there might be more users -> hand out the cursor for the next page
+        Long nextCursor = !users.isEmpty() && users.size() == pageSize ? users.get(users.size() - 1).getId() : null;
+        try {
+            byte[] json = usersWriter.writeValueAsBytes(users);
+            return new Page(json, gzip(json), nextCursor);
+        }
+        catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] gzip(byte[] json) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(json.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(json);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private static Page await(CompletableFuture<Page> page) {
+        try {
+            return page.join();
+        }
+        catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error) throw (Error) e.getCause();
+            throw e;
+        }
+    }
+}
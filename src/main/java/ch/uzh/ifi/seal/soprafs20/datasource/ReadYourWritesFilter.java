@@ -0,0 +1,70 @@
+package ch.uzh.ifi.seal.soprafs20.datasource;
+
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Read Your Writes Filter
+ * Every request that may write (anything but GET, HEAD and OPTIONS) gets a cookie with the time until which the
+ * replicas may still miss its writes. Reads that come with a cookie that has not run out yet are served by the
+ * primary. Clients that drop the cookie read from the replicas right away.
+ */
+public class ReadYourWritesFilter extends OncePerRequestFilter {
+
+    static final String COOKIE_NAME = "primary-until";
+
+    private final ReplicaLagGuard lagGuard;
+
+    public ReadYourWritesFilter(ReplicaLagGuard lagGuard) {
+        this.lagGuard = lagGuard;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String method = request.getMethod();
+        if (!"GET".equals(method) && !"HEAD".equals(method) && !"OPTIONS".equals(method)) {
+            // set before the request is handled, the response may already be committed afterwards
+            Cookie cookie = new Cookie(COOKIE_NAME, Long.toString(System.currentTimeMillis() + lagGuard.getLagGuardMillis()));
+            cookie.setPath("/");
+            cookie.setHttpOnly(true);
+            cookie.setMaxAge((int) Math.max(1, (lagGuard.getLagGuardMillis() + 999) / 1000));
+            response.addCookie(cookie);
+            chain.doFilter(request, response);
+            return;
+        }
+
+        if (!wroteRecently(request)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        lagGuard.requirePrimary();
+        try {
+            chain.doFilter(request, response);
+        }
+        finally {
+            lagGuard.release();
+        }
+    }
+
+    private boolean wroteRecently(HttpServletRequest request) {
+        Cookie[] cookies = request.getCookies();
+        if (cookies == null) return false;
+        for (Cookie cookie : cookies) {
+            if (!COOKIE_NAME.equals(cookie.getName())) continue;
+            try {
+                return Long.parseLong(cookie.getValue()) > System.currentTimeMillis();
+            }
+            catch (NumberFormatException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,91 @@
+package ch.uzh.ifi.seal.soprafs20.datasource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sets up read replicas once users.datasource.replicas is configured: the datasource of the application becomes a
+ * ReplicaRoutingDataSource over the primary (spring.datasource.*) and the replicas, and the ReadYourWritesFilter
+ * keeps clients that just wrote on the primary. Without replicas Spring Boot configures the single datasource as usual.
+ */
+@Configuration
+@ConditionalOnProperty("users.datasource.replicas[0].url")
+@EnableConfigurationProperties(ReplicaProperties.class)
+public class ReplicaDataSourceConfig {
+
+    @Bean
+    public ReplicaLagGuard replicaLagGuard(ReplicaProperties replicaProperties) {
+        return new ReplicaLagGuard(replicaProperties.getReplicaLagGuardMs());
+    }
+
+    @Bean
+    public ReplicaRoutingDataSource replicaRoutingDataSource(DataSourceProperties primaryProperties,
+                                                             ReplicaProperties replicaProperties,
+                                                             ReplicaLagGuard replicaLagGuard) {
+        DataSource primary = named(primaryProperties.initializeDataSourceBuilder().build(), "primary");
+        List<DataSource> replicas = new ArrayList<>();
+        for (ReplicaProperties.Replica replica : replicaProperties.getReplicas()) {
+            replicas.add(named(DataSourceBuilder.create()
+                    .driverClassName(primaryProperties.determineDriverClassName())
+                    .url(replica.getUrl())
+                    .username(replica.getUsername() != null ? replica.getUsername() : primaryProperties.determineUsername())
+                    .password(replica.getPassword() != null ? replica.getPassword() : primaryProperties.determinePassword())
+                    .build(), "replica-" + replicas.size()));
+        }
+        return new ReplicaRoutingDataSource(primary, replicas, replicaLagGuard,
+                replicaProperties.getReplicaHealthCheckTimeoutSeconds());
+    }
+
+    /**
+     * Spring Boot only instruments a connection pool that is a datasource bean itself, the pools behind the routing
+     * datasource are bound here (hikaricp.*, e.g. the wait for a connection, tagged with the pool name).
+     */
+    @Bean
+    public MeterBinder replicaDataSourceMetrics(ReplicaRoutingDataSource replicaRoutingDataSource) {
+        return registry -> {
+            replicaRoutingDataSource.forEachDataSource(dataSource -> {
+                // a pool takes one registry only
+                if (dataSource instanceof HikariDataSource && ((HikariDataSource) dataSource).getMetricRegistry() == null) {
+                    ((HikariDataSource) dataSource).setMetricRegistry(registry);
+                }
+            });
+            Gauge.builder("users.datasource.replicas.healthy", replicaRoutingDataSource, ReplicaRoutingDataSource::getHealthyReplicaCount)
+                    .register(registry);
+            FunctionCounter.builder("users.datasource.connections", replicaRoutingDataSource, ReplicaRoutingDataSource::getPrimaryConnectionCount)
+                    .tag("target", "primary").register(registry);
+            FunctionCounter.builder("users.datasource.connections", replicaRoutingDataSource, ReplicaRoutingDataSource::getReplicaConnectionCount)
+                    .tag("target", "replica").register(registry);
+        };
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(ReplicaRoutingDataSource replicaRoutingDataSource) {
+        return new LazyConnectionDataSourceProxy(replicaRoutingDataSource);
+    }
+
+    @Bean
+    public FilterRegistrationBean<ReadYourWritesFilter> readYourWritesFilter(ReplicaLagGuard replicaLagGuard) {
+        return new FilterRegistrationBean<>(new ReadYourWritesFilter(replicaLagGuard));
+    }
+
+    private static DataSource named(DataSource dataSource, String poolName) {
+        if (dataSource instanceof HikariDataSource) ((HikariDataSource) dataSource).setPoolName(poolName);
+        return dataSource;
+    }
+}
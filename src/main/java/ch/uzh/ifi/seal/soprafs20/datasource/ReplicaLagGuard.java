@@ -0,0 +1,37 @@
+package ch.uzh.ifi.seal.soprafs20.datasource;
+
+/**
+ * Replica Lag Guard
+ * Replicas apply the writes of the primary with some delay. A client that just wrote must still read its own write,
+ * so for users.datasource.replica-lag-guard-ms after a write its requests are served by the primary only
+ * (see ReadYourWritesFilter). The guard has to cover the replication lag plus the duration of the writing request.
+ */
+public class ReplicaLagGuard {
+
+    private static final ThreadLocal<Boolean> PRIMARY_REQUIRED = new ThreadLocal<>();
+
+    private final long lagGuardMillis;
+
+    public ReplicaLagGuard(long lagGuardMillis) {
+        this.lagGuardMillis = lagGuardMillis;
+    }
+
+    public long getLagGuardMillis() {
+        return lagGuardMillis;
+    }
+
+    /**
+     * Sends all reads of the current thread to the primary until release is called.
+     */
+    void requirePrimary() {
+        PRIMARY_REQUIRED.set(Boolean.TRUE);
+    }
+
+    void release() {
+        PRIMARY_REQUIRED.remove();
+    }
+
+    boolean isPrimaryRequired() {
+        return PRIMARY_REQUIRED.get() != null;
+    }
+}
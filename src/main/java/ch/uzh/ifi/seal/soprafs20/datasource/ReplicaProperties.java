@@ -0,0 +1,76 @@
+package ch.uzh.ifi.seal.soprafs20.datasource;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Replicas of the primary datasource (spring.datasource.*), e.g.
+ * users.datasource.replicas[0].url=jdbc:h2:tcp://replica-1/users
+ * Username and password default to the ones of the primary.
+ */
+@ConfigurationProperties("users.datasource")
+public class ReplicaProperties {
+
+    public static class Replica {
+
+        private String url;
+        private String username;
+        private String password;
+
+        public String getUrl() {
+            return url;
+        }
+
+        public void setUrl(String url) {
+            this.url = url;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public void setUsername(String username) {
+            this.username = username;
+        }
+
+        public String getPassword() {
+            return password;
+        }
+
+        public void setPassword(String password) {
+            this.password = password;
+        }
+    }
+
+    private List<Replica> replicas = new ArrayList<>();
+
+    private long replicaLagGuardMs = 2000;
+
+    private int replicaHealthCheckTimeoutSeconds = 1;
+
+    public List<Replica> getReplicas() {
+        return replicas;
+    }
+
+    public void setReplicas(List<Replica> replicas) {
+        this.replicas = replicas;
+    }
+
+    public long getReplicaLagGuardMs() {
+        return replicaLagGuardMs;
+    }
+
+    public void setReplicaLagGuardMs(long replicaLagGuardMs) {
+        this.replicaLagGuardMs = replicaLagGuardMs;
+    }
+
+    public int getReplicaHealthCheckTimeoutSeconds() {
+        return replicaHealthCheckTimeoutSeconds;
+    }
+
+    public void setReplicaHealthCheckTimeoutSeconds(int replicaHealthCheckTimeoutSeconds) {
+        this.replicaHealthCheckTimeoutSeconds = replicaHealthCheckTimeoutSeconds;
+    }
+}
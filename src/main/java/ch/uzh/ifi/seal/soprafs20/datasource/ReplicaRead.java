@@ -0,0 +1,20 @@
+package ch.uzh.ifi.seal.soprafs20.datasource;
+
+import org.springframework.transaction.annotation.Transactional;
+
+import java.lang.annotation.*;
+
+/**
+ * Marks a read-only transaction that may be served by a replica, i.e. one that can live with data that is a little
+ * behind the primary. Only transactions started by such a method are routed to a replica, every other transaction
+ * (including the implicit read-only ones of the repositories) stays on the primary. Without configured replicas it
+ * is a plain read-only transaction.
+ */
+@Target({ElementType.METHOD, ElementType.TYPE})
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+@Transactional(transactionManager = ReplicaRead.TRANSACTION_MANAGER, readOnly = true)
+public @interface ReplicaRead {
+
+    String TRANSACTION_MANAGER = "replicaReadTransactionManager";
+}
@@ -0,0 +1,32 @@
+package ch.uzh.ifi.seal.soprafs20.datasource;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Remembers per thread whether the innermost transaction that was started may read from a replica.
+ * A stack, so that a new transaction started inside another one (REQUIRES_NEW) routes by its own kind and the outer
+ * one is back in effect afterwards.
+ */
+final class ReplicaRouting {
+
+    private static final ThreadLocal<Deque<Boolean>> TRANSACTIONS = ThreadLocal.withInitial(ArrayDeque::new);
+
+    private ReplicaRouting() {
+    }
+
+    static void begin(boolean replicaRead) {
+        TRANSACTIONS.get().push(replicaRead);
+    }
+
+    static void end() {
+        Deque<Boolean> transactions = TRANSACTIONS.get();
+        transactions.pop();
+        if (transactions.isEmpty()) TRANSACTIONS.remove();
+    }
+
+    static boolean isReplicaRead() {
+        Boolean replicaRead = TRANSACTIONS.get().peek();
+        return replicaRead != null && replicaRead;
+    }
+}
@@ -0,0 +1,152 @@
+package ch.uzh.ifi.seal.soprafs20.datasource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Replica Routing DataSource
+ * This class hands out connections of the primary datasource, or of a replica for transactions marked with
+ * ReplicaRead. Replicas are used round-robin. A replica that fails a health check or cannot open a connection is
+ * left out until a later health check passes again. Without a healthy replica, and for clients inside the
+ * ReplicaLagGuard window, replica reads go to the primary as well.
+ * It must be wrapped in a LazyConnectionDataSourceProxy, otherwise the connection is fetched before the transaction
+ * manager has marked the transaction.
+ */
+public class ReplicaRoutingDataSource extends AbstractDataSource implements AutoCloseable {
+
+    private interface ConnectionOpener {
+        Connection open(DataSource dataSource) throws SQLException;
+    }
+
+    private static final class Replica {
+
+        private final String name;
+        private final DataSource dataSource;
+        private volatile boolean healthy = true;
+
+        private Replica(String name, DataSource dataSource) {
+            this.name = name;
+            this.dataSource = dataSource;
+        }
+    }
+
+    private final Logger log = LoggerFactory.getLogger(ReplicaRoutingDataSource.class);
+
+    private final DataSource primary;
+    private final List<Replica> replicas = new ArrayList<>();
+    private final ReplicaLagGuard lagGuard;
+    private final int healthCheckTimeoutSeconds;
+
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final LongAdder replicaConnections = new LongAdder();
+    private final LongAdder primaryConnections = new LongAdder();
+
+    public ReplicaRoutingDataSource(DataSource primary, List<DataSource> replicas, ReplicaLagGuard lagGuard,
+                                    int healthCheckTimeoutSeconds) {
+        this.primary = primary;
+        for (int i = 0; i < replicas.size(); i++) this.replicas.add(new Replica("replica-" + i, replicas.get(i)));
+        this.lagGuard = lagGuard;
+        this.healthCheckTimeoutSeconds = healthCheckTimeoutSeconds;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return route(DataSource::getConnection);
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return route(dataSource -> dataSource.getConnection(username, password));
+    }
+
+    /**
+     * Takes replicas that fail to answer in time out of the rotation and puts recovered ones back.
+     */
+    @Scheduled(fixedDelayString = "${users.datasource.replica-health-check-ms:5000}")
+    public void checkReplicas() {
+        for (Replica replica : replicas) {
+            boolean healthy;
+            try (Connection connection = replica.dataSource.getConnection()) {
+                healthy = connection.isValid(healthCheckTimeoutSeconds);
+            }
+            catch (SQLException e) {
+                healthy = false;
+            }
+            if (healthy != replica.healthy) log.warn("{} is {}", replica.name, healthy ? "healthy again" : "unhealthy");
+            replica.healthy = healthy;
+        }
+    }
+
+    public int getHealthyReplicaCount() {
+        int healthy = 0;
+        for (Replica replica : replicas) {
+            if (replica.healthy) healthy++;
+        }
+        return healthy;
+    }
+
+    public long getReplicaConnectionCount() {
+        return replicaConnections.sum();
+    }
+
+    public long getPrimaryConnectionCount() {
+        return primaryConnections.sum();
+    }
+
+    /**
+     * Hands the primary and every replica to the consumer, e.g. to instrument their pools.
+     */
+    void forEachDataSource(Consumer<DataSource> consumer) {
+        consumer.accept(primary);
+        for (Replica replica : replicas) consumer.accept(replica.dataSource);
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (primary instanceof AutoCloseable) ((AutoCloseable) primary).close();
+        for (Replica replica : replicas) {
+            if (replica.dataSource instanceof AutoCloseable) ((AutoCloseable) replica.dataSource).close();
+        }
+    }
+
+    private Connection route(ConnectionOpener opener) throws SQLException {
+        if (ReplicaRouting.isReplicaRead() && !lagGuard.isPrimaryRequired()) {
+            Replica replica = nextHealthyReplica();
+            if (replica != null) {
+                try {
+                    Connection connection = opener.open(replica.dataSource);
+                    replicaConnections.increment();
+                    return connection;
+                }
+                catch (SQLException e) {
+                    // the health check puts it back once it answers again
+                    replica.healthy = false;
+                    log.warn("{} failed, reading from the primary instead: {}", replica.name, e.getMessage());
+                }
+            }
+        }
+        Connection connection = opener.open(primary);
+        primaryConnections.increment();
+        return connection;
+    }
+
+    private Replica nextHealthyReplica() {
+        int start = Math.floorMod(nextReplica.getAndIncrement(), Math.max(1, replicas.size()));
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = replicas.get((start + i) % replicas.size());
+            if (replica.healthy) return replica;
+        }
+        return null;
+    }
+}
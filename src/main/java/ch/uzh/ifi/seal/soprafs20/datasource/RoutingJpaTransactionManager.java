@@ -0,0 +1,81 @@
+package ch.uzh.ifi.seal.soprafs20.datasource;
+
+import org.springframework.orm.jpa.EntityManagerHolder;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.persistence.CacheStoreMode;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Jpa Transaction Manager that records for every new transaction whether it may read from a replica, the
+ * ReplicaRoutingDataSource picks the connection accordingly. The connection is only fetched with the first
+ * statement (LazyConnectionDataSourceProxy), after this mark has been set. A joined transaction keeps the
+ * connection of the one it joined.
+ * Users read from a replica may be older than the cached ones, so replica transactions read the second-level cache
+ * but do not put what they load into it. The store mode is set on the EntityManager of every transaction, also on
+ * one that was bound before the transaction began, and restored when the transaction has ended.
+ */
+class RoutingJpaTransactionManager extends JpaTransactionManager {
+
+    private static final String STORE_MODE = "javax.persistence.cache.storeMode";
+
+    private final boolean replicaRead;
+    private final boolean cacheLoadedEntities;
+
+    // store modes to restore, one per running transaction of this manager on the thread
+    private final ThreadLocal<Deque<Object>> previousStoreModes = ThreadLocal.withInitial(ArrayDeque::new);
+
+    RoutingJpaTransactionManager(EntityManagerFactory entityManagerFactory, boolean replicaRead, boolean cacheLoadedEntities) {
+        super(entityManagerFactory);
+        this.replicaRead = replicaRead;
+        this.cacheLoadedEntities = cacheLoadedEntities;
+    }
+
+    @Override
+    protected void doBegin(Object transaction, TransactionDefinition definition) {
+        ReplicaRouting.begin(replicaRead);
+        try {
+            super.doBegin(transaction, definition);
+        }
+        catch (RuntimeException | Error e) {
+            ReplicaRouting.end();
+            throw e;
+        }
+        if (!cacheLoadedEntities) {
+            // bound by doBegin, either created for this transaction or found on the thread (e.g. open in view)
+            EntityManager entityManager = transactionEntityManager();
+            previousStoreModes.get().push(entityManager.getProperties().getOrDefault(STORE_MODE, CacheStoreMode.USE));
+            entityManager.setProperty(STORE_MODE, CacheStoreMode.BYPASS);
+        }
+    }
+
+    @Override
+    protected void doCleanupAfterCompletion(Object transaction) {
+        try {
+            if (!cacheLoadedEntities) {
+                Deque<Object> storeModes = previousStoreModes.get();
+                Object previous = storeModes.pop();
+                if (storeModes.isEmpty()) previousStoreModes.remove();
+                EntityManager entityManager = transactionEntityManager();
+                if (entityManager != null && entityManager.isOpen()) entityManager.setProperty(STORE_MODE, previous);
+            }
+            super.doCleanupAfterCompletion(transaction);
+        }
+        finally {
+            ReplicaRouting.end();
+        }
+    }
+
+    /**
+     * @return the EntityManager bound to the transaction, null once it has been unbound
+     */
+    private EntityManager transactionEntityManager() {
+        EntityManagerHolder holder = (EntityManagerHolder) TransactionSynchronizationManager.getResource(obtainEntityManagerFactory());
+        return holder != null ? holder.getEntityManager() : null;
+    }
+}
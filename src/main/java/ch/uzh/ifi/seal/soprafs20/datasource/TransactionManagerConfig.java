@@ -0,0 +1,42 @@
+package ch.uzh.ifi.seal.soprafs20.datasource;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.transaction.TransactionManagerCustomizers;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import javax.persistence.EntityManagerFactory;
+
+/**
+ * Replaces the transaction manager of Spring Boot by two on the same EntityManagerFactory: the primary one for all
+ * transactions and the one behind ReplicaRead. They only differ in where a ReplicaRoutingDataSource sends their
+ * connections, without configured replicas both use the single datasource. Entities loaded by replica reads are only
+ * put into the second-level cache as long as there are no replicas.
+ */
+@Configuration
+public class TransactionManagerConfig {
+
+    @Bean
+    @Primary
+    public PlatformTransactionManager transactionManager(EntityManagerFactory entityManagerFactory,
+                                                         ObjectProvider<TransactionManagerCustomizers> customizers) {
+        return customized(new RoutingJpaTransactionManager(entityManagerFactory, false, true), customizers);
+    }
+
+    @Bean(ReplicaRead.TRANSACTION_MANAGER)
+    public PlatformTransactionManager replicaReadTransactionManager(EntityManagerFactory entityManagerFactory,
+                                                                   ObjectProvider<ReplicaLagGuard> replicaLagGuard,
+                                                                   ObjectProvider<TransactionManagerCustomizers> customizers) {
+        boolean replicas = replicaLagGuard.getIfAvailable() != null;
+        return customized(new RoutingJpaTransactionManager(entityManagerFactory, true, !replicas), customizers);
+    }
+
+    private PlatformTransactionManager customized(JpaTransactionManager transactionManager,
+                                                  ObjectProvider<TransactionManagerCustomizers> customizers) {
+        customizers.ifAvailable(c -> c.customize(transactionManager));
+        return transactionManager;
+    }
+}
@@ -1,6 +1,11 @@
 package ch.uzh.ifi.seal.soprafs20.entity;
 
 import ch.uzh.ifi.seal.soprafs20.constant.UserStatus;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.DynamicUpdate;
+import org.hibernate.annotations.NaturalId;
+import org.hibernate.annotations.NaturalIdCache;
 
 import javax.persistence.*;
 import java.io.Serializable;
@@ -12,15 +17,35 @@ import java.util.Date;
  * Every variable will be mapped into a database field with the @Column annotation
  *  nullable = false -> this cannot be left empty
  * - unique = true -> this value must be unqiue across the database -> composes the primary key
+ * Updates only write the changed columns: status, token and password are also written by bulk statements that do not
+ * touch the version, a profile update must not put back the values it happened to load.
+ * Users are kept in the second-level cache, by id and by username (the natural id). Writes through the entity update
+ * the cache when they commit, the column writes of UserWriteRepository invalidate the users they write.
+ * Every insert and update of the entity gets the next change version (UserChangeListener), the status flush of the
+ * PresenceStore sets it in its bulk statement. The versions come from USER_CHANGE_SEQ, which is exported with this
+ * table (UserSchemaContributor).
  */
 @Entity
-@Table(name = "USER")
+@DynamicUpdate
+@EntityListeners(UserChangeListener.class)
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = User.CACHE_REGION)
+@NaturalIdCache(region = User.NATURAL_ID_CACHE_REGION)
+@Table(name = "USER", indexes = @Index(name = "IDX_USER_CHANGE_VERSION", columnList = "change_version"))
 public class User implements Serializable {
 
 	private static final long serialVersionUID = 1L;
 
+	public static final String CACHE_REGION = "users";
+	public static final String NATURAL_ID_CACHE_REGION = "users-by-username";
+
+	public static final String CHANGE_VERSION_SEQUENCE = "USER_CHANGE_SEQ";
+	// increment of USER_CHANGE_SEQ, one sequence call hands out a block of that many change versions
+	public static final int CHANGE_VERSION_BLOCK_SIZE = 50;
+
+	// pooled sequence: one sequence call hands out a block of ids, so batched inserts need no round trip per id
 	@Id
-	@GeneratedValue
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "user_sequence")
+	@SequenceGenerator(name = "user_sequence", sequenceName = "USER_SEQ", allocationSize = 50)
 	private Long id;
 
 	@Column(nullable = false)
@@ -29,6 +54,7 @@ public class User implements Serializable {
     @Column
     private Date birthday;
 
+	@NaturalId(mutable = true)
 	@Column(nullable = false, unique = true)
 	private String username;
 	
@@ -41,6 +67,16 @@ public class User implements Serializable {
 	@Column(nullable = false)
     private String password;
 
+	// set on every insert and update of the entity and by the status flush; token and password are not part of the
+	// changes, their bulk statements keep it. A cached user may hold an older value -> read it through UserChangeView
+	@Column(name = "change_version", nullable = false)
+	private Long changeVersion;
+
+	// checked and incremented by every update of the entity (username, birthday), not by the bulk statements
+	@Version
+	@Column(nullable = false)
+	private long version;
+
 	public Date getAccountCreationDate(){ return accountCreationDate;}
 
 	public void setAccountCreationDate(Date date) {this.accountCreationDate = date;}
@@ -84,4 +120,16 @@ public class User implements Serializable {
 	public void setPassword (String password){this.password = password;}
 
 	public String getPassword(){return password;}
+
+	public Long getChangeVersion() {
+		return changeVersion;
+	}
+
+	public void setChangeVersion(Long changeVersion) {
+		this.changeVersion = changeVersion;
+	}
+
+	public long getVersion() {
+		return version;
+	}
 }
@@ -0,0 +1,27 @@
+package ch.uzh.ifi.seal.soprafs20.entity;
+
+import ch.uzh.ifi.seal.soprafs20.repository.UserChangeVersions;
+import org.springframework.beans.factory.ObjectProvider;
+
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+
+/**
+ * Gives every insert and update of a user the next change version, in the transaction that writes it.
+ * The listener is created by Spring while the EntityManagerFactory is built, so the UserChangeVersions (which need the
+ * EntityManagerFactory themselves) are only looked up with the first write.
+ */
+public class UserChangeListener {
+
+	private final ObjectProvider<UserChangeVersions> userChangeVersions;
+
+	public UserChangeListener(ObjectProvider<UserChangeVersions> userChangeVersions) {
+		this.userChangeVersions = userChangeVersions;
+	}
+
+	@PrePersist
+	@PreUpdate
+	void assignChangeVersion(User user) {
+		user.setChangeVersion(userChangeVersions.getObject().next());
+	}
+}
@@ -0,0 +1,22 @@
+package ch.uzh.ifi.seal.soprafs20.entity;
+
+import org.hibernate.boot.model.naming.Identifier;
+import org.hibernate.boot.model.relational.Namespace;
+import org.hibernate.boot.spi.InFlightMetadataCollector;
+import org.hibernate.boot.spi.MetadataContributor;
+import org.jboss.jandex.IndexView;
+
+/**
+ * Adds USER_CHANGE_SEQ to the schema of the USER table. The sequence generates no identifier, so Hibernate would not
+ * create it on its own; declaring it here lets every schema export (and the dialect) handle it like USER_SEQ.
+ * Registered in META-INF/services.
+ */
+public class UserSchemaContributor implements MetadataContributor {
+
+	@Override
+	public void contribute(InFlightMetadataCollector metadataCollector, IndexView jandexIndex) {
+		Namespace namespace = metadataCollector.getDatabase().getDefaultNamespace();
+		Identifier name = Identifier.toIdentifier(User.CHANGE_VERSION_SEQUENCE);
+		if (namespace.locateSequence(name) == null) namespace.createSequence(name, 1, User.CHANGE_VERSION_BLOCK_SIZE);
+	}
+}
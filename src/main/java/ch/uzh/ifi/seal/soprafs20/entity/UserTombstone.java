@@ -0,0 +1,62 @@
+package ch.uzh.ifi.seal.soprafs20.entity;
+
+import org.springframework.data.domain.Persistable;
+
+import javax.persistence.*;
+import java.io.Serializable;
+
+/**
+ * Internal Representation of a deleted User
+ * Records that a user was deleted, so clients that sync with GET /users/changes drop it as well.
+ * The change version is the primary key: it is taken from UserChangeVersions like the versions of the rows of the
+ * USER table, so deletions and changes are ordered together.
+ * Tombstones are only ever inserted, the assigned key must not make Spring Data look for an existing row first.
+ */
+@Entity
+@Table(name = "USER_TOMBSTONE")
+public class UserTombstone implements Persistable<Long>, Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	@Id
+	private Long changeVersion;
+
+	@Column(nullable = false)
+	private Long userId;
+
+	@Transient
+	private boolean isNew;
+
+	public UserTombstone() {
+	}
+
+	public UserTombstone(Long changeVersion, Long userId) {
+		this.changeVersion = changeVersion;
+		this.userId = userId;
+		this.isNew = true;
+	}
+
+	public Long getChangeVersion() {
+		return changeVersion;
+	}
+
+	public Long getUserId() {
+		return userId;
+	}
+
+	@Override
+	public Long getId() {
+		return changeVersion;
+	}
+
+	@Override
+	public boolean isNew() {
+		return isNew;
+	}
+
+	@PostPersist
+	@PostLoad
+	void markStored() {
+		isNew = false;
+	}
+}
@@ -0,0 +1,11 @@
+package ch.uzh.ifi.seal.soprafs20.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.FORBIDDEN)
+public class AdminAccessDenied extends RuntimeException {
+    public AdminAccessDenied(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,11 @@
+package ch.uzh.ifi.seal.soprafs20.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.NOT_FOUND)
+public class RecordingNotFound extends RuntimeException {
+    public RecordingNotFound(String message) {
+        super(message);
+    }
+}
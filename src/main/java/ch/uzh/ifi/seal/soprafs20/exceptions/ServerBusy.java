@@ -0,0 +1,11 @@
+package ch.uzh.ifi.seal.soprafs20.exceptions;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class ServerBusy extends RuntimeException {
+    public ServerBusy(String message) {
+        super(message);
+    }
+}
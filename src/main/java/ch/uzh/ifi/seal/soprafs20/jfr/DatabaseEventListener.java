@@ -0,0 +1,60 @@
+package ch.uzh.ifi.seal.soprafs20.jfr;
+
+import org.hibernate.BaseSessionEventListener;
+
+/**
+ * Emits a DatabaseRoundTripEvent for every statement, batch and connection acquisition of a Hibernate session.
+ * Hibernate creates one listener per session (hibernate.session.events.auto), a session is used by one thread at a
+ * time, so the started events need no synchronization.
+ */
+public class DatabaseEventListener extends BaseSessionEventListener {
+
+    private static final long serialVersionUID = 1L;
+
+    private transient DatabaseRoundTripEvent statement;
+    private transient DatabaseRoundTripEvent batch;
+    private transient DatabaseRoundTripEvent connection;
+
+    @Override
+    public void jdbcExecuteStatementStart() {
+        statement = begin(DatabaseRoundTripEvent.STATEMENT);
+    }
+
+    @Override
+    public void jdbcExecuteStatementEnd() {
+        statement = commit(statement);
+    }
+
+    @Override
+    public void jdbcExecuteBatchStart() {
+        batch = begin(DatabaseRoundTripEvent.BATCH);
+    }
+
+    @Override
+    public void jdbcExecuteBatchEnd() {
+        batch = commit(batch);
+    }
+
+    @Override
+    public void jdbcConnectionAcquisitionStart() {
+        connection = begin(DatabaseRoundTripEvent.CONNECTION);
+    }
+
+    @Override
+    public void jdbcConnectionAcquisitionEnd() {
+        connection = commit(connection);
+    }
+
+    private static DatabaseRoundTripEvent begin(String kind) {
+        DatabaseRoundTripEvent event = new DatabaseRoundTripEvent();
+        if (!event.isEnabled()) return null;
+        event.kind = kind;
+        event.begin();
+        return event;
+    }
+
+    private static DatabaseRoundTripEvent commit(DatabaseRoundTripEvent event) {
+        if (event != null) event.commit();
+        return null;
+    }
+}
@@ -0,0 +1,18 @@
+package ch.uzh.ifi.seal.soprafs20.jfr;
+
+import jdk.jfr.*;
+
+@Name("ch.uzh.ifi.seal.soprafs20.DatabaseRoundTrip")
+@Label("Database Round Trip")
+@Description("A JDBC statement or batch executed by Hibernate, or the wait for a pooled connection.")
+@Category({"SoPra", "Database"})
+@StackTrace(false)
+public class DatabaseRoundTripEvent extends Event {
+
+    public static final String STATEMENT = "STATEMENT";
+    public static final String BATCH = "BATCH";
+    public static final String CONNECTION = "CONNECTION";
+
+    @Label("Kind")
+    String kind;
+}
@@ -0,0 +1,18 @@
+package ch.uzh.ifi.seal.soprafs20.jfr;
+
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Registers the DatabaseEventListener with every Hibernate session.
+ */
+@Configuration
+public class FlightRecorderConfig {
+
+    @Bean
+    public HibernatePropertiesCustomizer databaseEventListenerCustomizer() {
+        return hibernateProperties -> hibernateProperties.put(AvailableSettings.AUTO_SESSION_EVENTS_LISTENER, DatabaseEventListener.class.getName());
+    }
+}
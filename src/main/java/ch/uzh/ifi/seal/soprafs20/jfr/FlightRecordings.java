@@ -0,0 +1,116 @@
+package ch.uzh.ifi.seal.soprafs20.jfr;
+
+import ch.uzh.ifi.seal.soprafs20.exceptions.IllegalRecordingInput;
+import ch.uzh.ifi.seal.soprafs20.exceptions.RecordingAlreadyRunning;
+import ch.uzh.ifi.seal.soprafs20.exceptions.RecordingNotFound;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Flight Recordings
+ * Starts Java Flight Recorder recordings on a running node, e.g. while latencies spike, and hands them out as .jfr
+ * files. A recording is time-boxed: it stops by itself after its duration (at most users.admin.jfr.max-duration-seconds)
+ * and is written to a temporary file, or earlier when it is stopped by hand.
+ * One recording runs at a time, starting a new one discards the stopped recordings nobody fetched.
+ */
+@Component
+public class FlightRecordings {
+
+    /**
+     * The configurations shipped with the JDK: "default" is meant for continuous use (about 1% overhead), "profile"
+     * adds method sampling and allocation profiling (about 2%).
+     */
+    public static final List<String> SETTINGS = List.of("default", "profile");
+
+    private final long maxDurationSeconds;
+    private final Map<Long, Recording> recordings = new ConcurrentHashMap<>();
+
+    public FlightRecordings(@Value("${users.admin.jfr.max-duration-seconds:300}") long maxDurationSeconds) {
+        this.maxDurationSeconds = maxDurationSeconds;
+    }
+
+    public synchronized Recording start(long durationSeconds, String settings) {
+        if (durationSeconds < 1 || durationSeconds > maxDurationSeconds) {
+            throw new IllegalRecordingInput(String.format("A recording takes between 1 and %d seconds!", maxDurationSeconds));
+        }
+        if (!SETTINGS.contains(settings)) throw new IllegalRecordingInput("The settings must be one of " + SETTINGS + "!");
+        for (Recording recording : recordings.values()) {
+            if (recording.getState() == RecordingState.RUNNING) {
+                throw new RecordingAlreadyRunning(String.format("Recording %d is still running.", recording.getId()));
+            }
+        }
+        recordings.values().forEach(FlightRecordings::discard);
+        recordings.clear();
+
+        Recording recording;
+        try {
+            recording = new Recording(Configuration.getConfiguration(settings));
+            recording.setDestination(Files.createTempFile("soprafs20-", ".jfr"));
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        catch (ParseException e) {
+            throw new IllegalStateException("The JDK configuration " + settings + " cannot be read", e);
+        }
+        recording.setName("soprafs20-" + settings);
+        recording.setToDisk(true);
+        recording.setDuration(Duration.ofSeconds(durationSeconds));
+        recording.start();
+        recordings.put(recording.getId(), recording);
+        return recording;
+    }
+
+    /**
+     * Stops the recording if it is still running. The recording is gone afterwards, the caller owns its file.
+     *
+     * @return the .jfr file of the recording
+     */
+    public Path stop(long id) {
+        Recording recording = recordings.remove(id);
+        if (recording == null) throw new RecordingNotFound(String.format("No recording with id %d exists.", id));
+        // writes the file, unless the duration has run out and the recorder did that already
+        if (recording.getState() == RecordingState.RUNNING) {
+            try {
+                recording.stop();
+            }
+            catch (IllegalStateException e) {
+                // stopped in between
+            }
+        }
+        Path destination = recording.getDestination();
+        recording.close();
+        return destination;
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        recordings.values().forEach(FlightRecordings::discard);
+        recordings.clear();
+    }
+
+    private static void discard(Recording recording) {
+        Path destination = recording.getDestination();
+        recording.close();
+        try {
+            if (destination != null) Files.deleteIfExists(destination);
+        }
+        catch (IOException e) {
+            // a temporary file, left to the operating system
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package ch.uzh.ifi.seal.soprafs20.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("ch.uzh.ifi.seal.soprafs20.UserLogin")
+@Label("User Login")
+@Description("PUT /login, from the lookup of the username to the start of the session.")
+public class UserLoginEvent extends UserOperationEvent {
+}
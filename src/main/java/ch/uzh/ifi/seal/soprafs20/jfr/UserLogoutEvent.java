@@ -0,0 +1,11 @@
+package ch.uzh.ifi.seal.soprafs20.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("ch.uzh.ifi.seal.soprafs20.UserLogout")
+@Label("User Logout")
+@Description("PUT /logout, from the lookup of the token to the end of the session.")
+public class UserLogoutEvent extends UserOperationEvent {
+}
@@ -0,0 +1,62 @@
+package ch.uzh.ifi.seal.soprafs20.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Java Flight Recorder event of a user operation of the UserService, with the user and how it ended: SUCCESS or the
+ * simple name of the exception. The duration is the one of the whole operation, including password hashing and the
+ * database round trips (DatabaseRoundTripEvent) it made on the same thread.
+ * Without a running recording an operation only pays for the isEnabled check.
+ */
+@Category({"SoPra", "Users"})
+@StackTrace(false)
+public abstract class UserOperationEvent extends Event {
+
+    public static final String SUCCESS = "SUCCESS";
+
+    @Label("User Id")
+    long userId;
+
+    @Label("Outcome")
+    String outcome;
+
+    /**
+     * Runs an operation of a user that is known beforehand.
+     */
+    public static void record(UserOperationEvent event, long userId, Runnable operation) {
+        // kept if the operation fails
+        event.userId = userId;
+        record(event, () -> {
+            operation.run();
+            return userId;
+        }, Long::longValue);
+    }
+
+    /**
+     * Runs an operation whose user is only known once it succeeded, a failed one is recorded with user id 0.
+     */
+    public static <T> T record(UserOperationEvent event, Supplier<T> operation, ToLongFunction<T> userIdOf) {
+        if (!event.isEnabled()) return operation.get();
+
+        event.begin();
+        try {
+            T result = operation.get();
+            event.userId = userIdOf.applyAsLong(result);
+            event.outcome = SUCCESS;
+            return result;
+        }
+        catch (RuntimeException | Error e) {
+            event.outcome = e.getClass().getSimpleName();
+            throw e;
+        }
+        finally {
+            event.commit();
+        }
+    }
+}
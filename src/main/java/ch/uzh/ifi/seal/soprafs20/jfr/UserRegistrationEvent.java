@@ -0,0 +1,11 @@
+package ch.uzh.ifi.seal.soprafs20.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("ch.uzh.ifi.seal.soprafs20.UserRegistration")
+@Label("User Registration")
+@Description("POST /users, including the hashing of the password.")
+public class UserRegistrationEvent extends UserOperationEvent {
+}
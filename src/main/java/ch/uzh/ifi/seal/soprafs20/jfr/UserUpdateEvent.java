@@ -0,0 +1,11 @@
+package ch.uzh.ifi.seal.soprafs20.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("ch.uzh.ifi.seal.soprafs20.UserUpdate")
+@Label("User Update")
+@Description("PUT /users/{userId}, including retries after conflicting writes.")
+public class UserUpdateEvent extends UserOperationEvent {
+}
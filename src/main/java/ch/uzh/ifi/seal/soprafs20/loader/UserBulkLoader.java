@@ -0,0 +1,311 @@
+package ch.uzh.ifi.seal.soprafs20.loader;
+
+import ch.uzh.ifi.seal.soprafs20.constant.UserStatus;
+import ch.uzh.ifi.seal.soprafs20.repository.UserChangeVersions;
+import ch.uzh.ifi.seal.soprafs20.service.PasswordHasher;
+import ch.uzh.ifi.seal.soprafs20.service.UserDirectoryVersion;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * User Bulk Loader
+ * This class seeds the USER table from a CSV (username,password per line) or NDJSON ({"username":..,"password":..}
+ * per line) file when the application is started with the "bulk-load" profile, e.g.
+ * ./gradlew bootRun --args='--spring.profiles.active=bulk-load --users.bulk-load.file=users.csv'
+ * The file is streamed by a single reader while several writer threads insert the rows with multi-row INSERT
+ * statements sent as JDBC batches, bypassing JPA and the UserService entirely.
+ * Passwords are hashed by the writer threads like registrations of the UserService would be, so the hashing dominates
+ * the load time at production work factors; use about as many writer threads as there are cores.
+ * A writer that fails aborts the whole load instead of leaving the reader waiting for it.
+ * Every commit is reported to the UserDirectoryVersion, so cached lists of users are revalidated while loading.
+ * All rows of a transaction share one change version, taken from the UserChangeVersions and held in flight until the
+ * transaction has ended, so clients that sync with GET /users/changes see every loaded row.
+ */
+@Component
+@Profile("bulk-load")
+public class UserBulkLoader implements ApplicationRunner {
+
+    // must match the allocation size of the user id sequence, every statement uses exactly one block of ids
+    static final int ROWS_PER_STATEMENT = 50;
+
+    private static final String INSERT_PREFIX =
+            "insert into user (id, account_creation_date, birthday, password, status, token, username, change_version, version) values ";
+    private static final String ROW_PLACEHOLDERS = "(?, ?, null, ?, ?, ?, ?, ?, 0)";
+
+    private final Logger log = LoggerFactory.getLogger(UserBulkLoader.class);
+
+    private final DataSource dataSource;
+    private final ObjectMapper objectMapper;
+    private final PasswordHasher passwordHasher;
+    private final UserDirectoryVersion userDirectoryVersion;
+    private final UserChangeVersions userChangeVersions;
+    private final String file;
+    private final int writerThreads;
+    private final int statementsPerBatch;
+    private final long progressIntervalSeconds;
+
+    private final AtomicLong rowsWritten = new AtomicLong();
+    private final AtomicLong rowsFailed = new AtomicLong();
+
+    public UserBulkLoader(DataSource dataSource, ObjectMapper objectMapper, PasswordHasher passwordHasher,
+                          UserDirectoryVersion userDirectoryVersion, UserChangeVersions userChangeVersions,
+                          @Value("${users.bulk-load.file}") String file,
+                          @Value("${users.bulk-load.writer-threads:4}") int writerThreads,
+                          @Value("${users.bulk-load.statements-per-batch:20}") int statementsPerBatch,
+                          @Value("${users.bulk-load.progress-interval-seconds:5}") long progressIntervalSeconds) {
+        this.dataSource = dataSource;
+        this.objectMapper = objectMapper;
+        this.passwordHasher = passwordHasher;
+        this.userDirectoryVersion = userDirectoryVersion;
+        this.userChangeVersions = userChangeVersions;
+        this.file = file;
+        this.writerThreads = writerThreads;
+        this.statementsPerBatch = statementsPerBatch;
+        this.progressIntervalSeconds = progressIntervalSeconds;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        Path path = Paths.get(file);
+        boolean ndjson = file.endsWith(".ndjson") || file.endsWith(".jsonl");
+        log.info("Bulk loading users from {} with {} writer threads", path, writerThreads);
+
+        // bounded hand-off between the reader and the writers keeps memory flat for arbitrarily large files
+        BlockingQueue<List<String[]>> batches = new ArrayBlockingQueue<>(writerThreads * 2);
+        ExecutorService writers = Executors.newFixedThreadPool(writerThreads);
+        List<Future<?>> writerResults = new ArrayList<>();
+        for (int i = 0; i < writerThreads; i++) {
+            writerResults.add(writers.submit(() -> write(batches)));
+        }
+
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+        long start = System.nanoTime();
+        reporter.scheduleAtFixedRate(() -> reportProgress(start, "in progress"),
+                progressIntervalSeconds, progressIntervalSeconds, TimeUnit.SECONDS);
+
+        try {
+            read(path, ndjson, batches, writerResults);
+            for (int i = 0; i < writerThreads; i++) handOver(new ArrayList<>(), batches, writerResults);
+            for (Future<?> writerResult : writerResults) writerResult.get();
+        }
+        finally {
+            // interrupts the writers that are still waiting for batches if the load failed
+            writers.shutdownNow();
+            reporter.shutdownNow();
+        }
+        reportProgress(start, "finished");
+    }
+
+    private void read(Path path, boolean ndjson, BlockingQueue<List<String[]>> batches, List<Future<?>> writerResults)
+            throws IOException, InterruptedException, ExecutionException {
+        int batchRows = ROWS_PER_STATEMENT * statementsPerBatch;
+        List<String[]> batch = new ArrayList<>(batchRows);
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] row = ndjson ? parseJson(line) : parseCsv(line);
+                if (row == null) continue;
+                batch.add(row);
+                if (batch.size() == batchRows) {
+                    handOver(batch, batches, writerResults);
+                    batch = new ArrayList<>(batchRows);
+                }
+            }
+        }
+        if (!batch.isEmpty()) handOver(batch, batches, writerResults);
+    }
+
+    /**
+     * Waits for room in the queue, but not for writers that are gone: a writer only ends before its end marker when
+     * it failed, its failure is rethrown here.
+     */
+    private static void handOver(List<String[]> batch, BlockingQueue<List<String[]>> batches, List<Future<?>> writerResults)
+            throws InterruptedException, ExecutionException {
+        do {
+            for (Future<?> writerResult : writerResults) {
+                if (writerResult.isDone()) writerResult.get();
+            }
+        } while (!batches.offer(batch, 1, TimeUnit.SECONDS));
+    }
+
+    private String[] parseCsv(String line) {
+        if (line.isBlank() || line.startsWith("#") || line.equalsIgnoreCase("username,password")) return null;
+        int separator = line.indexOf(',');
+        if (separator <= 0 || separator == line.length() - 1) {
+            rowsFailed.incrementAndGet();
+            return null;
+        }
+        return new String[]{line.substring(0, separator).trim(), line.substring(separator + 1).trim()};
+    }
+
+    private String[] parseJson(String line) {
+        if (line.isBlank()) return null;
+        JsonNode node;
+        try {
+            node = objectMapper.readTree(line);
+        }
+        catch (JsonProcessingException e) {
+            // skipped like a malformed CSV line
+            rowsFailed.incrementAndGet();
+            return null;
+        }
+        if (!node.hasNonNull("username") || !node.hasNonNull("password")) {
+            rowsFailed.incrementAndGet();
+            return null;
+        }
+        return new String[]{node.get("username").asText(), node.get("password").asText()};
+    }
+
+    /**
+     * Writer loop: takes batches until it receives the empty end marker. Every batch is one transaction,
+     * a failing row (e.g. a taken username) only drops itself.
+     */
+    private Void write(BlockingQueue<List<String[]>> batches) throws InterruptedException, SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            String fullStatement = insertStatement(ROWS_PER_STATEMENT);
+            List<String[]> batch;
+            while (!(batch = batches.take()).isEmpty()) {
+                // hashed once, before the statements that may be retried
+                for (String[] row : batch) row[1] = passwordHasher.hashOnCallingThread(row[1]);
+                Timestamp now = new Timestamp(System.currentTimeMillis());
+                int fullRows = batch.size() - batch.size() % ROWS_PER_STATEMENT;
+                long changeVersion = userChangeVersions.acquire();
+                try (PreparedStatement statement = connection.prepareStatement(fullStatement)) {
+                    for (int offset = 0; offset < fullRows; offset += ROWS_PER_STATEMENT) {
+                        bindRows(connection, statement, batch.subList(offset, offset + ROWS_PER_STATEMENT), now, changeVersion);
+                        statement.addBatch();
+                    }
+                    statement.executeBatch();
+                    connection.commit();
+                    userDirectoryVersion.changed();
+                    rowsWritten.addAndGet(fullRows);
+                }
+                catch (BatchUpdateException e) {
+                    connection.rollback();
+                    retryStatementByStatement(connection, batch.subList(0, fullRows), ROWS_PER_STATEMENT, now);
+                }
+                finally {
+                    // the retries take versions of their own
+                    userChangeVersions.release(changeVersion);
+                }
+                if (fullRows < batch.size()) {
+                    List<String[]> rest = batch.subList(fullRows, batch.size());
+                    retryStatementByStatement(connection, rest, rest.size(), now);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Inserts the rows with one statement of rowsPerStatement rows each, every statement in its own transaction.
+     * The rows of a failing statement are tried one by one; each of them uses up a block of ids, which only happens
+     * for statements that hit a taken username.
+     */
+    private void retryStatementByStatement(Connection connection, List<String[]> rows, int rowsPerStatement, Timestamp now) throws SQLException {
+        String sql = insertStatement(rowsPerStatement);
+        for (int offset = 0; offset < rows.size(); offset += rowsPerStatement) {
+            List<String[]> statementRows = rows.subList(offset, offset + rowsPerStatement);
+            long changeVersion = userChangeVersions.acquire();
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                bindRows(connection, statement, statementRows, now, changeVersion);
+                statement.executeUpdate();
+                connection.commit();
+                userDirectoryVersion.changed();
+                rowsWritten.addAndGet(statementRows.size());
+            }
+            catch (SQLException e) {
+                connection.rollback();
+                if (rowsPerStatement > 1) retryStatementByStatement(connection, statementRows, 1, now);
+                else {
+                    rowsFailed.incrementAndGet();
+                    log.warn("Skipped user '{}': {}", statementRows.get(0)[0], e.getMessage());
+                }
+            }
+            finally {
+                userChangeVersions.release(changeVersion);
+            }
+        }
+    }
+
+    private void bindRows(Connection connection, PreparedStatement statement, List<String[]> rows, Timestamp now, long changeVersion) throws SQLException {
+        long id = reserveIds(connection);
+        int parameter = 1;
+        for (String[] row : rows) {
+            statement.setLong(parameter++, id++);
+            statement.setTimestamp(parameter++, now);
+            statement.setString(parameter++, row[1]);
+            statement.setInt(parameter++, UserStatus.OFFLINE.ordinal());
+            statement.setString(parameter++, UUID.randomUUID().toString());
+            statement.setString(parameter++, row[0]);
+            statement.setLong(parameter++, changeVersion);
+        }
+    }
+
+    /**
+     * Takes one block of ids from the user sequence the same way Hibernate's pooled optimizer does:
+     * a sequence value v stands for the ids (v - ROWS_PER_STATEMENT, v], so the loader and the running application
+     * never hand out the same id.
+     *
+     * @return the first id of the reserved block
+     */
+    private long reserveIds(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            while (true) {
+                try (ResultSet resultSet = statement.executeQuery("select next value for user_seq")) {
+                    resultSet.next();
+                    long value = resultSet.getLong(1);
+                    // the very first value of the sequence would reach below id 1, take the next block instead
+                    if (value >= ROWS_PER_STATEMENT) return value - ROWS_PER_STATEMENT + 1;
+                }
+            }
+        }
+    }
+
+    private static String insertStatement(int rows) {
+        StringBuilder sql = new StringBuilder(INSERT_PREFIX);
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) sql.append(", ");
+            sql.append(ROW_PLACEHOLDERS);
+        }
+        return sql.toString();
+    }
+
+    long getRowsWritten() {
+        return rowsWritten.get();
+    }
+
+    long getRowsFailed() {
+        return rowsFailed.get();
+    }
+
+    private void reportProgress(long start, String state) {
+        double seconds = Math.max((System.nanoTime() - start) / 1e9, 1e-3);
+        long written = rowsWritten.get();
+        log.info("Bulk load {}: {} users written, {} skipped, {} rows/sec",
+                state, written, rowsFailed.get(), Math.round(written / seconds));
+    }
+}
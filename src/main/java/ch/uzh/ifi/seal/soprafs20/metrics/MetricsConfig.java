@@ -0,0 +1,36 @@
+package ch.uzh.ifi.seal.soprafs20.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Metrics on top of the ones of Spring Boot (http.server.requests per endpoint, hikaricp.* of the connection pool,
+ * hibernate.* of the session factory): repository calls, SQL statements per request and the counters of the
+ * services (UserMetrics). Everything is exposed in Prometheus format on /actuator/prometheus.
+ */
+@Configuration
+public class MetricsConfig {
+
+    /**
+     * Static, so the post processor does not initialize this configuration before the beans it post-processes.
+     */
+    @Bean
+    public static RepositoryMetrics repositoryMetrics(ObjectProvider<MeterRegistry> meterRegistry) {
+        return new RepositoryMetrics(meterRegistry);
+    }
+
+    @Bean
+    public HibernatePropertiesCustomizer statementCounterCustomizer() {
+        return hibernateProperties -> hibernateProperties.put(AvailableSettings.STATEMENT_INSPECTOR, new RequestStatementCounter());
+    }
+
+    @Bean
+    public FilterRegistrationBean<StatementCountFilter> statementCountFilter(MeterRegistry meterRegistry) {
+        return new FilterRegistrationBean<>(new StatementCountFilter(meterRegistry));
+    }
+}
@@ -0,0 +1,92 @@
+package ch.uzh.ifi.seal.soprafs20.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.aop.framework.Advised;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.data.repository.Repository;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Repository Metrics
+ * Times every call of a Spring Data repository as spring.data.repository.invocations, tagged with the repository,
+ * the method and the outcome (SUCCESS or ERROR). The timer is the outermost advice of the repository proxy, so it
+ * includes the transaction of the call and the wait for a connection. Methods returning a Stream are timed until the
+ * stream is returned, not until it is consumed.
+ * The timers of a method are looked up once; a call costs two nanoTime reads, a map lookup and the recording.
+ */
+public class RepositoryMetrics implements BeanPostProcessor {
+
+    public static final String METRIC_NAME = "spring.data.repository.invocations";
+
+    private final ObjectProvider<MeterRegistry> meterRegistry;
+
+    public RepositoryMetrics(ObjectProvider<MeterRegistry> meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        // the proxies created by the repository factory beans, not the factory beans themselves
+        if (bean instanceof Repository && bean instanceof Advised) {
+            Advised repository = (Advised) bean;
+            repository.addAdvice(0, new TimingInterceptor(repositoryName(repository)));
+        }
+        return bean;
+    }
+
+    private static String repositoryName(Advised repository) {
+        for (Class<?> proxiedInterface : repository.getProxiedInterfaces()) {
+            if (Repository.class.isAssignableFrom(proxiedInterface)) return proxiedInterface.getSimpleName();
+        }
+        return repository.getTargetClass() != null ? repository.getTargetClass().getSimpleName() : "unknown";
+    }
+
+    private final class TimingInterceptor implements MethodInterceptor {
+
+        private final String repository;
+        // [0] success, [1] error
+        private final ConcurrentHashMap<Method, Timer[]> timers = new ConcurrentHashMap<>();
+
+        private TimingInterceptor(String repository) {
+            this.repository = repository;
+        }
+
+        @Override
+        public Object invoke(MethodInvocation invocation) throws Throwable {
+            Timer[] methodTimers = timers.computeIfAbsent(invocation.getMethod(), this::timersOf);
+            if (methodTimers == null) return invocation.proceed();
+
+            long start = System.nanoTime();
+            boolean success = false;
+            try {
+                Object result = invocation.proceed();
+                success = true;
+                return result;
+            }
+            finally {
+                methodTimers[success ? 0 : 1].record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        private Timer[] timersOf(Method method) {
+            MeterRegistry registry = meterRegistry.getIfAvailable();
+            // no registry (e.g. test slices without metrics): not stored, the next call looks again
+            if (registry == null) return null;
+            return new Timer[]{timer(registry, method, "SUCCESS"), timer(registry, method, "ERROR")};
+        }
+
+        private Timer timer(MeterRegistry registry, Method method, String outcome) {
+            return Timer.builder(METRIC_NAME)
+                    .description("Calls of Spring Data repository methods")
+                    .tags("repository", repository, "method", method.getName(), "outcome", outcome)
+                    .register(registry);
+        }
+    }
+}
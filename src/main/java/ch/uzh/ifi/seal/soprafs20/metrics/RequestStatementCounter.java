@@ -0,0 +1,85 @@
+package ch.uzh.ifi.seal.soprafs20.metrics;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Request Statement Counter
+ * Counts the SQL statements Hibernate prepares on the current thread between begin and end, e.g. while a request is
+ * handled. It is the StatementInspector of the session factory and passes every statement on unchanged.
+ * Counts nest: a count begun inside another one is added to both.
+ */
+public class RequestStatementCounter implements StatementInspector {
+
+    private static final class Count {
+
+        private final Count outer;
+        // the statements themselves, only kept by the counts of tests
+        private final List<String> recorded;
+        private int statements;
+
+        private Count(Count outer, List<String> recorded) {
+            this.outer = outer;
+            this.recorded = recorded;
+        }
+    }
+
+    private static final ThreadLocal<Count> COUNT = new ThreadLocal<>();
+
+    public static void begin() {
+        COUNT.set(new Count(COUNT.get(), null));
+    }
+
+    /**
+     * Ends the innermost count of this thread.
+     *
+     * @return the statements prepared since the matching begin, 0 without one
+     */
+    public static int end() {
+        Count count = pop();
+        return count == null ? 0 : count.statements;
+    }
+
+    /**
+     * Like begin, but also keeps the SQL of the statements for endRecording.
+     */
+    static void beginRecording() {
+        COUNT.set(new Count(COUNT.get(), new ArrayList<>()));
+    }
+
+    /**
+     * @return the SQL of the statements prepared since the matching beginRecording, in order
+     */
+    static List<String> endRecording() {
+        Count count = pop();
+        return count == null || count.recorded == null ? Collections.emptyList() : count.recorded;
+    }
+
+    /**
+     * @return the statements prepared since the innermost begin of this thread, 0 without one
+     */
+    public static int current() {
+        Count count = COUNT.get();
+        return count == null ? 0 : count.statements;
+    }
+
+    @Override
+    public String inspect(String sql) {
+        for (Count count = COUNT.get(); count != null; count = count.outer) {
+            count.statements++;
+            if (count.recorded != null) count.recorded.add(sql);
+        }
+        return sql;
+    }
+
+    private static Count pop() {
+        Count count = COUNT.get();
+        if (count == null) return null;
+        if (count.outer == null) COUNT.remove();
+        else COUNT.set(count.outer);
+        return count;
+    }
+}
@@ -0,0 +1,16 @@
+package ch.uzh.ifi.seal.soprafs20.metrics;
+
+import java.lang.annotation.*;
+
+/**
+ * Declares how many SQL statements a request to the annotated handler method may prepare, counted like
+ * hibernate.statements.per.request. The StatementCountFilter logs a warning for every request above it, e.g. after a
+ * repository call was added by accident or entities are loaded one by one in a loop.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface StatementBudget {
+
+    int value();
+}
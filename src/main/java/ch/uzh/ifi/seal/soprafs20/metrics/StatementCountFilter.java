@@ -0,0 +1,89 @@
+package ch.uzh.ifi.seal.soprafs20.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records the number of SQL statements of every request (hibernate.statements.per.request, tagged like
+ * http.server.requests with method and uri template), counted by the RequestStatementCounter.
+ * A request above the StatementBudget of its handler method is logged as a warning and counted in
+ * hibernate.statements.over.budget.
+ */
+public class StatementCountFilter extends OncePerRequestFilter {
+
+    public static final String METRIC_NAME = "hibernate.statements.per.request";
+    public static final String OVER_BUDGET_METRIC_NAME = "hibernate.statements.over.budget";
+
+    private static final int NO_BUDGET = -1;
+
+    private final Logger log = LoggerFactory.getLogger(StatementCountFilter.class);
+
+    private final MeterRegistry meterRegistry;
+    private final ConcurrentHashMap<String, DistributionSummary> summaries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Counter> overBudget = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Method, Integer> budgets = new ConcurrentHashMap<>();
+
+    public StatementCountFilter(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        RequestStatementCounter.begin();
+        try {
+            filterChain.doFilter(request, response);
+        }
+        finally {
+            int statements = RequestStatementCounter.end();
+            // the uri template and handler are known once the request went through the DispatcherServlet
+            Object uriTemplate = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+            String uri = uriTemplate != null ? uriTemplate.toString() : "UNKNOWN";
+            summary(request.getMethod(), uri).record(statements);
+
+            int budget = budgetOf(request.getAttribute(HandlerMapping.BEST_MATCHING_HANDLER_ATTRIBUTE));
+            if (budget != NO_BUDGET && statements > budget) {
+                log.warn("{} {} prepared {} SQL statements, its budget is {}", request.getMethod(), uri, statements, budget);
+                overBudget(request.getMethod(), uri).increment();
+            }
+        }
+    }
+
+    private int budgetOf(Object handler) {
+        if (!(handler instanceof HandlerMethod)) return NO_BUDGET;
+        HandlerMethod handlerMethod = (HandlerMethod) handler;
+        return budgets.computeIfAbsent(handlerMethod.getMethod(), method -> {
+            StatementBudget budget = handlerMethod.getMethodAnnotation(StatementBudget.class);
+            return budget != null ? budget.value() : NO_BUDGET;
+        });
+    }
+
+    private DistributionSummary summary(String method, String uri) {
+        return summaries.computeIfAbsent(method + " " + uri, key -> DistributionSummary.builder(METRIC_NAME)
+                .description("SQL statements prepared by Hibernate per request")
+                .baseUnit("statements")
+                .tags("method", method, "uri", uri)
+                .register(meterRegistry));
+    }
+
+    private Counter overBudget(String method, String uri) {
+        return overBudget.computeIfAbsent(method + " " + uri, key -> Counter.builder(OVER_BUDGET_METRIC_NAME)
+                .description("Requests that prepared more SQL statements than their StatementBudget")
+                .tags("method", method, "uri", uri)
+                .register(meterRegistry));
+    }
+}
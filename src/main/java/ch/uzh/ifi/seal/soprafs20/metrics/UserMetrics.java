@@ -0,0 +1,90 @@
+package ch.uzh.ifi.seal.soprafs20.metrics;
+
+import ch.uzh.ifi.seal.soprafs20.controller.UserListCache;
+import ch.uzh.ifi.seal.soprafs20.entity.User;
+import ch.uzh.ifi.seal.soprafs20.service.*;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+
+import java.util.function.ToDoubleFunction;
+
+/**
+ * User Metrics
+ * Publishes the counters the services keep anyway (they are read when the metrics are scraped, nothing is added to
+ * the request path). Caches follow the naming of Micrometer: cache.gets with result hit or miss, cache.puts,
+ * cache.evictions and cache.size, tagged with the cache.
+ */
+@Component
+public class UserMetrics implements MeterBinder {
+
+    private final TokenCache tokenCache;
+    private final UserListCache userListCache;
+    private final UserCacheStatistics userCacheStatistics;
+    private final OptimisticRetry optimisticRetry;
+    private final SessionExpiry sessionExpiry;
+    private final PresenceStore presenceStore;
+    private final UserEventBroadcaster userEventBroadcaster;
+    private final PasswordHasher passwordHasher;
+
+    public UserMetrics(TokenCache tokenCache, UserListCache userListCache, UserCacheStatistics userCacheStatistics,
+                       OptimisticRetry optimisticRetry, SessionExpiry sessionExpiry, PresenceStore presenceStore,
+                       UserEventBroadcaster userEventBroadcaster, PasswordHasher passwordHasher) {
+        this.tokenCache = tokenCache;
+        this.userListCache = userListCache;
+        this.userCacheStatistics = userCacheStatistics;
+        this.optimisticRetry = optimisticRetry;
+        this.sessionExpiry = sessionExpiry;
+        this.presenceStore = presenceStore;
+        this.userEventBroadcaster = userEventBroadcaster;
+        this.passwordHasher = passwordHasher;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        cacheGets(registry, "session-tokens", tokenCache, TokenCache::getHitCount, TokenCache::getMissCount);
+        counter(registry, "cache.evictions", tokenCache, TokenCache::getEvictionCount, "cache", "session-tokens");
+
+        // a miss of the user list cache is a page that had to be built
+        cacheGets(registry, "user-pages", userListCache, UserListCache::getHitCount, UserListCache::getBuildCount);
+        gauge(registry, "cache.size", userListCache, UserListCache::getCachedPageCount, "cache", "user-pages");
+
+        cacheGets(registry, User.CACHE_REGION, userCacheStatistics, UserCacheStatistics::getHitCount, UserCacheStatistics::getMissCount);
+        counter(registry, "cache.puts", userCacheStatistics, UserCacheStatistics::getPutCount, "cache", User.CACHE_REGION);
+        gauge(registry, "cache.size", userCacheStatistics, UserCacheStatistics::getCachedCount, "cache", User.CACHE_REGION);
+        cacheGets(registry, User.NATURAL_ID_CACHE_REGION, userCacheStatistics,
+                UserCacheStatistics::getNaturalIdHitCount, UserCacheStatistics::getNaturalIdMissCount);
+
+        counter(registry, "users.update.retries", optimisticRetry, OptimisticRetry::getRetryCount);
+        counter(registry, "users.update.retries.exhausted", optimisticRetry, OptimisticRetry::getExhaustedCount);
+
+        gauge(registry, "users.sessions.open", sessionExpiry, SessionExpiry::getOpenSessionCount);
+        counter(registry, "users.sessions.expired", sessionExpiry, SessionExpiry::getExpiredCount);
+        gauge(registry, "users.presence.pending", presenceStore, PresenceStore::getPendingCount);
+
+        gauge(registry, "users.events.subscribers", userEventBroadcaster, UserEventBroadcaster::getSubscriberCount);
+        counter(registry, "users.events.dropped", userEventBroadcaster, UserEventBroadcaster::getDroppedCount);
+        counter(registry, "users.events.disconnected", userEventBroadcaster, UserEventBroadcaster::getDisconnectedCount);
+
+        gauge(registry, "users.password.hashing.queued", passwordHasher, PasswordHasher::getQueueDepth);
+        gauge(registry, "users.password.hashing.active", passwordHasher, PasswordHasher::getActiveCount);
+        counter(registry, "users.password.hashing.rejected", passwordHasher, PasswordHasher::getRejectedCount);
+        counter(registry, "users.password.hashing.completed", passwordHasher, PasswordHasher::getCompletedCount);
+    }
+
+    private static <T> void cacheGets(MeterRegistry registry, String cache, T source,
+                                      ToDoubleFunction<T> hits, ToDoubleFunction<T> misses) {
+        counter(registry, "cache.gets", source, hits, "cache", cache, "result", "hit");
+        counter(registry, "cache.gets", source, misses, "cache", cache, "result", "miss");
+    }
+
+    private static <T> void counter(MeterRegistry registry, String name, T source, ToDoubleFunction<T> count, String... tags) {
+        FunctionCounter.builder(name, source, count).tags(tags).register(registry);
+    }
+
+    private static <T> void gauge(MeterRegistry registry, String name, T source, ToDoubleFunction<T> value, String... tags) {
+        Gauge.builder(name, source, value).tags(tags).register(registry);
+    }
+}
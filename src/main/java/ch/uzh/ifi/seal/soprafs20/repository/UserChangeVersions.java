@@ -0,0 +1,110 @@
+package ch.uzh.ifi.seal.soprafs20.repository;
+
+import ch.uzh.ifi.seal.soprafs20.entity.User;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+import java.util.TreeSet;
+
+/**
+ * User Change Versions
+ * This class hands out the change versions of users and tombstones. They are taken from USER_CHANGE_SEQ in blocks of
+ * User.CHANGE_VERSION_BLOCK_SIZE, so one sequence call serves that many writes; the call runs on the connection of
+ * the writing transaction and is not seen by Hibernate's statement counting.
+ * A version is handed out before the write commits, so a higher version may be committed while a lower one is still
+ * in flight. A reader that moved its cursor past the higher one would never see the lower one. The low-water mark is
+ * the oldest version still in flight: every version below it has committed or rolled back, changes are only read up
+ * to it.
+ * Versions in flight are only known within this JVM (like the statuses of the PresenceStore), every writer of the
+ * USER table has to take its versions here.
+ */
+@Component
+public class UserChangeVersions {
+
+	private final JdbcTemplate jdbcTemplate;
+	private final String nextBlockQuery;
+
+	// first version of every writer still in flight, a writer only takes higher ones after it
+	private final TreeSet<Long> inFlight = new TreeSet<>();
+	private long next;
+	private long blockEnd;
+
+	public UserChangeVersions(DataSource dataSource, EntityManagerFactory entityManagerFactory) {
+		this.jdbcTemplate = new JdbcTemplate(dataSource);
+		this.nextBlockQuery = entityManagerFactory.unwrap(SessionFactoryImplementor.class).getJdbcServices().getDialect()
+				.getSequenceNextValString(User.CHANGE_VERSION_SEQUENCE);
+	}
+
+	/**
+	 * Takes the next version for a write of the current transaction. The first version a transaction takes stays in
+	 * flight until the transaction has completed.
+	 *
+	 * @throws IllegalStateException outside of a transaction
+	 */
+	public long next() {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			throw new IllegalStateException("Change versions can only be taken inside a transaction");
+		}
+		if (TransactionSynchronizationManager.hasResource(this)) return take(false);
+
+		long first = take(true);
+		TransactionSynchronizationManager.bindResource(this, first);
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+			// a transaction started while this one is suspended takes versions of its own
+			@Override
+			public void suspend() {
+				TransactionSynchronizationManager.unbindResource(UserChangeVersions.this);
+			}
+
+			@Override
+			public void resume() {
+				TransactionSynchronizationManager.bindResource(UserChangeVersions.this, first);
+			}
+
+			@Override
+			public void afterCompletion(int status) {
+				TransactionSynchronizationManager.unbindResourceIfPossible(UserChangeVersions.this);
+				release(first);
+			}
+		});
+		return first;
+	}
+
+	/**
+	 * Takes a version for a writer that does not run in a Spring transaction (the bulk loader). It stays in flight
+	 * until it is released, which must happen after the write has committed or rolled back.
+	 */
+	public long acquire() {
+		return take(true);
+	}
+
+	public synchronized void release(long version) {
+		inFlight.remove(version);
+	}
+
+	/**
+	 * Must be read before the changes are queried: versions handed out afterwards are all above it.
+	 *
+	 * @return the oldest version still in flight, Long.MAX_VALUE if there is none
+	 */
+	public synchronized long lowWaterMark() {
+		return inFlight.isEmpty() ? Long.MAX_VALUE : inFlight.first();
+	}
+
+	private synchronized long take(boolean track) {
+		if (next == blockEnd) {
+			// a sequence value v stands for the versions [v, v + block size)
+			Long start = jdbcTemplate.queryForObject(nextBlockQuery, Long.class);
+			next = start;
+			blockEnd = start + User.CHANGE_VERSION_BLOCK_SIZE;
+		}
+		long version = next++;
+		if (track) inFlight.add(version);
+		return version;
+	}
+}
@@ -0,0 +1,23 @@
+package ch.uzh.ifi.seal.soprafs20.repository;
+
+import ch.uzh.ifi.seal.soprafs20.constant.UserStatus;
+
+import java.util.Date;
+
+/**
+ * Projection of a changed user: the exposed columns plus the change version the row was last written with.
+ */
+public interface UserChangeView {
+
+	Long getChangeVersion();
+
+	Long getId();
+
+	String getUsername();
+
+	UserStatus getStatus();
+
+	Date getAccountCreationDate();
+
+	Date getBirthday();
+}
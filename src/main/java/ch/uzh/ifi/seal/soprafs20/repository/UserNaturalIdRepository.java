@@ -0,0 +1,10 @@
+package ch.uzh.ifi.seal.soprafs20.repository;
+
+import ch.uzh.ifi.seal.soprafs20.entity.User;
+
+/**
+ * Lookups by the natural id of the user, resolved through the second-level cache before the database is asked.
+ */
+public interface UserNaturalIdRepository {
+	User findByUsername(String username);
+}
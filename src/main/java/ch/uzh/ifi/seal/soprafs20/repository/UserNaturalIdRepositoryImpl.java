@@ -0,0 +1,24 @@
+package ch.uzh.ifi.seal.soprafs20.repository;
+
+import ch.uzh.ifi.seal.soprafs20.entity.User;
+import org.hibernate.Session;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+class UserNaturalIdRepositoryImpl implements UserNaturalIdRepository {
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	/**
+	 * Resolves the username to the id in the natural id cache and loads the user from the entity cache,
+	 * a derived query would always hit the database.
+	 */
+	@Override
+	@Transactional(readOnly = true)
+	public User findByUsername(String username) {
+		return entityManager.unwrap(Session.class).bySimpleNaturalId(User.class).load(username);
+	}
+}
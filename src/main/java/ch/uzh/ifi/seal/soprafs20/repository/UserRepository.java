@@ -1,11 +1,79 @@
 package ch.uzh.ifi.seal.soprafs20.repository;
 
+import ch.uzh.ifi.seal.soprafs20.constant.UserStatus;
 import ch.uzh.ifi.seal.soprafs20.entity.User;
+import ch.uzh.ifi.seal.soprafs20.rest.dto.UserGetDTO;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.LockModeType;
+import javax.persistence.QueryHint;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
+
 @Repository("userRepository")
-public interface UserRepository extends JpaRepository<User, Long> {
-	User findByUsername(String username);
+public interface UserRepository extends JpaRepository<User, Long>, UserNaturalIdRepository, UserVersionRepository,
+		UserWriteRepository {
 	User findByToken(String token);
+
+	/**
+	 * Keyset pagination over the primary key: seeks directly to the first id after the cursor instead of
+	 * skipping rows with an offset, so every page costs the same no matter how deep the client has paged.
+	 * Only the page size of the pageable is used, no count query is issued.
+	 * Only the columns exposed through the API are selected and the DTOs are built directly from the result set:
+	 * no entity instances, no persistence-context entries, no password or token.
+	 */
+	@Query("select new ch.uzh.ifi.seal.soprafs20.rest.dto.UserGetDTO(u.id, u.username, u.status, u.accountCreationDate, u.birthday) "
+			+ "from User u where u.id > :after order by u.id")
+	List<UserGetDTO> findUserGetDTOsAfter(@Param("after") long after, Pageable pageable);
+
+	/**
+	 * Users inserted or updated after the given change version and below the given bound, oldest change first.
+	 * Users written by the same bulk statement share a version, they are ordered by id.
+	 * Seeks on the change version index, so a sync costs as much as there are changes, not as there are users.
+	 */
+	@Query("select u.changeVersion as changeVersion, u.id as id, u.username as username, u.status as status, "
+			+ "u.accountCreationDate as accountCreationDate, u.birthday as birthday "
+			+ "from User u where u.changeVersion > :since and u.changeVersion < :below order by u.changeVersion, u.id")
+	List<UserChangeView> findChangesSince(@Param("since") long since, @Param("below") long below, Pageable pageable);
+
+	/**
+	 * The users of the given change version with an id after the given one, ordered by id: the rest of a version a
+	 * page of findChangesSince was cut in.
+	 */
+	@Query("select u.changeVersion as changeVersion, u.id as id, u.username as username, u.status as status, "
+			+ "u.accountCreationDate as accountCreationDate, u.birthday as birthday "
+			+ "from User u where u.changeVersion = :changeVersion and u.id > :after order by u.id")
+	List<UserChangeView> findChangesOfVersion(@Param("changeVersion") long changeVersion, @Param("after") long after);
+
+	/**
+	 * Streams all users ordered by id, backed by a scrollable JDBC result set.
+	 * Must be consumed inside a transaction and closed afterwards; entities are loaded read-only (no dirty-checking
+	 * snapshots) and the caller is expected to detach them once written so the persistence context stays small.
+	 */
+	@QueryHints({@QueryHint(name = HINT_FETCH_SIZE, value = "500"), @QueryHint(name = HINT_READONLY, value = "true")})
+	@Query("select u from User u order by u.id")
+	Stream<User> streamAllOrderedById();
+
+	/**
+	 * Loads the user with SELECT ... FOR UPDATE, concurrent writers of the same user wait for each other.
+	 */
+	@Lock(LockModeType.PESSIMISTIC_WRITE)
+	@Query("select u from User u where u.id = :id")
+	Optional<User> findByIdForUpdate(@Param("id") Long id);
+
+	@Query("select u.status from User u where u.id = :id")
+	UserStatus findStatusById(@Param("id") Long id);
+
+	@Query("select u.id from User u where u.status = :status")
+	List<Long> findIdsByStatus(@Param("status") UserStatus status);
 }
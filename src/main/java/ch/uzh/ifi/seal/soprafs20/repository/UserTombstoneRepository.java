@@ -0,0 +1,21 @@
+package ch.uzh.ifi.seal.soprafs20.repository;
+
+import ch.uzh.ifi.seal.soprafs20.entity.UserTombstone;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository("userTombstoneRepository")
+public interface UserTombstoneRepository extends JpaRepository<UserTombstone, Long> {
+
+	/**
+	 * Deletions after the given change version and below the given bound, oldest first. Seeks on the primary key,
+	 * like the change query of UserRepository seeks on the change version index.
+	 */
+	@Query("select t from UserTombstone t where t.changeVersion > :since and t.changeVersion < :below order by t.changeVersion")
+	List<UserTombstone> findChangesSince(@Param("since") long since, @Param("below") long below, Pageable pageable);
+}
@@ -0,0 +1,15 @@
+package ch.uzh.ifi.seal.soprafs20.repository;
+
+import java.util.Optional;
+
+/**
+ * Version lookups that never hydrate a user entity.
+ */
+public interface UserVersionRepository {
+
+	/**
+	 * Reads the version and status from the second-level cache entry of the user if there is one, with a projection
+	 * of the two columns otherwise. Neither path builds a User or puts one into the cache.
+	 */
+	Optional<UserVersionView> findVersionById(Long id);
+}
@@ -0,0 +1,59 @@
+package ch.uzh.ifi.seal.soprafs20.repository;
+
+import ch.uzh.ifi.seal.soprafs20.constant.UserStatus;
+import ch.uzh.ifi.seal.soprafs20.entity.User;
+import org.hibernate.cache.spi.access.EntityDataAccess;
+import org.hibernate.cache.spi.entry.CacheEntry;
+import org.hibernate.engine.internal.CacheHelper;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.stat.spi.StatisticsImplementor;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.Optional;
+
+class UserVersionRepositoryImpl implements UserVersionRepository {
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	@Override
+	@Transactional(readOnly = true)
+	public Optional<UserVersionView> findVersionById(Long id) {
+		UserVersionView cached = fromSecondLevelCache(id);
+		if (cached != null) return Optional.of(cached);
+		return entityManager.createQuery("select new ch.uzh.ifi.seal.soprafs20.repository.UserVersionView("
+				+ "u.version, u.status) from User u where u.id = :id", UserVersionView.class)
+				.setParameter("id", id)
+				.getResultStream()
+				.findFirst();
+	}
+
+	/**
+	 * Only the disassembled state of the cache entry is read, the two values are assembled without an entity.
+	 * Hits and misses are counted in the statistics of the region like those of a load.
+	 */
+	private UserVersionView fromSecondLevelCache(Long id) {
+		SessionImplementor session = entityManager.unwrap(SessionImplementor.class);
+		EntityPersister persister = session.getFactory().getMetamodel().entityPersister(User.class);
+		if (!persister.canReadFromCache() || !session.getCacheMode().isGetEnabled()) return null;
+
+		EntityDataAccess cacheAccess = persister.getCacheAccessStrategy();
+		Object key = cacheAccess.generateCacheKey(id, persister, session.getFactory(), session.getTenantIdentifier());
+		Object cached = CacheHelper.fromSharedCache(session, key, cacheAccess);
+		StatisticsImplementor statistics = session.getFactory().getStatistics();
+		if (statistics.isStatisticsEnabled()) {
+			if (cached == null) statistics.entityCacheMiss(persister.getNavigableRole(), cacheAccess.getRegion().getName());
+			else statistics.entityCacheHit(persister.getNavigableRole(), cacheAccess.getRegion().getName());
+		}
+		if (cached == null) return null;
+
+		CacheEntry entry = (CacheEntry) persister.getCacheEntryStructure().destructure(cached, session.getFactory());
+		int statusIndex = persister.getEntityMetamodel().getPropertyIndex("status");
+		UserStatus status = (UserStatus) persister.getPropertyTypes()[statusIndex]
+				.assemble(entry.getDisassembledState()[statusIndex], session, null);
+		return new UserVersionView((Long) entry.getVersion(), status);
+	}
+}
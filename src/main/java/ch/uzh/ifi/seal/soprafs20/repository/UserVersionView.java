@@ -0,0 +1,25 @@
+package ch.uzh.ifi.seal.soprafs20.repository;
+
+import ch.uzh.ifi.seal.soprafs20.constant.UserStatus;
+
+/**
+ * Version and status of a user, all that is needed to tell whether a client's copy is current.
+ */
+public class UserVersionView {
+
+	private final long version;
+	private final UserStatus status;
+
+	public UserVersionView(long version, UserStatus status) {
+		this.version = version;
+		this.status = status;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public UserStatus getStatus() {
+		return status;
+	}
+}
@@ -0,0 +1,35 @@
+package ch.uzh.ifi.seal.soprafs20.repository;
+
+import ch.uzh.ifi.seal.soprafs20.constant.UserStatus;
+
+import java.util.Collection;
+
+/**
+ * Single-column writes of users that bypass the entity: no load, no version check, no version increment.
+ * Only the second-level cache entries of the written users are invalidated, the other cached users stay.
+ */
+public interface UserWriteRepository {
+
+	/**
+	 * Writes the status of many users in one statement, used by the PresenceStore to flush status changes.
+	 * All of them get the same new change version.
+	 *
+	 * @return the number of updated users
+	 */
+	int updateStatusOfUsers(Collection<Long> ids, UserStatus status);
+
+	/**
+	 * Stores a new session token for the user (used for signed session tokens).
+	 *
+	 * @return the number of updated users (0 or 1)
+	 */
+	int replaceToken(Long id, String token);
+
+	/**
+	 * Replaces the stored password of the user, but only if it still is the expected one,
+	 * so a concurrent password migration cannot overwrite a newer value.
+	 *
+	 * @return the number of updated users (0 or 1)
+	 */
+	int replacePassword(Long id, String expected, String password);
+}
@@ -0,0 +1,114 @@
+package ch.uzh.ifi.seal.soprafs20.repository;
+
+import ch.uzh.ifi.seal.soprafs20.constant.UserStatus;
+import ch.uzh.ifi.seal.soprafs20.entity.User;
+import org.hibernate.cache.spi.access.EntityDataAccess;
+import org.hibernate.cache.spi.access.SoftLock;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.query.NativeQuery;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The statements are native and name a query space of their own instead of the USER table: after a bulk statement on
+ * a table Hibernate evicts the whole entity and natural id regions of it, so every presence flush or token change
+ * would empty the cache of all users. Instead the written users are locked in the entity region, like an update of
+ * the entity would lock them, and unlocked when the transaction has completed; until then no transaction can put the
+ * old state back. Usernames are never written here, the natural id cache stays valid.
+ * The single-user writes join the transaction of the caller. They leave its other entities managed and only refresh
+ * the written user if the caller has loaded it, so later changes of the caller are still flushed.
+ */
+class UserWriteRepositoryImpl implements UserWriteRepository {
+
+	private static final String QUERY_SPACE = "USER_COLUMN_WRITES";
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	private final UserChangeVersions userChangeVersions;
+
+	UserWriteRepositoryImpl(UserChangeVersions userChangeVersions) {
+		this.userChangeVersions = userChangeVersions;
+	}
+
+	/**
+	 * The change version is taken inside the transaction of the statement, so it stays in flight until the
+	 * statement has committed.
+	 */
+	@Override
+	@Transactional
+	public int updateStatusOfUsers(Collection<Long> ids, UserStatus status) {
+		lockCachedUsers(ids);
+		return nativeUpdate("update user set status = :status, change_version = :changeVersion where id in (:ids)")
+				.setParameter("status", status.ordinal())
+				.setParameter("changeVersion", userChangeVersions.next())
+				.setParameter("ids", ids)
+				.executeUpdate();
+	}
+
+	@Override
+	@Transactional
+	public int replaceToken(Long id, String token) {
+		// written past the persistence context, which must neither flush older state afterwards nor keep the old token
+		entityManager.flush();
+		lockCachedUsers(Set.of(id));
+		int updated = nativeUpdate("update user set token = :token where id = :id")
+				.setParameter("token", token)
+				.setParameter("id", id)
+				.executeUpdate();
+		refreshManagedUser(id);
+		return updated;
+	}
+
+	@Override
+	@Transactional
+	public int replacePassword(Long id, String expected, String password) {
+		entityManager.flush();
+		lockCachedUsers(Set.of(id));
+		int updated = nativeUpdate("update user set password = :password where id = :id and password = :expected")
+				.setParameter("password", password)
+				.setParameter("id", id)
+				.setParameter("expected", expected)
+				.executeUpdate();
+		refreshManagedUser(id);
+		return updated;
+	}
+
+	@SuppressWarnings("rawtypes")
+	private NativeQuery nativeUpdate(String sql) {
+		return entityManager.createNativeQuery(sql).unwrap(NativeQuery.class).addSynchronizedQuerySpace(QUERY_SPACE);
+	}
+
+	private void refreshManagedUser(Long id) {
+		SessionImplementor session = entityManager.unwrap(SessionImplementor.class);
+		EntityPersister persister = session.getFactory().getMetamodel().entityPersister(User.class);
+		// only looks into the persistence context, a user that is not loaded there is not loaded now
+		Object user = session.getPersistenceContext().getEntity(session.generateEntityKey(id, persister));
+		if (user != null) entityManager.refresh(user);
+	}
+
+	private void lockCachedUsers(Collection<Long> ids) {
+		SessionImplementor session = entityManager.unwrap(SessionImplementor.class);
+		EntityPersister persister = session.getFactory().getMetamodel().entityPersister(User.class);
+		if (!persister.canWriteToCache()) return;
+
+		EntityDataAccess cacheAccess = persister.getCacheAccessStrategy();
+		List<Object> keys = new ArrayList<>(ids.size());
+		List<SoftLock> locks = new ArrayList<>(ids.size());
+		for (Long id : ids) {
+			Object key = cacheAccess.generateCacheKey(id, persister, session.getFactory(), session.getTenantIdentifier());
+			keys.add(key);
+			locks.add(cacheAccess.lockItem(session, key, null));
+		}
+		session.getActionQueue().registerProcess((success, completedSession) -> {
+			for (int i = 0; i < keys.size(); i++) cacheAccess.unlockItem(completedSession, keys.get(i), locks.get(i));
+		});
+	}
+}
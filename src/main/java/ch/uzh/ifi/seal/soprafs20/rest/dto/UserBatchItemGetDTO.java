@@ -0,0 +1,23 @@
+package ch.uzh.ifi.seal.soprafs20.rest.dto;
+
+public class UserBatchItemGetDTO {
+
+    private UserGetDTO user;
+    private String error;
+
+    public UserGetDTO getUser() {
+        return user;
+    }
+
+    public void setUser(UserGetDTO user) {
+        this.user = user;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+}
@@ -0,0 +1,53 @@
+package ch.uzh.ifi.seal.soprafs20.rest.dto;
+
+import java.util.List;
+
+public class UserChangesGetDTO {
+
+    private Long version;
+    private List<UserGetDTO> users;
+    private List<Long> deletedUserIds;
+    private boolean more;
+
+    public UserChangesGetDTO() {
+    }
+
+    public UserChangesGetDTO(Long version, List<UserGetDTO> users, List<Long> deletedUserIds, boolean more) {
+        this.version = version;
+        this.users = users;
+        this.deletedUserIds = deletedUserIds;
+        this.more = more;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
+    public List<UserGetDTO> getUsers() {
+        return users;
+    }
+
+    public void setUsers(List<UserGetDTO> users) {
+        this.users = users;
+    }
+
+    public List<Long> getDeletedUserIds() {
+        return deletedUserIds;
+    }
+
+    public void setDeletedUserIds(List<Long> deletedUserIds) {
+        this.deletedUserIds = deletedUserIds;
+    }
+
+    public boolean isMore() {
+        return more;
+    }
+
+    public void setMore(boolean more) {
+        this.more = more;
+    }
+}
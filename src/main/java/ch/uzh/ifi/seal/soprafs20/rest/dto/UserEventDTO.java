@@ -0,0 +1,69 @@
+package ch.uzh.ifi.seal.soprafs20.rest.dto;
+
+import ch.uzh.ifi.seal.soprafs20.constant.UserEventType;
+import ch.uzh.ifi.seal.soprafs20.constant.UserStatus;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.Date;
+
+/**
+ * Data of a server-sent user event, fields that are not part of the change are left out.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class UserEventDTO {
+
+    private UserEventType type;
+    private Long userId;
+    private String username;
+    private UserStatus status;
+    private Date accountCreationDate;
+    private Date birthday;
+
+    public UserEventType getType() {
+        return type;
+    }
+
+    public void setType(UserEventType type) {
+        this.type = type;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public void setUserId(Long userId) {
+        this.userId = userId;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public void setUsername(String username) {
+        this.username = username;
+    }
+
+    public UserStatus getStatus() {
+        return status;
+    }
+
+    public void setStatus(UserStatus status) {
+        this.status = status;
+    }
+
+    public Date getAccountCreationDate() {
+        return accountCreationDate;
+    }
+
+    public void setAccountCreationDate(Date accountCreationDate) {
+        this.accountCreationDate = accountCreationDate;
+    }
+
+    public Date getBirthday() {
+        return birthday;
+    }
+
+    public void setBirthday(Date birthday) {
+        this.birthday = birthday;
+    }
+}
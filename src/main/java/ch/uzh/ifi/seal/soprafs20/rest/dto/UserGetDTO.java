@@ -12,6 +12,20 @@ public class UserGetDTO {
     private Date accountCreationDate;
     private Date birthday;
 
+    public UserGetDTO() {
+    }
+
+    /**
+     * Used by the JPQL constructor expressions in UserRepository to read users without hydrating the entity.
+     */
+    public UserGetDTO(Long id, String username, UserStatus status, Date accountCreationDate, Date birthday) {
+        this.id = id;
+        this.username = username;
+        this.status = status;
+        this.accountCreationDate = accountCreationDate;
+        this.birthday = birthday;
+    }
+
     public Date getAccountCreationDate() {
         return accountCreationDate;
     }
@@ -2,6 +2,8 @@ package ch.uzh.ifi.seal.soprafs20.rest.mapper;
 
 import ch.uzh.ifi.seal.soprafs20.entity.User;
 import ch.uzh.ifi.seal.soprafs20.rest.dto.*;
+import ch.uzh.ifi.seal.soprafs20.service.RegistrationResult;
+import ch.uzh.ifi.seal.soprafs20.service.UserEvent;
 import org.mapstruct.*;
 import org.mapstruct.factory.Mappers;
 
@@ -48,6 +50,18 @@ public interface DTOMapper {
     @Mapping(source = "username", target = "username")
     User convertUserPutUserIdDTOToEntity(UserPutUserIdDTO userPutUserIdDTO);
 
+    @Mapping(source = "user", target = "user")
+    @Mapping(source = "error", target = "error")
+    UserBatchItemGetDTO convertRegistrationResultToUserBatchItemGetDTO(RegistrationResult registrationResult);
+
+    @Mapping(source = "type", target = "type")
+    @Mapping(source = "userId", target = "userId")
+    @Mapping(source = "username", target = "username")
+    @Mapping(source = "status", target = "status")
+    @Mapping(source = "accountCreationDate", target = "accountCreationDate")
+    @Mapping(source = "birthday", target = "birthday")
+    UserEventDTO convertUserEventToUserEventDTO(UserEvent userEvent);
+
 
 
 
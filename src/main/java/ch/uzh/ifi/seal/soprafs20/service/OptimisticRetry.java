@@ -0,0 +1,88 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Optimistic Retry
+ * This class re-runs a write that lost the version check of its row against a concurrent writer.
+ * At most users.update.max-attempts attempts are made. In between it waits a random time below a bound that doubles
+ * with every attempt, starting at users.update.backoff-ms and capped at users.update.max-backoff-ms ("full jitter"),
+ * so writers that collided once do not collide again in lockstep.
+ * Every attempt must run in its own transaction; retrying inside one would only see the stale state again.
+ */
+@Component
+public class OptimisticRetry {
+
+    private final Logger log = LoggerFactory.getLogger(OptimisticRetry.class);
+
+    private final int maxAttempts;
+    private final long backoffMillis;
+    private final long maxBackoffMillis;
+
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder exhausted = new LongAdder();
+
+    @Autowired
+    public OptimisticRetry(@Value("${users.update.max-attempts:4}") int maxAttempts,
+                           @Value("${users.update.backoff-ms:5}") long backoffMillis,
+                           @Value("${users.update.max-backoff-ms:100}") long maxBackoffMillis) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.backoffMillis = backoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    /**
+     * Runs the write until it gets through without a conflict.
+     *
+     * @throws OptimisticLockingFailureException of the last attempt once all attempts lost
+     */
+    public <T> T run(Supplier<T> write) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return write.get();
+            }
+            catch (OptimisticLockingFailureException e) {
+                if (attempt == maxAttempts) {
+                    exhausted.increment();
+                    log.debug("Gave up after {} conflicting attempts", attempt);
+                    throw e;
+                }
+                retries.increment();
+                if (!backOff(attempt)) throw e;
+            }
+        }
+    }
+
+    public long getRetryCount() {
+        return retries.sum();
+    }
+
+    public long getExhaustedCount() {
+        return exhausted.sum();
+    }
+
+    /**
+     * @return false if the thread was interrupted while waiting
+     */
+    private boolean backOff(int attempt) {
+        long bound = Math.min(maxBackoffMillis, backoffMillis << Math.min(attempt - 1, 20));
+        if (bound <= 0) return true;
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(bound + 1));
+            return true;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
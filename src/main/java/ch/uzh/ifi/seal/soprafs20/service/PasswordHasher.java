@@ -0,0 +1,224 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import ch.uzh.ifi.seal.soprafs20.exceptions.ServerBusy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Password Hasher
+ * This class hashes and verifies passwords with PBKDF2 (HMAC-SHA256) and a configurable number of iterations.
+ * Hashing is deliberately slow, so every hash and verification runs on a dedicated, bounded thread pool instead of
+ * the calling servlet thread: at most hash-threads passwords are processed at once and at most hash-queue-capacity
+ * wait for a thread. Anything beyond that is rejected immediately with ServerBusy instead of piling up.
+ * Hashes are stored as "pbkdf2-sha256$iterations$salt$hash"; any other stored value, including one that only starts
+ * like a hash, is a legacy plaintext password.
+ */
+@Component
+public class PasswordHasher {
+
+    private static final String PREFIX = "pbkdf2-sha256";
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+
+    private final int iterations;
+    private final ThreadPoolExecutor executor;
+    private final SecureRandom random = new SecureRandom();
+    private final LongAdder rejected = new LongAdder();
+
+    public PasswordHasher(@Value("${users.password.iterations:100000}") int iterations,
+                          @Value("${users.password.hash-threads:0}") int threads,
+                          @Value("${users.password.hash-queue-capacity:256}") int queueCapacity) {
+        this.iterations = iterations;
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "password-hasher-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * @return the encoded hash of the password, null if there is no password to hash
+     * @throws ServerBusy if the hashing pool is saturated
+     */
+    public String hash(String password) {
+        if (password == null) return null;
+        return await(submit(() -> encode(password)));
+    }
+
+    /**
+     * Hashes on the calling thread, for callers that bring their own threads and must not compete with logins for
+     * the hashing pool (the bulk loader).
+     *
+     * @return the encoded hash of the password, null if there is no password to hash
+     */
+    public String hashOnCallingThread(String password) {
+        if (password == null) return null;
+        return encode(password);
+    }
+
+    /**
+     * Hashes all passwords in parallel on the hashing pool.
+     *
+     * @return the encoded hashes, in the order of the given passwords
+     * @throws ServerBusy if the hashing pool cannot take all of them
+     */
+    public List<String> hashAll(List<String> passwords) {
+        List<Future<String>> futures = new ArrayList<>(passwords.size());
+        try {
+            for (String password : passwords) futures.add(submit(() -> encode(password)));
+        }
+        catch (ServerBusy e) {
+            for (Future<String> future : futures) future.cancel(false);
+            throw e;
+        }
+        List<String> hashes = new ArrayList<>(passwords.size());
+        for (Future<String> future : futures) hashes.add(await(future));
+        return hashes;
+    }
+
+    /**
+     * Checks the password against the stored value, which is either an encoded hash or a legacy plaintext password.
+     *
+     * @throws ServerBusy if the hashing pool is saturated
+     */
+    public boolean verify(String password, String stored) {
+        if (password == null || stored == null) return false;
+        Encoded encoded = Encoded.parse(stored);
+        if (encoded == null) {
+            return MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8), stored.getBytes(StandardCharsets.UTF_8));
+        }
+        byte[] actual = await(submit(() -> pbkdf2(password, encoded.salt, encoded.iterations)));
+        return MessageDigest.isEqual(encoded.hash, actual);
+    }
+
+    /**
+     * @return true if the stored value is plaintext or was hashed with a different work factor than the current one
+     */
+    public boolean needsRehash(String stored) {
+        Encoded encoded = Encoded.parse(stored);
+        return encoded == null || encoded.iterations != iterations;
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public long getCompletedCount() {
+        return executor.getCompletedTaskCount();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Parts of an encoded hash.
+     */
+    private static final class Encoded {
+
+        private final int iterations;
+        private final byte[] salt;
+        private final byte[] hash;
+
+        private Encoded(int iterations, byte[] salt, byte[] hash) {
+            this.iterations = iterations;
+            this.salt = salt;
+            this.hash = hash;
+        }
+
+        /**
+         * @return null for a legacy plaintext password
+         */
+        private static Encoded parse(String stored) {
+            if (!stored.startsWith(PREFIX + "$")) return null;
+            String[] parts = stored.split("\\$", -1);
+            if (parts.length != 4) return null;
+            try {
+                int iterations = Integer.parseInt(parts[1]);
+                byte[] salt = Base64.getDecoder().decode(parts[2]);
+                byte[] hash = Base64.getDecoder().decode(parts[3]);
+                // PBEKeySpec rejects these, a plaintext password that happens to look like a hash must not end up there
+                if (iterations < 1 || salt.length == 0 || hash.length == 0) return null;
+                return new Encoded(iterations, salt, hash);
+            }
+            catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+
+    private String encode(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        byte[] hash = pbkdf2(password, salt, iterations);
+        Base64.Encoder encoder = Base64.getEncoder();
+        return PREFIX + "$" + iterations + "$" + encoder.encodeToString(salt) + "$" + encoder.encodeToString(hash);
+    }
+
+    private static byte[] pbkdf2(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        }
+        catch (GeneralSecurityException e) {
+            throw new IllegalStateException("PBKDF2 is not available in this JVM.", e);
+        }
+        finally {
+            spec.clearPassword();
+        }
+    }
+
+    private <T> Future<T> submit(Callable<T> task) {
+        try {
+            return executor.submit(task);
+        }
+        catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw new ServerBusy("Too many logins and registrations at the moment, please try again later.");
+        }
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+            throw new ServerBusy("The request was interrupted while waiting for the password check.");
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import ch.uzh.ifi.seal.soprafs20.constant.UserStatus;
+import ch.uzh.ifi.seal.soprafs20.repository.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Presence Store
+ * This class owns the ONLINE/OFFLINE status of users that logged in or out since the application started.
+ * Status changes are applied atomically per user in memory (ConcurrentHashMap.compute locks only the bin of that
+ * user, never across a query) and written to the USER table later in batched bulk UPDATEs (write-behind). The database therefore lags behind
+ * by at most users.presence.max-staleness-ms; reads must merge the status from this store.
+ * Pending changes are also flushed when the application shuts down.
+ */
+@Component
+public class PresenceStore {
+
+    // ids per bulk UPDATE, keeps the IN list at a size every database handles well
+    private static final int FLUSH_CHUNK_SIZE = 500;
+
+    private final Logger log = LoggerFactory.getLogger(PresenceStore.class);
+
+    private final UserRepository userRepository;
+
+    private final ConcurrentHashMap<Long, UserStatus> statuses = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, UserStatus> pending = new ConcurrentHashMap<>();
+    // counts the users dropped from memory, tells a load whether its query may have missed a newer write
+    private final AtomicLong removals = new AtomicLong();
+
+    public PresenceStore(@Qualifier("userRepository") UserRepository userRepository) {
+        this.userRepository = userRepository;
+    }
+
+    /**
+     * Atomically moves the user from the expected to the target status.
+     *
+     * @param storedStatus supplies the status stored in the database, only called if the user is not known yet
+     * @return true if this call changed the status, false if the user was not in the expected status
+     */
+    public boolean transition(long userId, Supplier<UserStatus> storedStatus, UserStatus expected, UserStatus target) {
+        while (true) {
+            if (!statuses.containsKey(userId) && !load(userId, storedStatus)) return false;
+
+            boolean[] known = new boolean[1];
+            boolean[] changed = new boolean[1];
+            statuses.computeIfPresent(userId, (id, current) -> {
+                known[0] = true;
+                if (current != expected) return current;
+                // marked inside compute, so flush never sees a status without its pending write
+                pending.put(id, target);
+                changed[0] = true;
+                return target;
+            });
+            // dropped by a flush in between -> load again
+            if (known[0]) return changed[0];
+        }
+    }
+
+    /**
+     * @return the current status of the user or null if it is not known here and the database is up to date
+     */
+    public UserStatus get(long userId) {
+        return statuses.get(userId);
+    }
+
+    /**
+     * Drops everything known about a deleted user.
+     */
+    public void forget(long userId) {
+        statuses.compute(userId, (id, current) -> {
+            pending.remove(id);
+            if (current != null) removals.incrementAndGet();
+            return null;
+        });
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Writes all pending status changes with one bulk UPDATE per status and chunk of users.
+     * Users that are offline and fully written are dropped from memory afterwards, the database is exact for them.
+     */
+    @Scheduled(fixedDelayString = "${users.presence.max-staleness-ms:1000}")
+    public synchronized void flush() {
+        if (pending.isEmpty()) return;
+
+        Map<UserStatus, List<Long>> idsByStatus = new EnumMap<>(UserStatus.class);
+        Map<Long, UserStatus> snapshot = new HashMap<>(pending);
+        snapshot.forEach((id, status) -> idsByStatus.computeIfAbsent(status, s -> new ArrayList<>()).add(id));
+
+        for (Map.Entry<UserStatus, List<Long>> entry : idsByStatus.entrySet()) {
+            List<Long> ids = entry.getValue();
+            for (int from = 0; from < ids.size(); from += FLUSH_CHUNK_SIZE) {
+                userRepository.updateStatusOfUsers(ids.subList(from, Math.min(from + FLUSH_CHUNK_SIZE, ids.size())), entry.getKey());
+            }
+        }
+
+        // a change that happened during the flush stays pending for the next round
+        snapshot.forEach((id, status) -> {
+            pending.remove(id, status);
+            statuses.computeIfPresent(id, (key, current) -> {
+                if (current != UserStatus.OFFLINE || pending.containsKey(key)) return current;
+                removals.incrementAndGet();
+                return null;
+            });
+        });
+        log.debug("Flushed {} status changes", snapshot.size());
+    }
+
+    /**
+     * Reads the stored status outside of compute: a query must not hold the lock of the bin, which other users share,
+     * and compute functions must be short. The status is only taken if no user was dropped from memory meanwhile,
+     * that user may have been written with a status newer than the one read.
+     *
+     * @return false if the user is not stored
+     */
+    private boolean load(long userId, Supplier<UserStatus> storedStatus) {
+        long removalsBefore = removals.get();
+        UserStatus stored = storedStatus.get();
+        if (stored == null) return false;
+        statuses.compute(userId, (id, current) -> current != null || removals.get() != removalsBefore ? current : stored);
+        return true;
+    }
+
+    @PreDestroy
+    public void flushOnShutdown() {
+        flush();
+    }
+}
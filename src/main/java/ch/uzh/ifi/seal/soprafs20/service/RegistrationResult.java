@@ -0,0 +1,34 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import ch.uzh.ifi.seal.soprafs20.entity.User;
+
+/**
+ * Outcome of a single registration within a bulk registration: either the created user or the reason why the user
+ * could not be created.
+ */
+public class RegistrationResult {
+
+    private final User user;
+    private final String error;
+
+    private RegistrationResult(User user, String error) {
+        this.user = user;
+        this.error = error;
+    }
+
+    public static RegistrationResult created(User user) {
+        return new RegistrationResult(user, null);
+    }
+
+    public static RegistrationResult failed(String error) {
+        return new RegistrationResult(null, error);
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    public String getError() {
+        return error;
+    }
+}
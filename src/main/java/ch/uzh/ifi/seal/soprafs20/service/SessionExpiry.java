@@ -0,0 +1,202 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import ch.uzh.ifi.seal.soprafs20.constant.UserStatus;
+import ch.uzh.ifi.seal.soprafs20.entity.User;
+import ch.uzh.ifi.seal.soprafs20.repository.UserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Session Expiry
+ * This class logs out users whose session has been idle for longer than users.session.idle-timeout-seconds.
+ * Every open session sits in a TimingWheel at its idle deadline. Activity only updates the last activity time of the
+ * session; when the wheel reaches the old deadline the session is either rescheduled to its new deadline or expired.
+ * Every session costs O(1) per timeout period, no matter how often it is used, and there is no table scan.
+ * Expired users go OFFLINE through the PresenceStore, which writes them to the database in its batched flush.
+ * With signed session tokens the token of an expired session is revoked like on logout.
+ * A session that cannot be expired (e.g. the database is unavailable) stays tracked and is retried on the next tick.
+ * A user has at most one open session (a second login is rejected), so sessions are tracked per user id.
+ */
+@Component
+public class SessionExpiry {
+
+    private static final class Session {
+
+        private final long userId;
+        private volatile long lastActivity;
+        // set once the user is OFFLINE, the rest of the expiry may still have to be retried
+        private volatile boolean loggedOut;
+
+        private Session(long userId, long lastActivity) {
+            this.userId = userId;
+            this.lastActivity = lastActivity;
+        }
+    }
+
+    private final Logger log = LoggerFactory.getLogger(SessionExpiry.class);
+
+    private final UserRepository userRepository;
+    private final PresenceStore presenceStore;
+    private final SessionTokens sessionTokens;
+    private final ApplicationEventPublisher eventPublisher;
+    private final long idleTimeoutNanos;
+    private final long tickNanos;
+    private final LongSupplier clock;
+
+    private final ConcurrentHashMap<Long, Session> sessions = new ConcurrentHashMap<>();
+    // guarded by itself
+    private final TimingWheel<Session> wheel;
+    private final LongAdder expired = new LongAdder();
+
+    @Autowired
+    public SessionExpiry(@Qualifier("userRepository") UserRepository userRepository, PresenceStore presenceStore,
+                         SessionTokens sessionTokens, ApplicationEventPublisher eventPublisher,
+                         @Value("${users.session.idle-timeout-seconds:1800}") long idleTimeoutSeconds,
+                         @Value("${users.session.tick-ms:1000}") long tickMillis) {
+        this(userRepository, presenceStore, sessionTokens, eventPublisher, TimeUnit.SECONDS.toNanos(idleTimeoutSeconds), TimeUnit.MILLISECONDS.toNanos(tickMillis), System::nanoTime);
+    }
+
+    SessionExpiry(UserRepository userRepository, PresenceStore presenceStore, SessionTokens sessionTokens,
+                  ApplicationEventPublisher eventPublisher, long idleTimeoutNanos, long tickNanos, LongSupplier clock) {
+        this.userRepository = userRepository;
+        this.presenceStore = presenceStore;
+        this.sessionTokens = sessionTokens;
+        this.eventPublisher = eventPublisher;
+        this.idleTimeoutNanos = idleTimeoutNanos;
+        this.tickNanos = tickNanos;
+        this.clock = clock;
+        this.wheel = new TimingWheel<>(Math.floorDiv(clock.getAsLong(), tickNanos));
+    }
+
+    /**
+     * Starts tracking a new session of the user, replacing any earlier one.
+     */
+    public void started(long userId) {
+        long now = clock.getAsLong();
+        Session session = new Session(userId, now);
+        sessions.put(userId, session);
+        synchronized (wheel) {
+            wheel.schedule(session, deadlineTick(now));
+        }
+    }
+
+    /**
+     * Records activity of the user's session.
+     *
+     * @return false if the user has no open session (anymore)
+     */
+    public boolean touch(long userId) {
+        Session session = sessions.get(userId);
+        if (session == null || session.loggedOut) return false;
+        session.lastActivity = clock.getAsLong();
+        return true;
+    }
+
+    public void ended(long userId) {
+        sessions.remove(userId);
+    }
+
+    /**
+     * Users that were online when the application stopped have no tracked session, they get a fresh idle timeout.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void trackOpenSessions() {
+        List<Long> onlineUserIds = userRepository.findIdsByStatus(UserStatus.ONLINE);
+        for (Long userId : onlineUserIds) {
+            if (presenceStore.get(userId) == null) started(userId);
+        }
+        if (!onlineUserIds.isEmpty()) log.info("Tracking {} sessions that were open before the start", onlineUserIds.size());
+    }
+
+    public int getOpenSessionCount() {
+        return sessions.size();
+    }
+
+    public long getExpiredCount() {
+        return expired.sum();
+    }
+
+    /**
+     * Advances the wheel to the current time and logs out every session that has been idle for too long.
+     */
+    @Scheduled(fixedDelayString = "${users.session.tick-ms:1000}")
+    public void sweep() {
+        long now = clock.getAsLong();
+        List<Session> due = new ArrayList<>();
+        List<Session> idle = new ArrayList<>();
+        synchronized (wheel) {
+            wheel.advance(Math.floorDiv(now, tickNanos), due::add);
+            for (Session session : due) {
+                // ended or replaced by a newer login
+                if (sessions.get(session.userId) != session) continue;
+                long lastActivity = session.lastActivity;
+                // used since it was scheduled -> wait for the new deadline
+                if (!session.loggedOut && now - lastActivity < idleTimeoutNanos) wheel.schedule(session, deadlineTick(lastActivity));
+                else idle.add(session);
+            }
+        }
+
+        int loggedOut = 0;
+        List<Session> failed = new ArrayList<>();
+        for (Session session : idle) {
+            if (sessions.get(session.userId) != session) continue;
+            try {
+                // the user may have logged out in the meantime, the presence store decides
+                if (!session.loggedOut && !presenceStore.transition(session.userId, () -> userRepository.findStatusById(session.userId), UserStatus.ONLINE, UserStatus.OFFLINE)) {
+                    sessions.remove(session.userId, session);
+                    continue;
+                }
+                session.loggedOut = true;
+                if (sessionTokens.isSigned()) revokeSignedSession(session.userId);
+            }
+            catch (RuntimeException e) {
+                log.warn("Could not expire the session of user {}, retrying with the next tick", session.userId, e);
+                failed.add(session);
+                continue;
+            }
+            // removed only now, a failed attempt is found again on the next tick
+            if (!sessions.remove(session.userId, session)) continue;
+            eventPublisher.publishEvent(UserEvent.loggedOut(session.userId));
+            loggedOut++;
+        }
+        if (!failed.isEmpty()) {
+            synchronized (wheel) {
+                for (Session session : failed) wheel.schedule(session, Math.floorDiv(now, tickNanos));
+            }
+        }
+        if (loggedOut > 0) {
+            expired.add(loggedOut);
+            log.debug("Logged out {} idle users", loggedOut);
+        }
+    }
+
+    /**
+     * Same as a logout: bumps the generation in memory and stores a token of the next generation, so the token of the
+     * expired session is rejected by every check, also after a restart.
+     */
+    private void revokeSignedSession(long userId) {
+        long generation = sessionTokens.currentGeneration(userId, () -> userRepository.findById(userId).map(User::getToken).orElse(null));
+        userRepository.replaceToken(userId, sessionTokens.issue(userId, generation + 1));
+        sessionTokens.revoke(userId, generation);
+    }
+
+    private long deadlineTick(long lastActivity) {
+        // rounded up, a session never expires before its timeout
+        return Math.floorDiv(lastActivity + idleTimeoutNanos + tickNanos - 1, tickNanos);
+    }
+}
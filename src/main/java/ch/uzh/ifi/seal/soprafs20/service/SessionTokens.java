@@ -0,0 +1,161 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import ch.uzh.ifi.seal.soprafs20.constant.TokenMode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Session Tokens
+ * This class issues and verifies the self-describing session tokens used when users.token.mode is SIGNED.
+ * A token carries the user id, its issue time and a generation counter and is signed with HMAC-SHA256, so it can be
+ * verified without a database lookup. Logging out bumps the generation of the user; tokens of an older generation
+ * are revoked. The current generation of every user is kept in memory and seeded once from the token stored in the
+ * database (which always is the latest one issued) after a restart.
+ * In OPAQUE mode (the default) sessions keep using random UUID tokens and this class is not consulted.
+ */
+@Component
+public class SessionTokens {
+
+    /**
+     * Content of a token with a valid signature.
+     */
+    public static final class Claims {
+
+        private final long userId;
+        private final long issuedAt;
+        private final long generation;
+
+        private Claims(long userId, long issuedAt, long generation) {
+            this.userId = userId;
+            this.issuedAt = issuedAt;
+            this.generation = generation;
+        }
+
+        public long getUserId() {
+            return userId;
+        }
+
+        public long getIssuedAt() {
+            return issuedAt;
+        }
+
+        public long getGeneration() {
+            return generation;
+        }
+    }
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private final Logger log = LoggerFactory.getLogger(SessionTokens.class);
+
+    private final TokenMode mode;
+    private final SecretKeySpec key;
+    private final ThreadLocal<Mac> macs;
+    private final ConcurrentHashMap<Long, Long> generations = new ConcurrentHashMap<>();
+
+    @Autowired
+    public SessionTokens(@Value("${users.token.mode:OPAQUE}") TokenMode mode,
+                         @Value("${users.token.secret:}") String secret) {
+        this.mode = mode;
+        byte[] keyBytes;
+        if (secret.isEmpty()) {
+            keyBytes = new byte[32];
+            new SecureRandom().nextBytes(keyBytes);
+            if (mode == TokenMode.SIGNED) log.warn("No users.token.secret configured, signed tokens will not survive a restart");
+        }
+        else keyBytes = secret.getBytes(StandardCharsets.UTF_8);
+        this.key = new SecretKeySpec(keyBytes, ALGORITHM);
+        this.macs = ThreadLocal.withInitial(this::newMac);
+    }
+
+    public boolean isSigned() {
+        return mode == TokenMode.SIGNED;
+    }
+
+    /**
+     * @return a new signed token of the given generation for the user
+     */
+    public String issue(long userId, long generation) {
+        String payload = userId + ":" + System.currentTimeMillis() + ":" + generation;
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        return encoder.encodeToString(payload.getBytes(StandardCharsets.UTF_8)) + "." + encoder.encodeToString(sign(payload));
+    }
+
+    /**
+     * @return the claims of the token or null if it is malformed or its signature does not match
+     */
+    public Claims verify(String token) {
+        if (token == null) return null;
+        int separator = token.indexOf('.');
+        if (separator < 0) return null;
+        try {
+            Base64.Decoder decoder = Base64.getUrlDecoder();
+            String payload = new String(decoder.decode(token.substring(0, separator)), StandardCharsets.UTF_8);
+            byte[] signature = decoder.decode(token.substring(separator + 1));
+            if (!MessageDigest.isEqual(sign(payload), signature)) return null;
+
+            String[] parts = payload.split(":");
+            if (parts.length != 3) return null;
+            return new Claims(Long.parseLong(parts[0]), Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+        }
+        catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param storedToken supplies the token currently stored for the user, only called if the generation of the
+     *                    user is not known in memory yet
+     * @return the generation that tokens of the user must have to be valid
+     */
+    public long currentGeneration(long userId, Supplier<String> storedToken) {
+        return generations.computeIfAbsent(userId, id -> {
+            Claims stored = verify(storedToken.get());
+            return stored != null && stored.getUserId() == id ? stored.getGeneration() : 0L;
+        });
+    }
+
+    /**
+     * @return true if the token belongs to the current generation of its user
+     */
+    public boolean isCurrent(Claims claims, Supplier<String> storedToken) {
+        return claims.getGeneration() >= currentGeneration(claims.getUserId(), storedToken);
+    }
+
+    /**
+     * Revokes all tokens of the given generation (and older ones) of the user.
+     *
+     * @return the new current generation
+     */
+    public long revoke(long userId, long generation) {
+        return generations.merge(userId, generation + 1, Math::max);
+    }
+
+    private byte[] sign(String payload) {
+        return macs.get().doFinal(payload.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        }
+        catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC-SHA256 is not available in this JVM.", e);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Timing Wheel
+ * A hierarchical timing wheel (as in Varghese and Lauck, or the Linux/Kafka timer wheels) that keeps timeouts in
+ * buckets by their deadline tick. Scheduling is O(1), and advancing the clock by one tick only looks at the
+ * entries due in that tick plus the entries of a coarser bucket that are moved one level down. This is never a scan
+ * over all timeouts. Level l has SLOTS buckets of SLOTS^l ticks each, so four levels cover SLOTS^4 ticks; deadlines
+ * beyond that are parked in the coarsest level and rescheduled when they come up.
+ * Entries cannot be cancelled, callers check whether an expired entry is still relevant instead.
+ * Not thread safe, callers synchronize.
+ */
+class TimingWheel<T> {
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    private static final long MAX_DELTA = (1L << (SLOT_BITS * LEVELS)) - 1;
+
+    private static final class Timeout<T> {
+
+        private final T value;
+        private final long deadline;
+
+        private Timeout(T value, long deadline) {
+            this.value = value;
+            this.deadline = deadline;
+        }
+    }
+
+    private final List<List<Timeout<T>>> buckets = new ArrayList<>(LEVELS * SLOTS);
+
+    private long currentTick;
+    private int size;
+
+    TimingWheel(long startTick) {
+        this.currentTick = startTick;
+        for (int i = 0; i < LEVELS * SLOTS; i++) buckets.add(new ArrayList<>());
+    }
+
+    /**
+     * Schedules the value to expire at the given tick; deadlines that already passed expire with the next tick.
+     */
+    void schedule(T value, long deadlineTick) {
+        place(new Timeout<>(value, Math.max(deadlineTick, currentTick + 1)));
+        size++;
+    }
+
+    /**
+     * Advances the clock tick by tick up to the given tick and hands every value whose deadline was reached to the
+     * consumer. The consumer may schedule new values.
+     */
+    void advance(long toTick, Consumer<T> expired) {
+        while (currentTick < toTick) {
+            currentTick++;
+            // move the coarse buckets that start at this tick one level down before the finest level is due
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0) cascade(level);
+            }
+
+            List<Timeout<T>> due = bucket(0, currentTick);
+            if (due.isEmpty()) continue;
+            List<Timeout<T>> timeouts = new ArrayList<>(due);
+            due.clear();
+            for (Timeout<T> timeout : timeouts) {
+                // a deadline beyond the range of the wheel was parked at the end of its range
+                if (timeout.deadline > currentTick) place(timeout);
+                else {
+                    size--;
+                    expired.accept(timeout.value);
+                }
+            }
+        }
+    }
+
+    long getCurrentTick() {
+        return currentTick;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void cascade(int level) {
+        List<Timeout<T>> bucket = bucket(level, currentTick >>> (SLOT_BITS * level));
+        if (bucket.isEmpty()) return;
+        List<Timeout<T>> timeouts = new ArrayList<>(bucket);
+        bucket.clear();
+        for (Timeout<T> timeout : timeouts) place(timeout);
+    }
+
+    private void place(Timeout<T> timeout) {
+        // a delta of 0 only occurs while cascading, the finest bucket of the current tick is processed right after
+        long delta = Math.min(Math.max(timeout.deadline - currentTick, 0), MAX_DELTA);
+        long tick = currentTick + delta;
+        int level = 0;
+        while (delta >= (1L << (SLOT_BITS * (level + 1)))) level++;
+        bucket(level, tick >>> (SLOT_BITS * level)).add(timeout);
+    }
+
+    private List<Timeout<T>> bucket(int level, long index) {
+        return buckets.get(level * SLOTS + (int) (index & SLOT_MASK));
+    }
+}
@@ -0,0 +1,126 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import ch.uzh.ifi.seal.soprafs20.constant.UserStatus;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Token Cache
+ * This class keeps the session token -> (user id, status) mapping of recently active users in memory,
+ * so that the token check of authenticated requests does not need a database round trip.
+ * The cache is bounded in size (least recently used entries are evicted first) and every entry expires after a
+ * fixed time to live. UserService is responsible for keeping it consistent on every write.
+ */
+@Component
+public class TokenCache {
+
+    /**
+     * Immutable snapshot of the session behind a token.
+     */
+    public static final class Entry {
+
+        private final Long userId;
+        private final UserStatus status;
+        private final long expiresAt;
+
+        private Entry(Long userId, UserStatus status, long expiresAt) {
+            this.userId = userId;
+            this.status = status;
+            this.expiresAt = expiresAt;
+        }
+
+        public Long getUserId() {
+            return userId;
+        }
+
+        public UserStatus getStatus() {
+            return status;
+        }
+    }
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final LongSupplier clock;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    // access ordered -> iteration starts at the least recently used entry
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    @Autowired
+    public TokenCache(@Value("${users.token-cache.max-size:10000}") int maxSize,
+                      @Value("${users.token-cache.ttl-seconds:300}") long ttlSeconds) {
+        this(maxSize, TimeUnit.SECONDS.toNanos(ttlSeconds), System::nanoTime);
+    }
+
+    TokenCache(int maxSize, long ttlNanos, LongSupplier clock) {
+        if (maxSize < 1) throw new IllegalArgumentException("The token cache needs room for at least one entry.");
+        this.maxSize = maxSize;
+        this.ttlNanos = ttlNanos;
+        this.clock = clock;
+    }
+
+    /**
+     * @return the cached session of the token or null if the token is unknown or its entry has expired
+     */
+    public synchronized Entry get(String token) {
+        if (token == null) return null;
+        Entry entry = entries.get(token);
+        if (entry != null && entry.expiresAt - clock.getAsLong() <= 0) {
+            entries.remove(token);
+            evictions.increment();
+            entry = null;
+        }
+        if (entry == null) misses.increment();
+        else hits.increment();
+        return entry;
+    }
+
+    public synchronized void put(String token, Long userId, UserStatus status) {
+        if (token == null || userId == null) return;
+        entries.put(token, new Entry(userId, status, clock.getAsLong() + ttlNanos));
+        if (entries.size() > maxSize) evictOverflow();
+    }
+
+    public synchronized void invalidate(String token) {
+        if (token != null) entries.remove(token);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Drops the least recently used entries until the cache is back within its bound.
+     * Expired entries are not searched for, they are removed lazily when they are looked up or age out of the LRU order.
+     */
+    private void evictOverflow() {
+        Iterator<String> iterator = entries.keySet().iterator();
+        while (iterator.hasNext() && entries.size() > maxSize) {
+            iterator.next();
+            iterator.remove();
+            evictions.increment();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import ch.uzh.ifi.seal.soprafs20.entity.User;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.EntityManagerFactory;
+
+/**
+ * User Cache Statistics
+ * Hit and miss counts of the second-level cache regions of users (by id and by username) and the number of JDBC
+ * statements Hibernate prepared, which is what the cache saves. Needs hibernate.generate_statistics, all counts are 0
+ * without it.
+ */
+@Component
+public class UserCacheStatistics {
+
+    private final Statistics statistics;
+
+    public UserCacheStatistics(EntityManagerFactory entityManagerFactory) {
+        this.statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    }
+
+    public long getHitCount() {
+        return region(User.CACHE_REGION).getHitCount();
+    }
+
+    public long getMissCount() {
+        return region(User.CACHE_REGION).getMissCount();
+    }
+
+    public long getPutCount() {
+        return region(User.CACHE_REGION).getPutCount();
+    }
+
+    public long getCachedCount() {
+        return region(User.CACHE_REGION).getElementCountInMemory();
+    }
+
+    public long getNaturalIdHitCount() {
+        return region(User.NATURAL_ID_CACHE_REGION).getHitCount();
+    }
+
+    public long getNaturalIdMissCount() {
+        return region(User.NATURAL_ID_CACHE_REGION).getMissCount();
+    }
+
+    public long getStatementCount() {
+        return statistics.getPrepareStatementCount();
+    }
+
+    private CacheRegionStatistics region(String name) {
+        return statistics.getDomainDataRegionStatistics(name);
+    }
+}
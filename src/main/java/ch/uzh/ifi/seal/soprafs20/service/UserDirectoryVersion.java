@@ -0,0 +1,73 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import ch.uzh.ifi.seal.soprafs20.datasource.ReplicaLagGuard;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * User Directory Version
+ * This class counts the committed changes to the list of users, it is the ETag of GET /users.
+ * Every change that shows up in the list (registration, rename, birthday, login, logout, expiry, deletion) publishes a
+ * UserEvent, the count moves once that event's transaction has committed. Writers that bypass the UserService (the
+ * bulk loader) report their commits directly. Unchanged lists are thus recognized without touching the database.
+ * The count lives in memory only, the epoch keeps tags of an earlier run from matching after a restart.
+ * With read replicas the list may be read from a replica that has not caught up with the count yet, so no tag is
+ * handed out until the replica lag guard has passed since the last change.
+ */
+@Component
+public class UserDirectoryVersion {
+
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private final AtomicLong version = new AtomicLong();
+    private final long settleNanos;
+
+    private volatile long lastChange = System.nanoTime();
+
+    public UserDirectoryVersion(ObjectProvider<ReplicaLagGuard> replicaLagGuard) {
+        ReplicaLagGuard lagGuard = replicaLagGuard.getIfAvailable();
+        this.settleNanos = lagGuard != null ? TimeUnit.MILLISECONDS.toNanos(lagGuard.getLagGuardMillis()) : 0;
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onUserEvent(UserEvent userEvent) {
+        changed();
+    }
+
+    /**
+     * Records a committed change of the users.
+     */
+    public void changed() {
+        lastChange = System.nanoTime();
+        version.incrementAndGet();
+    }
+
+    /**
+     * Must be read before the users are queried: a change committed in between then only makes the version older than
+     * the response, which costs the client a full response on its next request instead of a wrong 304.
+     * Versions only grow within a run.
+     *
+     * @return the number of committed changes, or -1 while replicas may still miss the last change
+     */
+    public long getVersion() {
+        // read before lastChange, which changed() writes before it counts
+        long current = version.get();
+        if (settleNanos > 0 && System.nanoTime() - lastChange < settleNanos) return -1;
+        return current;
+    }
+
+    /**
+     * @return the tag of the given version, or null for -1
+     */
+    public String eTagOf(long version) {
+        if (version < 0) return null;
+        return "\"" + epoch + "." + version + "\"";
+    }
+
+    public String getETag() {
+        return eTagOf(getVersion());
+    }
+}
@@ -0,0 +1,80 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import ch.uzh.ifi.seal.soprafs20.constant.UserEventType;
+import ch.uzh.ifi.seal.soprafs20.constant.UserStatus;
+import ch.uzh.ifi.seal.soprafs20.entity.User;
+
+import java.util.Date;
+
+/**
+ * User Event
+ * A change of a user as published by UserService (and SessionExpiry). Only the fields that belong to the change are
+ * set, e.g. a logout carries the user id and the new status. The event is published inside the transaction that makes
+ * the change and handed to subscribers once that transaction has committed.
+ */
+public class UserEvent {
+
+    private final UserEventType type;
+    private final Long userId;
+    private final String username;
+    private final UserStatus status;
+    private final Date accountCreationDate;
+    private final Date birthday;
+
+    private UserEvent(UserEventType type, Long userId, String username, UserStatus status, Date accountCreationDate, Date birthday) {
+        this.type = type;
+        this.userId = userId;
+        this.username = username;
+        this.status = status;
+        this.accountCreationDate = accountCreationDate;
+        this.birthday = birthday;
+    }
+
+    public static UserEvent created(User user) {
+        return new UserEvent(UserEventType.CREATED, user.getId(), user.getUsername(), user.getStatus(), user.getAccountCreationDate(), user.getBirthday());
+    }
+
+    public static UserEvent renamed(User user) {
+        return new UserEvent(UserEventType.RENAMED, user.getId(), user.getUsername(), null, null, null);
+    }
+
+    public static UserEvent birthdayChanged(User user) {
+        return new UserEvent(UserEventType.BIRTHDAY_CHANGED, user.getId(), null, null, null, user.getBirthday());
+    }
+
+    public static UserEvent loggedIn(long userId) {
+        return new UserEvent(UserEventType.LOGGED_IN, userId, null, UserStatus.ONLINE, null, null);
+    }
+
+    public static UserEvent loggedOut(long userId) {
+        return new UserEvent(UserEventType.LOGGED_OUT, userId, null, UserStatus.OFFLINE, null, null);
+    }
+
+    public static UserEvent deleted(long userId) {
+        return new UserEvent(UserEventType.DELETED, userId, null, null, null, null);
+    }
+
+    public UserEventType getType() {
+        return type;
+    }
+
+    public Long getUserId() {
+        return userId;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public UserStatus getStatus() {
+        return status;
+    }
+
+    public Date getAccountCreationDate() {
+        return accountCreationDate;
+    }
+
+    public Date getBirthday() {
+        return birthday;
+    }
+}
@@ -0,0 +1,339 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import ch.uzh.ifi.seal.soprafs20.constant.OverflowPolicy;
+import ch.uzh.ifi.seal.soprafs20.rest.dto.UserEventDTO;
+import ch.uzh.ifi.seal.soprafs20.rest.mapper.DTOMapper;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * User Event Broadcaster
+ * This class pushes committed UserEvents to all subscribers of GET /users/events as server-sent events.
+ * Every event is serialized once and then handed to each subscriber, which has its own bounded buffer
+ * (users.events.subscriber-buffer). The buffers are drained by a small shared pool of dispatch threads, so idle
+ * subscribers cost no thread at all. A subscriber that cannot keep up either loses its oldest buffered events or is
+ * disconnected, depending on users.events.overflow.
+ * Sends block while the socket of a client is full. A send that takes longer than users.events.write-timeout-ms
+ * disconnects its subscriber, and the pool gets a replacement thread until the blocked send has returned.
+ * The last users.events.replay-size events are kept in a ring buffer. A client that reconnects with a Last-Event-ID
+ * gets the events it missed, or a "reset" event if they are no longer available (or come from before a restart),
+ * after which it has to reload GET /users.
+ */
+@Component
+public class UserEventBroadcaster {
+
+    static final String RESET_EVENT = "reset";
+
+    private static final class Event {
+
+        private final String id;
+        private final String name;
+        private final String data;
+
+        private Event(String id, String name, String data) {
+            this.id = id;
+            this.name = name;
+            this.data = data;
+        }
+
+        private SseEmitter.SseEventBuilder toSse() {
+            if (name == null) return SseEmitter.event().comment("keepalive");
+            return SseEmitter.event().id(id).name(name).data(data);
+        }
+    }
+
+    private static final Event KEEPALIVE = new Event(null, null, null);
+
+    private final class Subscriber {
+
+        private final SseEmitter emitter;
+        // guarded by this
+        private final ArrayDeque<Event> buffer = new ArrayDeque<>();
+        private boolean draining;
+        // start of the send in progress, 0 if there is none
+        private long sendStartedNanos;
+        private boolean stalled;
+        private volatile boolean closed;
+
+        private Subscriber(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        private void offer(Event event) {
+            synchronized (this) {
+                if (closed) return;
+                if (buffer.size() >= bufferSize) {
+                    if (overflowPolicy == OverflowPolicy.DISCONNECT) {
+                        disconnected.increment();
+                        close();
+                        // a drain in progress completes the emitter itself, completing would wait for its send
+                        if (!draining) dispatcher.execute(emitter::complete);
+                        return;
+                    }
+                    buffer.pollFirst();
+                    dropped.increment();
+                }
+                buffer.addLast(event);
+                if (draining) return;
+                draining = true;
+            }
+            dispatcher.execute(this::drain);
+        }
+
+        private void drain() {
+            while (true) {
+                Event event;
+                synchronized (this) {
+                    event = closed ? null : buffer.pollFirst();
+                    if (event == null) {
+                        draining = false;
+                        break;
+                    }
+                    sendStartedNanos = System.nanoTime();
+                }
+                boolean failed = false;
+                try {
+                    emitter.send(event.toSse());
+                }
+                catch (IOException | IllegalStateException e) {
+                    // the client went away or the emitter already completed
+                    failed = true;
+                }
+                synchronized (this) {
+                    sendStartedNanos = 0;
+                    if (stalled) {
+                        draining = false;
+                        resizeDispatcher(-1);
+                        break;
+                    }
+                }
+                if (failed) {
+                    close();
+                    return;
+                }
+            }
+            // ignored if the client went away
+            if (closed) emitter.complete();
+        }
+
+        /**
+         * Disconnects the subscriber if its send in progress has been blocked for longer than the write timeout.
+         */
+        private synchronized void expireSend(long now) {
+            if (closed || sendStartedNanos == 0 || now - sendStartedNanos < writeTimeoutNanos) return;
+            stalled = true;
+            disconnected.increment();
+            close();
+            // the blocked send keeps its thread until the socket gives up, the other subscribers get a new one
+            resizeDispatcher(1);
+        }
+
+        private void close() {
+            closed = true;
+            subscribers.remove(this);
+        }
+    }
+
+    private final Logger log = LoggerFactory.getLogger(UserEventBroadcaster.class);
+
+    private final ObjectWriter eventWriter;
+    private final int bufferSize;
+    private final OverflowPolicy overflowPolicy;
+    private final long emitterTimeoutMillis;
+    private final long writeTimeoutNanos;
+    private final Executor dispatcher;
+
+    // the epoch tells event ids of this run apart from ids handed out before a restart
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder disconnected = new LongAdder();
+
+    // guarded by itself: appending to the ring and handing an event to the subscribers happen atomically, so a new
+    // subscriber sees every event exactly once, either replayed or live
+    private final Event[] ring;
+    private long nextSequence = 1;
+
+    @Autowired
+    public UserEventBroadcaster(ObjectMapper objectMapper,
+                                @Value("${users.events.replay-size:1024}") int replaySize,
+                                @Value("${users.events.subscriber-buffer:256}") int bufferSize,
+                                @Value("${users.events.overflow:DROP_OLDEST}") OverflowPolicy overflowPolicy,
+                                @Value("${users.events.timeout-ms:1800000}") long emitterTimeoutMillis,
+                                @Value("${users.events.write-timeout-ms:10000}") long writeTimeoutMillis,
+                                @Value("${users.events.dispatch-threads:2}") int dispatchThreads) {
+        this(objectMapper, replaySize, bufferSize, overflowPolicy, emitterTimeoutMillis, writeTimeoutMillis,
+                newDispatcher(dispatchThreads));
+    }
+
+    UserEventBroadcaster(ObjectMapper objectMapper, int replaySize, int bufferSize, OverflowPolicy overflowPolicy,
+                         long emitterTimeoutMillis, long writeTimeoutMillis, Executor dispatcher) {
+        this.eventWriter = objectMapper.writerFor(UserEventDTO.class);
+        this.ring = new Event[replaySize];
+        this.bufferSize = bufferSize;
+        this.overflowPolicy = overflowPolicy;
+        this.emitterTimeoutMillis = emitterTimeoutMillis;
+        this.writeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(writeTimeoutMillis);
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Opens a new event stream.
+     *
+     * @param lastEventId id of the last event the client has seen, null for a fresh subscription
+     */
+    public SseEmitter subscribe(String lastEventId) {
+        SseEmitter emitter = new SseEmitter(emitterTimeoutMillis);
+        register(emitter, lastEventId);
+        return emitter;
+    }
+
+    void register(SseEmitter emitter, String lastEventId) {
+        Subscriber subscriber = new Subscriber(emitter);
+        emitter.onCompletion(subscriber::close);
+        emitter.onTimeout(subscriber::close);
+        emitter.onError(e -> subscriber.close());
+
+        synchronized (ring) {
+            if (lastEventId != null) replay(subscriber, lastEventId);
+            subscribers.add(subscriber);
+        }
+    }
+
+    /**
+     * Receives the events of UserService once their transaction has committed, right away if there is none.
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onUserEvent(UserEvent userEvent) {
+        String data;
+        try {
+            data = eventWriter.writeValueAsString(DTOMapper.INSTANCE.convertUserEventToUserEventDTO(userEvent));
+        }
+        catch (JsonProcessingException e) {
+            log.warn("Could not serialize {} event of user {}", userEvent.getType(), userEvent.getUserId(), e);
+            return;
+        }
+
+        synchronized (ring) {
+            long sequence = nextSequence++;
+            Event event = new Event(epoch + "-" + sequence, userEvent.getType().name(), data);
+            ring[(int) ((sequence - 1) % ring.length)] = event;
+            for (Subscriber subscriber : subscribers) subscriber.offer(event);
+        }
+    }
+
+    /**
+     * Sends a comment to idle subscribers, so proxies keep the connection open and dead clients are noticed.
+     */
+    @Scheduled(fixedDelayString = "${users.events.keepalive-ms:30000}")
+    public void keepAlive() {
+        for (Subscriber subscriber : subscribers) {
+            boolean idle;
+            synchronized (subscriber) {
+                idle = subscriber.buffer.isEmpty();
+            }
+            if (idle) subscriber.offer(KEEPALIVE);
+        }
+    }
+
+    /**
+     * Disconnects subscribers whose send is blocked, so a client that stopped reading cannot hold a dispatch thread.
+     */
+    @Scheduled(fixedDelayString = "${users.events.write-check-ms:1000}")
+    public void expireStalledSends() {
+        long now = System.nanoTime();
+        for (Subscriber subscriber : subscribers) subscriber.expireSend(now);
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    public long getDisconnectedCount() {
+        return disconnected.sum();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (Subscriber subscriber : subscribers) {
+            subscriber.close();
+            subscriber.emitter.complete();
+        }
+        if (dispatcher instanceof ExecutorService) ((ExecutorService) dispatcher).shutdown();
+    }
+
+    private void replay(Subscriber subscriber, String lastEventId) {
+        long oldestSequence = Math.max(1, nextSequence - ring.length);
+        long lastSequence = parseSequence(lastEventId);
+        // more missed events than fit into the buffer of the subscriber would be dropped right away as well
+        if (lastSequence < 0 || lastSequence >= nextSequence || lastSequence < oldestSequence - 1
+                || nextSequence - 1 - lastSequence > bufferSize) {
+            // carries the latest id, so a reconnect after the reload resumes from here
+            subscriber.offer(new Event(epoch + "-" + (nextSequence - 1), RESET_EVENT, "{}"));
+            return;
+        }
+        for (long sequence = lastSequence + 1; sequence < nextSequence; sequence++) {
+            subscriber.offer(ring[(int) ((sequence - 1) % ring.length)]);
+        }
+    }
+
+    /**
+     * @return the sequence number of an event id of this run, -1 if the id is malformed or from another run
+     */
+    private long parseSequence(String eventId) {
+        int separator = eventId.lastIndexOf('-');
+        if (separator < 0 || !eventId.substring(0, separator).equals(epoch)) return -1;
+        try {
+            return Long.parseLong(eventId.substring(separator + 1));
+        }
+        catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void resizeDispatcher(int delta) {
+        if (!(dispatcher instanceof ThreadPoolExecutor)) return;
+        ThreadPoolExecutor pool = (ThreadPoolExecutor) dispatcher;
+        synchronized (pool) {
+            // a larger core size starts threads for the queued drains right away
+            pool.setCorePoolSize(pool.getCorePoolSize() + delta);
+        }
+    }
+
+    private static ExecutorService newDispatcher(int threads) {
+        AtomicInteger threadCount = new AtomicInteger();
+        // only grows beyond the given threads by the sends that are blocked
+        return new ThreadPoolExecutor(threads, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "user-events-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+}
@@ -1,20 +1,43 @@
 package ch.uzh.ifi.seal.soprafs20.service;
 
+import ch.uzh.ifi.seal.soprafs20.constant.UpdateLocking;
 import ch.uzh.ifi.seal.soprafs20.constant.UserStatus;
+import ch.uzh.ifi.seal.soprafs20.datasource.ReplicaRead;
 import ch.uzh.ifi.seal.soprafs20.entity.User;
+import ch.uzh.ifi.seal.soprafs20.entity.UserTombstone;
 import ch.uzh.ifi.seal.soprafs20.exceptions.*;
+import ch.uzh.ifi.seal.soprafs20.jfr.*;
+import ch.uzh.ifi.seal.soprafs20.repository.UserChangeVersions;
+import ch.uzh.ifi.seal.soprafs20.repository.UserChangeView;
 import ch.uzh.ifi.seal.soprafs20.repository.UserRepository;
+import ch.uzh.ifi.seal.soprafs20.repository.UserTombstoneRepository;
+import ch.uzh.ifi.seal.soprafs20.repository.UserVersionView;
+import ch.uzh.ifi.seal.soprafs20.rest.dto.UserChangesGetDTO;
+import ch.uzh.ifi.seal.soprafs20.rest.dto.UserGetDTO;
+import ch.uzh.ifi.seal.soprafs20.rest.mapper.DTOMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
-import java.util.Date;
-import java.util.List;
-import java.util.Optional;
-import java.util.UUID;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 /**
  * User Service
@@ -25,57 +48,294 @@ import java.util.UUID;
 @Transactional
 public class UserService {
 
+    public static final int MAX_PAGE_SIZE = 500;
+    public static final int MAX_BATCH_SIZE = 10000;
+
+    // matches hibernate.jdbc.batch_size, every chunk of a bulk registration is sent as one JDBC batch
+    private static final int BATCH_SIZE = 50;
+
+    private static final String NOT_UNIQUE_ERROR_MESSAGE = "The %s provided %s not unique. Therefore, the user could not be created!";
+
     private final Logger log = LoggerFactory.getLogger(UserService.class);
 
     private final UserRepository userRepository;
 
+    private final UserTombstoneRepository userTombstoneRepository;
+
+    private final UserChangeVersions userChangeVersions;
+
+    private final TokenCache tokenCache;
+
+    private final PasswordHasher passwordHasher;
+
+    private final SessionTokens sessionTokens;
+
+    private final PresenceStore presenceStore;
+
+    private final SessionExpiry sessionExpiry;
+
+    private final ApplicationEventPublisher eventPublisher;
+
+    private final OptimisticRetry optimisticRetry;
+
+    private final UpdateLocking updateLocking;
+
+    private final TransactionTemplate transactionTemplate;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
     @Autowired
-    public UserService(@Qualifier("userRepository") UserRepository userRepository) {
+    public UserService(@Qualifier("userRepository") UserRepository userRepository,
+                       @Qualifier("userTombstoneRepository") UserTombstoneRepository userTombstoneRepository,
+                       UserChangeVersions userChangeVersions, TokenCache tokenCache,
+                       PasswordHasher passwordHasher, SessionTokens sessionTokens, PresenceStore presenceStore,
+                       SessionExpiry sessionExpiry, ApplicationEventPublisher eventPublisher,
+                       PlatformTransactionManager transactionManager, OptimisticRetry optimisticRetry,
+                       @Value("${users.update.locking:OPTIMISTIC}") UpdateLocking updateLocking) {
         this.userRepository = userRepository;
+        this.userTombstoneRepository = userTombstoneRepository;
+        this.userChangeVersions = userChangeVersions;
+        this.tokenCache = tokenCache;
+        this.passwordHasher = passwordHasher;
+        this.sessionTokens = sessionTokens;
+        this.presenceStore = presenceStore;
+        this.sessionExpiry = sessionExpiry;
+        this.eventPublisher = eventPublisher;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.optimisticRetry = optimisticRetry;
+        this.updateLocking = updateLocking;
     }
 
-    public List<User> getUsers() {
-        return this.userRepository.findAll();
+    /**
+     * Returns at most one page of users with an id greater than the given cursor, ordered by id.
+     * The requested limit is clamped to MAX_PAGE_SIZE so a single request can never load the whole table.
+     * The users are read as projections in a read-only transaction, i.e. Hibernate neither hydrates entities nor
+     * keeps snapshots for dirty checking and never flushes. The status is taken from the PresenceStore where it is
+     * newer than the database. May be served by a read replica.
+     *
+     * @param after id of the last user of the previous page (0 for the first page)
+     * @param limit requested page size
+     */
+    @ReplicaRead
+    public List<UserGetDTO> getUsers(long after, int limit) {
+        List<UserGetDTO> users = this.userRepository.findUserGetDTOsAfter(after, PageRequest.of(0, pageSize(limit)));
+        users.forEach(this::mergePresence);
+        return users;
     }
 
+    /**
+     * Returns what changed after the given change version: the current state of users that were created or modified
+     * and the ids of deleted users, together at most one page of them, oldest change first.
+     * Both come from an index seek, so a client that keeps a local copy pays for the churn since its last sync only.
+     * The version of the result is the cursor for the next call, more is set if further changes may be waiting.
+     * Logins and logouts reach the change versions with the write-behind flush of the PresenceStore.
+     * Only versions below the low-water mark of UserChangeVersions are read, a write still in flight can therefore not
+     * be skipped by the cursor. For the same reason the changes are read from the primary: a replica may still miss
+     * versions below the mark. Users written by one bulk statement share their version, a page always ends after the
+     * last user of a version and may exceed the limit by the rest of that statement.
+     *
+     * @param since version of the last sync, 0 for everything
+     * @param limit requested page size, clamped like for getUsers
+     */
+    @Transactional(readOnly = true)
+    public UserChangesGetDTO getUserChanges(long since, int limit) {
+        int pageSize = pageSize(limit);
+        long below = userChangeVersions.lowWaterMark();
+        List<UserChangeView> changed = userRepository.findChangesSince(since, below, PageRequest.of(0, pageSize));
+        List<UserTombstone> deleted = userTombstoneRepository.findChangesSince(since, below, PageRequest.of(0, pageSize));
+
+        // merge both by change version and cut at the page size, the last version taken is the new cursor
+        List<UserGetDTO> users = new ArrayList<>();
+        List<Long> deletedUserIds = new ArrayList<>();
+        long version = since;
+        int c = 0;
+        int d = 0;
+        while (c + d < pageSize && (c < changed.size() || d < deleted.size())) {
+            if (d == deleted.size() || (c < changed.size() && changed.get(c).getChangeVersion() < deleted.get(d).getChangeVersion())) {
+                UserChangeView user = changed.get(c++);
+                users.add(changeOf(user));
+                version = user.getChangeVersion();
+            }
+            else {
+                UserTombstone tombstone = deleted.get(d++);
+                deletedUserIds.add(tombstone.getUserId());
+                version = tombstone.getChangeVersion();
+            }
+        }
+        // the cut may fall into the users of one version, the cursor would skip the rest of them -> take them as well
+        boolean cutInVersion = c > 0 && changed.get(c - 1).getChangeVersion() == version
+                && (c < changed.size() ? changed.get(c).getChangeVersion() == version : changed.size() == pageSize);
+        if (cutInVersion) {
+            for (UserChangeView user : userRepository.findChangesOfVersion(version, changed.get(c - 1).getId())) users.add(changeOf(user));
+            while (c < changed.size() && changed.get(c).getChangeVersion() == version) c++;
+        }
+        boolean more = c < changed.size() || d < deleted.size() || changed.size() == pageSize || deleted.size() == pageSize;
+        return new UserChangesGetDTO(version, users, deletedUserIds, more);
+    }
+
+    private UserGetDTO changeOf(UserChangeView user) {
+        return mergePresence(new UserGetDTO(user.getId(), user.getUsername(), user.getStatus(), user.getAccountCreationDate(), user.getBirthday()));
+    }
+
+    public static int pageSize(int limit) {
+        return Math.max(1, Math.min(limit, MAX_PAGE_SIZE));
+    }
+
+    /**
+     * Hands every user to the given sink, one row at a time, in id order.
+     * Each user is detached right after the sink has consumed it, so memory use does not grow with the table size.
+     *
+     * @param sink receives each user while the underlying result set is still open
+     */
+    @ReplicaRead
+    public void exportUsers(Consumer<User> sink) {
+        try (Stream<User> users = userRepository.streamAllOrderedById()) {
+            users.forEach(user -> {
+                // entities are loaded read-only, the merged status is never written back
+                UserStatus status = presenceStore.get(user.getId());
+                if (status != null) user.setStatus(status);
+                sink.accept(user);
+                entityManager.detach(user);
+            });
+        }
+    }
+
+    /**
+     * Registers a single user. The password is hashed before the transaction starts, so no database connection is
+     * held while the hashing pool works on it.
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public User createUser(User newUser) {
-        newUser.setToken(UUID.randomUUID().toString());
-        newUser.setStatus(UserStatus.OFFLINE);
-        newUser.setAccountCreationDate(new Date());
-        newUser.setBirthday(null);
+        return UserOperationEvent.record(new UserRegistrationEvent(), () -> register(newUser), User::getId);
+    }
 
-        checkIfUserExists(newUser);
+    private User register(User newUser) {
+        prepareRegistration(newUser);
+        newUser.setPassword(passwordHasher.hash(newUser.getPassword()));
 
-        if (newUser.getPassword().equals("")||newUser.getUsername().equals("")) throw new IllegalRegistrationInput("Username and/or password can't consist of an empty string!");
+        User createdUser = transactionTemplate.execute(status -> {
+            // saves the given entity but data is only persisted in the database once flush() is called
+            // a taken username fails on the unique constraint, no SELECT beforehand
+            User savedUser = userRepository.save(newUser);
+            try {
+                userRepository.flush();
+            }
+            catch (DataIntegrityViolationException e) {
+                throw new UsernameAlreadyExists(String.format(NOT_UNIQUE_ERROR_MESSAGE, "username", "is"));
+            }
+            cacheSessionAfterCommit(savedUser);
+            eventPublisher.publishEvent(UserEvent.created(savedUser));
+            return savedUser;
+        });
+
+        log.debug("Created Information for User: {}", createdUser);
+        return createdUser;
+    }
+
+    /**
+     * Registers many users at once. The valid registrations are inserted in chunks of BATCH_SIZE, every chunk in its
+     * own transaction and as a single JDBC batch. If a chunk runs into the unique constraint it is rolled back and
+     * retried user by user, so that every registration still gets its own result.
+     *
+     * @param newUsers users to register, at most MAX_BATCH_SIZE
+     * @return one result per given user, in the same order
+     * @throws IllegalRegistrationInput if more than MAX_BATCH_SIZE users are given
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public List<RegistrationResult> createUsers(List<User> newUsers) {
+        if (newUsers.size() > MAX_BATCH_SIZE) {
+            throw new IllegalRegistrationInput(String.format("At most %d users can be registered at once!", MAX_BATCH_SIZE));
+        }
+
+        RegistrationResult[] results = new RegistrationResult[newUsers.size()];
+        Set<String> usernames = new HashSet<>();
+        List<Integer> chunk = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < newUsers.size(); i++) {
+            User newUser = newUsers.get(i);
+            try {
+                prepareRegistration(newUser);
+            }
+            catch (IllegalRegistrationInput e) {
+                results[i] = RegistrationResult.failed(e.getMessage());
+                continue;
+            }
+            if (!usernames.add(newUser.getUsername())) {
+                results[i] = RegistrationResult.failed(String.format(NOT_UNIQUE_ERROR_MESSAGE, "username", "is"));
+                continue;
+            }
 
-        // saves the given entity but data is only persisted in the database once flush() is called
-        newUser = userRepository.save(newUser);
-        userRepository.flush();
+            chunk.add(i);
+            if (chunk.size() == BATCH_SIZE) {
+                insertChunk(newUsers, chunk, results);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) insertChunk(newUsers, chunk, results);
 
-        log.debug("Created Information for User: {}", newUser);
-        return newUser;
+        log.debug("Bulk registration of {} users finished", newUsers.size());
+        return Arrays.asList(results);
     }
 
+    /**
+     * Checks the credentials and moves the user from OFFLINE to ONLINE in the PresenceStore, one of concurrent logins
+     * wins. Runs without a transaction, so no connection is held while the password is verified. An outdated password
+     * is rehashed afterwards; with signed session tokens every login issues a new token.
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public User loginUser(User potUser){
+        return UserOperationEvent.record(new UserLoginEvent(), () -> login(potUser), User::getId);
+    }
+
+    private User login(User potUser) {
         User user= userRepository.findByUsername(potUser.getUsername());
         if (user==null) throw new UserCredentialsWrong(String.format("No user with this username exists."));
-        else if (user.getPassword().equals(potUser.getPassword())) {
-            if (user.getStatus().equals(UserStatus.OFFLINE)) {
-                user.setStatus(UserStatus.ONLINE);
-                return user;
-            }
-            else throw new UserAlreadyLoggedIn();
-        }
-        else throw new UserCredentialsWrong(String.format("Incorrect password."));
+        else if (!passwordHasher.verify(potUser.getPassword(), user.getPassword())) throw new UserCredentialsWrong(String.format("Incorrect password."));
+        else if (!startSession(user)) throw new UserAlreadyLoggedIn();
+
+        sessionExpiry.started(user.getId());
+        eventPublisher.publishEvent(UserEvent.loggedIn(user.getId()));
+        user.setStatus(UserStatus.ONLINE);
+        if (!sessionTokens.isSigned()) cacheSessionAfterCommit(user);
+        if (passwordHasher.needsRehash(user.getPassword())) migratePassword(user, potUser.getPassword());
+        return user;
     }
 
     public void logOutUser(User userInput){
-        User user= userRepository.findByToken(userInput.getToken());
-        if (user==null) throw new UserNotAvailable("No user with same token as your session exists.");
-        else if (user.getStatus().equals(UserStatus.ONLINE)) {
-            user.setStatus(UserStatus.OFFLINE);
+        UserOperationEvent.record(new UserLogoutEvent(), () -> logOut(userInput), Long::longValue);
+    }
+
+    /**
+     * @return the id of the user that was logged out
+     */
+    private long logOut(User userInput) {
+        if (sessionTokens.isSigned()) return endSignedSession(userInput.getToken());
+
+        long userId = userIdOfToken(userInput.getToken());
+        boolean loggedOut = presenceStore.transition(userId, () -> storedStatus(userId), UserStatus.ONLINE, UserStatus.OFFLINE);
+        // offline either way: by this call or already before
+        tokenCache.put(userInput.getToken(), userId, UserStatus.OFFLINE);
+        if (!loggedOut) throw new UserAlreadyLoggedOut();
+        sessionExpiry.ended(userId);
+        eventPublisher.publishEvent(UserEvent.loggedOut(userId));
+        return userId;
+    }
+
+    /**
+     * Keeps the session of the token from expiring while the client is idle.
+     */
+    @Transactional(readOnly = true)
+    public void heartbeat(User userInput) {
+        long userId;
+        if (sessionTokens.isSigned()) {
+            SessionTokens.Claims claims = sessionTokens.verify(userInput.getToken());
+            if (claims == null) throw new UserNotAvailable("No user with same token as your session exists.");
+            if (!sessionTokens.isCurrent(claims, () -> storedToken(claims.getUserId()))) throw new UserCredentialsWrong("Your session has expired, please log in again.");
+            userId = claims.getUserId();
         }
-        else throw new UserAlreadyLoggedOut();
+        else userId = userIdOfToken(userInput.getToken());
+
+        if (!sessionExpiry.touch(userId)) throw new UserCredentialsWrong("Your session has expired, please log in again.");
     }
 
     public User getUser (User userInput){
@@ -85,16 +345,89 @@ public class UserService {
 
     }
 
+    /**
+     * Served from the second-level cache once the user has been loaded, the database is only read on a miss.
+     */
+    @ReplicaRead
+    public UserGetDTO getUserProfile(User userInput) {
+        Optional<User> userOp = this.userRepository.findById(userInput.getId());
+        if (userOp.isEmpty()) throw new UserNotAvailable("No user with this id exists, that can be fetched.");
+        return mergePresence(DTOMapper.INSTANCE.convertEntityToUserGetDTO(userOp.get()));
+    }
+
+    /**
+     * Returns the strong ETag of the user's profile: the version of the row and the current status, which is taken
+     * from the PresenceStore where it is newer than the row. Both are read from the cache entry or with a projection,
+     * a 304 never hydrates the user. Must be read before the profile: a change in between only makes the tag older
+     * than the response.
+     */
+    @ReplicaRead
+    public String getUserETag(User userInput) {
+        Optional<UserVersionView> versionOp = this.userRepository.findVersionById(userInput.getId());
+        if (versionOp.isEmpty()) throw new UserNotAvailable("No user with this id exists, that can be fetched.");
+        return userETag(userInput.getId(), versionOp.get().getVersion(), versionOp.get().getStatus());
+    }
+
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public void updateUser (User user, String userId){
-        Optional<User> userOp =this.userRepository.findById(Long.parseLong(userId));
+        updateUser(user, userId, null);
+    }
+
+    /**
+     * Changes the username and/or birthday. The row is only written if its version is still the one that was read.
+     * A write that loses against a concurrent one is run again on the new state in a fresh transaction (see
+     * OptimisticRetry). With If-Match the client's copy is stale at that point, it gets UserVersionMismatch instead.
+     * With users.update.locking=PESSIMISTIC the user is read with SELECT ... FOR UPDATE and writers wait in line.
+     *
+     * @param ifMatch ETags the client has seen (If-Match header), the update is rejected if none of them is current;
+     *                null updates unconditionally
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void updateUser (User user, String userId, String ifMatch){
+        long id = Long.parseLong(userId);
+        UserOperationEvent.record(new UserUpdateEvent(), id, () -> update(user, id, ifMatch));
+    }
+
+    private void update(User user, long id, String ifMatch) {
+        // a signed token is checked in memory, before the user is loaded
+        if (sessionTokens.isSigned()) checkSignedSession(user.getToken(), id);
+
+        if (ifMatch == null) writeRetrying(() -> applyUpdate(user, id, null));
+        else {
+            try {
+                transactionTemplate.execute(status -> applyUpdate(user, id, ifMatch));
+            }
+            catch (OptimisticLockingFailureException e) {
+                throw new UserVersionMismatch("The user has been changed in the meantime, please reload it.");
+            }
+        }
+    }
+
+    private User applyUpdate(User user, long id, String ifMatch) {
+        Optional<User> userOp = loadForWrite(id);
         if (userOp.isEmpty()) throw new UserNotAvailable("No user with specified ID exists.");
-        else if (userOp.get().getToken().equals(user.getToken())) {
-            if (user.getUsername()!=null) {
-                if (user.getUsername().equals(userOp.get().getUsername()));
-                else if (this.userRepository.findByUsername(user.getUsername())!=null) throw new UsernameAlreadyExists("Username is already in use!");
-                else userOp.get().setUsername(user.getUsername());
+        else if (sessionTokens.isSigned() || userOp.get().getToken().equals(user.getToken())) {
+            sessionExpiry.touch(userOp.get().getId());
+            if (ifMatch != null && !matchesETag(ifMatch, userETag(id, userOp.get().getVersion(), userOp.get().getStatus()))) {
+                throw new UserVersionMismatch("The user has been changed in the meantime, please reload it.");
+            }
+            boolean renamed = user.getUsername()!=null && !user.getUsername().equals(userOp.get().getUsername());
+            boolean birthdayChanged = user.getBirthday()!=null && !user.getBirthday().equals(userOp.get().getBirthday());
+            if (renamed) userOp.get().setUsername(user.getUsername());
+            if (birthdayChanged) userOp.get().setBirthday(user.getBirthday());
+            if (renamed) {
+                // flush the UPDATE right away so a taken username is reported by the unique constraint
+                try {
+                    userRepository.flush();
+                }
+                catch (DataIntegrityViolationException e) {
+                    throw new UsernameAlreadyExists("Username is already in use!");
+                }
+                tokenCache.invalidate(userOp.get().getToken());
+                eventPublisher.publishEvent(UserEvent.renamed(userOp.get()));
             }
-            if (user.getBirthday() !=null) userOp.get().setBirthday(user.getBirthday());
+            if (birthdayChanged) eventPublisher.publishEvent(UserEvent.birthdayChanged(userOp.get()));
+            return userOp.get();
         }
         else throw new UserCredentialsWrong("You are not authorized to change this user, since tokens do not match.");
     }
@@ -102,20 +435,232 @@ public class UserService {
 
 
     /**
-     * This is a helper method that will check the uniqueness criteria of the username and the name
-     * defined in the User entity. The method will do nothing if the input is unique and throw an error otherwise.
+     * Deletes the user and leaves a tombstone for clients that sync with getUserChanges.
+     * The delete is version-checked like an update; the in-memory state of the user is only dropped once it committed.
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public void deleteUser(User user, String userId) {
+        long id = Long.parseLong(userId);
+        if (sessionTokens.isSigned()) checkSignedSession(user.getToken(), id);
+
+        User deletedUser = writeRetrying(() -> {
+            Optional<User> userOp = loadForWrite(id);
+            if (userOp.isEmpty()) throw new UserNotAvailable("No user with specified ID exists.");
+            else if (!sessionTokens.isSigned() && !userOp.get().getToken().equals(user.getToken())) {
+                throw new UserCredentialsWrong("You are not authorized to delete this user, since tokens do not match.");
+            }
+
+            userRepository.delete(userOp.get());
+            userTombstoneRepository.save(new UserTombstone(userChangeVersions.next(), id));
+            eventPublisher.publishEvent(UserEvent.deleted(id));
+            return userOp.get();
+        });
+        tokenCache.invalidate(deletedUser.getToken());
+        sessionExpiry.ended(id);
+        presenceStore.forget(id);
+    }
+
+    /**
+     * Runs the write in its own transaction and again, up to the limit of OptimisticRetry, while it conflicts with
+     * concurrent writes of the same user.
+     */
+    private <T> T writeRetrying(Supplier<T> write) {
+        try {
+            return optimisticRetry.run(() -> transactionTemplate.execute(status -> write.get()));
+        }
+        catch (OptimisticLockingFailureException e) {
+            throw new UserUpdateConflict("The user is being changed by someone else at the moment, please try again.");
+        }
+    }
+
+    private Optional<User> loadForWrite(long id) {
+        if (updateLocking == UpdateLocking.PESSIMISTIC) return userRepository.findByIdForUpdate(id);
+        return userRepository.findById(id);
+    }
+
+    /**
+     * Moves the user from OFFLINE to ONLINE; with signed session tokens the winner stores a new token.
      *
-     * @param userToBeCreated
-     * @throws UsernameAlreadyExists
-     * @see User
+     * @return false if the user is already online
      */
-    private void checkIfUserExists(User userToBeCreated) {
-        User userByUsername = userRepository.findByUsername(userToBeCreated.getUsername());
+    private boolean startSession(User user) {
+        if (!presenceStore.transition(user.getId(), () -> storedStatus(user.getId()), UserStatus.OFFLINE, UserStatus.ONLINE)) return false;
+        if (sessionTokens.isSigned()) {
+            String token = sessionTokens.issue(user.getId(), sessionTokens.currentGeneration(user.getId(), user::getToken));
+            userRepository.replaceToken(user.getId(), token);
+            user.setToken(token);
+        }
+        return true;
+    }
+
+    /**
+     * Logs out the session of a signed token: the token is verified and checked against the revocation generation in
+     * memory, then the generation is bumped. The token stored in the database is replaced by one of the next
+     * generation, so the revocation survives a restart as well.
+     *
+     * @return the id of the user that was logged out
+     */
+    private long endSignedSession(String token) {
+        SessionTokens.Claims claims = sessionTokens.verify(token);
+        if (claims == null) throw new UserNotAvailable("No user with same token as your session exists.");
+        if (!sessionTokens.isCurrent(claims, () -> storedToken(claims.getUserId()))) throw new UserAlreadyLoggedOut();
+
+        if (!presenceStore.transition(claims.getUserId(), () -> storedStatus(claims.getUserId()), UserStatus.ONLINE, UserStatus.OFFLINE)) {
+            throw new UserAlreadyLoggedOut();
+        }
+        userRepository.replaceToken(claims.getUserId(), sessionTokens.issue(claims.getUserId(), claims.getGeneration() + 1));
+        sessionTokens.revoke(claims.getUserId(), claims.getGeneration());
+        sessionExpiry.ended(claims.getUserId());
+        eventPublisher.publishEvent(UserEvent.loggedOut(claims.getUserId()));
+        return claims.getUserId();
+    }
 
-        String baseErrorMessage = "The %s provided %s not unique. Therefore, the user could not be created!";
-        if (userByUsername != null) {
-            throw new UsernameAlreadyExists(String.format(baseErrorMessage, "username", "is"));
+    private void checkSignedSession(String token, long userId) {
+        SessionTokens.Claims claims = sessionTokens.verify(token);
+        if (claims == null || claims.getUserId() != userId || !sessionTokens.isCurrent(claims, () -> storedToken(userId))) {
+            throw new UserCredentialsWrong("You are not authorized to change this user, since tokens do not match.");
         }
+    }
 
+    private UserGetDTO mergePresence(UserGetDTO user) {
+        UserStatus status = presenceStore.get(user.getId());
+        if (status != null) user.setStatus(status);
+        return user;
+    }
+
+    private String userETag(long userId, long version, UserStatus storedStatus) {
+        UserStatus status = presenceStore.get(userId);
+        return "\"" + version + "." + (status != null ? status : storedStatus).name() + "\"";
+    }
+
+    /**
+     * Strong comparison as required for If-Match: weak tags never match, * matches every existing user.
+     */
+    private static boolean matchesETag(String ifMatch, String eTag) {
+        for (String tag : ifMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.equals("*") || tag.equals(eTag)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Resolves an opaque session token, from the token cache if possible.
+     */
+    private long userIdOfToken(String token) {
+        TokenCache.Entry session = tokenCache.get(token);
+        if (session != null) return session.getUserId();
+        User user= userRepository.findByToken(token);
+        if (user==null) throw new UserNotAvailable("No user with same token as your session exists.");
+        return user.getId();
+    }
+
+    /**
+     * Reads the status from the database instead of using an already loaded entity: the PresenceStore only asks for
+     * users it does not know (anymore), and a flush may have written a newer status since the entity was loaded.
+     */
+    private UserStatus storedStatus(long userId) {
+        return userRepository.findStatusById(userId);
+    }
+
+    private String storedToken(long userId) {
+        return userRepository.findById(userId).map(User::getToken).orElse(null);
+    }
+
+    /**
+     * Rejects missing fields up front: the insert would fail on a NOT NULL column, and every constraint violation of
+     * a registration is reported as a taken username.
+     */
+    private void prepareRegistration(User newUser) {
+        if (newUser.getUsername() == null || newUser.getPassword() == null) {
+            throw new IllegalRegistrationInput("Username and password are required!");
+        }
+        newUser.setToken(UUID.randomUUID().toString());
+        newUser.setStatus(UserStatus.OFFLINE);
+        newUser.setAccountCreationDate(new Date());
+        newUser.setBirthday(null);
+
+        if ("".equals(newUser.getPassword()) || "".equals(newUser.getUsername())) {
+            throw new IllegalRegistrationInput("Username and/or password can't consist of an empty string!");
+        }
+    }
+
+    private void insertChunk(List<User> newUsers, List<Integer> chunk, RegistrationResult[] results) {
+        List<User> users = new ArrayList<>(chunk.size());
+        List<String> passwords = new ArrayList<>(chunk.size());
+        for (int index : chunk) {
+            users.add(newUsers.get(index));
+            passwords.add(newUsers.get(index).getPassword());
+        }
+
+        // the whole chunk is hashed in parallel on the hashing pool before its transaction starts
+        List<String> hashes;
+        try {
+            hashes = passwordHasher.hashAll(passwords);
+        }
+        catch (ServerBusy e) {
+            for (int index : chunk) results[index] = RegistrationResult.failed(e.getMessage());
+            return;
+        }
+        for (int i = 0; i < users.size(); i++) users.get(i).setPassword(hashes.get(i));
+
+        try {
+            transactionTemplate.execute(status -> {
+                userRepository.saveAll(users);
+                userRepository.flush();
+                users.forEach(user -> eventPublisher.publishEvent(UserEvent.created(user)));
+                return null;
+            });
+            for (int index : chunk) results[index] = RegistrationResult.created(newUsers.get(index));
+        }
+        catch (DataIntegrityViolationException e) {
+            // at least one username is taken -> the chunk was rolled back, register its users one by one
+            for (int i = 0; i < users.size(); i++) {
+                User newUser = users.get(i);
+                newUser.setId(null);
+                newUser.setPassword(passwords.get(i));
+                try {
+                    results[chunk.get(i)] = RegistrationResult.created(createUser(newUser));
+                }
+                catch (UsernameAlreadyExists | IllegalRegistrationInput | ServerBusy e2) {
+                    results[chunk.get(i)] = RegistrationResult.failed(e2.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces a legacy plaintext password (or an outdated hash) by a fresh hash. The login has already succeeded at
+     * this point, so a saturated hashing pool only postpones the migration to the next login.
+     */
+    private void migratePassword(User user, String password) {
+        try {
+            String hash = passwordHasher.hash(password);
+            if (userRepository.replacePassword(user.getId(), user.getPassword(), hash) == 1) user.setPassword(hash);
+        }
+        catch (ServerBusy e) {
+            log.debug("Postponed the password migration of user {}", user.getId());
+        }
+    }
+
+    /**
+     * Drops the cached session of the user right away and caches its new state once the surrounding transaction
+     * has committed, so a rolled back write never leaves a wrong status in the cache.
+     */
+    private void cacheSessionAfterCommit(User user) {
+        cacheSessionAfterCommit(user.getToken(), user.getId(), user.getStatus());
+    }
+
+    private void cacheSessionAfterCommit(String token, Long userId, UserStatus status) {
+        tokenCache.invalidate(token);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCommit() {
+                    tokenCache.put(token, userId, status);
+                }
+            });
+        }
+        else tokenCache.put(token, userId, status);
     }
 }
@@ -4,32 +4,50 @@ import ch.uzh.ifi.seal.soprafs20.constant.UserStatus;
 import ch.uzh.ifi.seal.soprafs20.entity.User;
 import ch.uzh.ifi.seal.soprafs20.exceptions.*;
 import ch.uzh.ifi.seal.soprafs20.repository.UserRepository;
+import ch.uzh.ifi.seal.soprafs20.rest.dto.UserChangesGetDTO;
+import ch.uzh.ifi.seal.soprafs20.rest.dto.UserGetDTO;
 import ch.uzh.ifi.seal.soprafs20.rest.dto.UserPostDTO;
 import ch.uzh.ifi.seal.soprafs20.rest.dto.UserPutDTO;
 import ch.uzh.ifi.seal.soprafs20.rest.dto.UserPutUserIdDTO;
 import ch.uzh.ifi.seal.soprafs20.rest.dto.UserTokenDTO;
+import ch.uzh.ifi.seal.soprafs20.service.RegistrationResult;
+import ch.uzh.ifi.seal.soprafs20.service.UserDirectoryVersion;
+import ch.uzh.ifi.seal.soprafs20.service.UserEventBroadcaster;
 import ch.uzh.ifi.seal.soprafs20.service.UserService;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
 
 import static org.hamcrest.Matchers.hasSize;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doThrow;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 /**
@@ -38,6 +56,7 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
  * This tests if the UserController works.
  */
 @WebMvcTest(UserController.class)
+@Import(UserListCache.class)
 public class UserControllerTest {
 
     @Autowired
@@ -48,17 +67,30 @@ public class UserControllerTest {
 
     @MockBean UserRepository userRepository;
 
+    @MockBean
+    private UserEventBroadcaster userEventBroadcaster;
+
+    @MockBean
+    private UserDirectoryVersion userDirectoryVersion;
+
+    @BeforeEach
+    public void setup() {
+        // given -> no directory version, the list pages of one test are never served to another
+        given(userDirectoryVersion.getVersion()).willReturn(-1L);
+    }
+
     @Test
     public void givenUsers_whenGetUsers_thenReturnJsonArray() throws Exception {
         // given
-        User user = new User();
+        UserGetDTO user = new UserGetDTO();
+        user.setId(1L);
         user.setUsername("firstname@lastname");
         user.setStatus(UserStatus.OFFLINE);
 
-        List<User> allUsers = Collections.singletonList(user);
+        List<UserGetDTO> allUsers = Collections.singletonList(user);
 
         // this mocks the UserService -> we define above what the userService should return when getUsers() is called
-        given(userService.getUsers()).willReturn(allUsers);
+        given(userService.getUsers(Mockito.anyLong(), Mockito.anyInt())).willReturn(allUsers);
 
         // when
         MockHttpServletRequestBuilder getRequest = get("/users").contentType(MediaType.APPLICATION_JSON);
@@ -67,7 +99,57 @@ public class UserControllerTest {
         mockMvc.perform(getRequest).andExpect(status().isOk())
                 .andExpect(jsonPath("$", hasSize(1)))
                 .andExpect(jsonPath("$[0].username", is(user.getUsername())))
-                .andExpect(jsonPath("$[0].status", is(user.getStatus().toString())));
+                .andExpect(jsonPath("$[0].status", is(user.getStatus().toString())))
+                .andExpect(header().doesNotExist(UserController.NEXT_CURSOR_HEADER));
+    }
+
+    @Test
+    public void givenFullPage_whenGetUsers_thenReturnNextCursor() throws Exception {
+        // given
+        UserGetDTO user = new UserGetDTO(42L, "firstname@lastname", UserStatus.OFFLINE, new Date(), null);
+
+        given(userService.getUsers(7L, 1)).willReturn(Collections.singletonList(user));
+
+        // when
+        MockHttpServletRequestBuilder getRequest = get("/users").param("after", "7").param("limit", "1");
+
+        // then -> the page is full, so the id of the last user is the cursor for the next page
+        mockMvc.perform(getRequest).andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(header().string(UserController.NEXT_CURSOR_HEADER, "42"));
+    }
+
+    @Test
+    public void givenUsers_whenExportUsers_thenReturnOneJsonLinePerUser() throws Exception {
+        // given
+        User user1 = new User();
+        user1.setId(1L);
+        user1.setUsername("first");
+        user1.setStatus(UserStatus.OFFLINE);
+        User user2 = new User();
+        user2.setId(2L);
+        user2.setUsername("second");
+        user2.setStatus(UserStatus.ONLINE);
+
+        // the service hands each user to the sink of the controller
+        doAnswer(invocation -> {
+            Consumer<User> sink = invocation.getArgument(0);
+            sink.accept(user1);
+            sink.accept(user2);
+            return null;
+        }).when(userService).exportUsers(Mockito.any());
+
+        // when
+        MockHttpServletRequestBuilder getRequest = get("/users/export");
+
+        // then
+        String body = mockMvc.perform(getRequest).andExpect(status().isOk())
+                .andExpect(header().string("Content-Type", startsWith(UserController.APPLICATION_NDJSON_VALUE)))
+                .andReturn().getResponse().getContentAsString();
+        String[] lines = body.split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].contains("\"username\":\"first\""));
+        assertTrue(lines[1].contains("\"username\":\"second\""));
     }
 
     @Test
@@ -117,6 +199,38 @@ public class UserControllerTest {
                 .andExpect(status().isConflict());
     }
 
+    @Test
+    public void createUsers_batch_reportsEveryRegistration() throws Exception {
+        // given
+        User user = new User();
+        user.setId(1L);
+        user.setUsername("testUsername");
+        user.setStatus(UserStatus.OFFLINE);
+
+        UserPostDTO userPostDTO = new UserPostDTO();
+        userPostDTO.setUsername("testUsername");
+        userPostDTO.setPassword("testPassword");
+        UserPostDTO userPostDTO2 = new UserPostDTO();
+        userPostDTO2.setUsername("takenUsername");
+        userPostDTO2.setPassword("testPassword");
+
+        given(userService.createUsers(Mockito.any())).willReturn(List.of(
+                RegistrationResult.created(user), RegistrationResult.failed("Username is already in use!")));
+
+        // when/then -> do the request + validate the result
+        MockHttpServletRequestBuilder postRequest = post("/users/batch")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(asJsonString(List.of(userPostDTO, userPostDTO2)));
+
+        // then
+        mockMvc.perform(postRequest)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(2)))
+                .andExpect(jsonPath("$[0].user.id", is(1)))
+                .andExpect(jsonPath("$[0].user.username", is(user.getUsername())))
+                .andExpect(jsonPath("$[1].error", is("Username is already in use!")));
+    }
+
     @Test
     public void createUser_InvalidInput() throws Exception {
         // given
@@ -255,6 +369,96 @@ public class UserControllerTest {
                 .andExpect(status().isNoContent());
     }
 
+    @Test
+    public void getUserChanges_returnsDeltaSinceVersion() throws Exception {
+        // given
+        UserGetDTO user = new UserGetDTO();
+        user.setId(1L);
+        user.setUsername("firstname@lastname");
+        user.setStatus(UserStatus.ONLINE);
+        given(userService.getUserChanges(41L, 100)).willReturn(new UserChangesGetDTO(45L, List.of(user), List.of(2L), false));
+
+        // when/then -> do the request + validate the result
+        MockHttpServletRequestBuilder getRequest = get("/users/changes").param("since", "41");
+
+        // then
+        mockMvc.perform(getRequest)
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.version", is(45)))
+                .andExpect(jsonPath("$.users", hasSize(1)))
+                .andExpect(jsonPath("$.users[0].username", is(user.getUsername())))
+                .andExpect(jsonPath("$.deletedUserIds[0]", is(2)))
+                .andExpect(jsonPath("$.more", is(false)));
+    }
+
+    @Test
+    public void deleteUser_validToken() throws Exception {
+        // given
+        UserTokenDTO userTokenDTO = new UserTokenDTO();
+        userTokenDTO.setToken("testToken");
+
+        // when/then -> do the request + validate the result
+        MockHttpServletRequestBuilder deleteRequest = delete("/users/1")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(asJsonString(userTokenDTO));
+
+        // then
+        mockMvc.perform(deleteRequest)
+                .andExpect(status().isNoContent());
+        Mockito.verify(userService).deleteUser(Mockito.argThat(user -> "testToken".equals(user.getToken())), Mockito.eq("1"));
+    }
+
+    @Test
+    public void streamUserEvents_resumesFromLastEventId() throws Exception {
+        // given
+        given(userEventBroadcaster.subscribe("epoch-42")).willReturn(new SseEmitter());
+
+        // when/then -> do the request + validate the result
+        MockHttpServletRequestBuilder getRequest = get("/users/events")
+                .header("Last-Event-ID", "epoch-42")
+                .accept(MediaType.TEXT_EVENT_STREAM);
+
+        // then
+        mockMvc.perform(getRequest)
+                .andExpect(request().asyncStarted());
+        Mockito.verify(userEventBroadcaster).subscribe("epoch-42");
+    }
+
+    @Test
+    public void heartbeat_openSession() throws Exception {
+        // given
+        UserTokenDTO userTokenDTO = new UserTokenDTO();
+        userTokenDTO.setToken("testToken");
+
+        // when/then -> do the request + validate the result
+        MockHttpServletRequestBuilder putRequest = put("/heartbeat")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(asJsonString(userTokenDTO));
+
+        // then
+        mockMvc.perform(putRequest)
+                .andExpect(status().isNoContent());
+        Mockito.verify(userService).heartbeat(Mockito.argThat(user -> "testToken".equals(user.getToken())));
+    }
+
+    @Test
+    public void heartbeat_expiredSession() throws Exception {
+        // given
+        UserTokenDTO userTokenDTO = new UserTokenDTO();
+        userTokenDTO.setToken("testToken");
+
+        doThrow(new UserCredentialsWrong("Your session has expired, please log in again.")).when(userService).heartbeat(Mockito.any());
+
+        // when/then -> do the request + validate the result
+        MockHttpServletRequestBuilder putRequest = put("/heartbeat")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(asJsonString(userTokenDTO));
+
+        // then
+        mockMvc.perform(putRequest)
+                .andExpect(status().isUnauthorized());
+    }
+
     @Test
     public void update_validInput() throws Exception {
         // given
@@ -282,7 +486,7 @@ public class UserControllerTest {
         userPutUserIdDTO.setUsername("testUsername");
         userPutUserIdDTO.setBirthday(new Date());
 
-        doThrow(new UserNotAvailable("No user with this userId exists.")).when(userService).updateUser(Mockito.any(),Mockito.any());
+        doThrow(new UserNotAvailable("No user with this userId exists.")).when(userService).updateUser(Mockito.any(),Mockito.any(),Mockito.any());
 
         // when/then -> do the request + validate the result
         MockHttpServletRequestBuilder postRequest = put("/users/{userId}",1)
@@ -302,7 +506,7 @@ public class UserControllerTest {
         userPutUserIdDTO.setUsername("testUsername");
         userPutUserIdDTO.setBirthday(new Date());
 
-        doThrow(new UserCredentialsWrong("You are not authorized to change profile attributes with your token!")).when(userService).updateUser(Mockito.any(),Mockito.any());
+        doThrow(new UserCredentialsWrong("You are not authorized to change profile attributes with your token!")).when(userService).updateUser(Mockito.any(),Mockito.any(),Mockito.any());
 
         // when/then -> do the request + validate the result
         MockHttpServletRequestBuilder postRequest = put("/users/{userId}",1)
@@ -322,7 +526,7 @@ public class UserControllerTest {
         userPutUserIdDTO.setUsername("testUsername");
         userPutUserIdDTO.setBirthday(new Date());
 
-        doThrow(new UsernameAlreadyExists("Username is not unique!")).when(userService).updateUser(Mockito.any(),Mockito.any());
+        doThrow(new UsernameAlreadyExists("Username is not unique!")).when(userService).updateUser(Mockito.any(),Mockito.any(),Mockito.any());
 
         // when/then -> do the request + validate the result
         MockHttpServletRequestBuilder postRequest = put("/users/{userId}",1)
@@ -339,14 +543,14 @@ public class UserControllerTest {
     @Test
     public void getUser_UserIdExists() throws Exception {
         // given
-        User user= new User();
+        UserGetDTO user = new UserGetDTO();
         user.setAccountCreationDate(new Date());
         user.setBirthday(new Date());
         user.setUsername("test");
         user.setId(1L);
         user.setStatus(UserStatus.ONLINE);
 
-        given(userService.getUser(Mockito.any())).willReturn(user);
+        given(userService.getUserProfile(Mockito.any())).willReturn(user);
 
         // when/then -> do the request + validate the result
         MockHttpServletRequestBuilder postRequest = get("/users/{userId}", 1);
@@ -359,10 +563,145 @@ public class UserControllerTest {
                 .andExpect(jsonPath("status", is(user.getStatus().toString())));
     }
 
+    @Test
+    public void getUser_unchanged_notModified() throws Exception {
+        // given
+        given(userService.getUserETag(Mockito.any())).willReturn("\"42\"");
+
+        // when/then -> do the request + validate the result
+        MockHttpServletRequestBuilder getRequest = get("/users/{userId}", 1).header("If-None-Match", "\"42\"");
+
+        // then
+        mockMvc.perform(getRequest)
+                .andExpect(status().isNotModified())
+                .andExpect(header().string("ETag", "\"42\""));
+//    make sure the profile itself is not read
+        Mockito.verify(userService, Mockito.never()).getUserProfile(Mockito.any());
+    }
+
+    @Test
+    public void getUser_changed_returnsNewETag() throws Exception {
+        // given
+        UserGetDTO user = new UserGetDTO();
+        user.setId(1L);
+        user.setUsername("test");
+        user.setStatus(UserStatus.OFFLINE);
+        given(userService.getUserETag(Mockito.any())).willReturn("\"43\"");
+        given(userService.getUserProfile(Mockito.any())).willReturn(user);
+
+        // when/then -> do the request + validate the result
+        MockHttpServletRequestBuilder getRequest = get("/users/{userId}", 1).header("If-None-Match", "\"42\"");
+
+        // then
+        mockMvc.perform(getRequest)
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"43\""))
+                .andExpect(jsonPath("username", is(user.getUsername())));
+    }
+
+    @Test
+    public void getUsers_unchanged_notModified() throws Exception {
+        // given
+        given(userDirectoryVersion.getVersion()).willReturn(7L);
+        given(userDirectoryVersion.eTagOf(7L)).willReturn("\"k1.7\"");
+
+        // when/then -> do the request + validate the result
+        MockHttpServletRequestBuilder getRequest = get("/users").header("If-None-Match", "\"k1.7\"");
+
+        // then
+        mockMvc.perform(getRequest)
+                .andExpect(status().isNotModified());
+        Mockito.verify(userService, Mockito.never()).getUsers(Mockito.anyLong(), Mockito.anyInt());
+    }
+
+    @Test
+    public void getUsers_acceptsGzip_compressedBody() throws Exception {
+        // given
+        UserGetDTO user = new UserGetDTO();
+        user.setId(1L);
+        user.setUsername("firstname@lastname");
+        user.setStatus(UserStatus.OFFLINE);
+        given(userService.getUsers(Mockito.anyLong(), Mockito.anyInt())).willReturn(Collections.singletonList(user));
+
+        // when
+        MockHttpServletRequestBuilder getRequest = get("/users").header("Accept-Encoding", "br, gzip;q=0.8");
+
+        // then
+        byte[] body = mockMvc.perform(getRequest)
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Encoding", "gzip"))
+                .andExpect(header().string("Vary", "Accept-Encoding"))
+                .andReturn().getResponse().getContentAsByteArray();
+        String json;
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(body))) {
+            json = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        assertTrue(json.contains("\"username\":\"firstname@lastname\""));
+    }
+
+    @Test
+    public void getUsers_gzipAndIdentity_distinctETags() throws Exception {
+        // given
+        given(userDirectoryVersion.getVersion()).willReturn(7L);
+        given(userDirectoryVersion.eTagOf(7L)).willReturn("\"k1.7\"");
+        given(userService.getUsers(Mockito.anyLong(), Mockito.anyInt())).willReturn(Collections.emptyList());
+
+//    make sure each coding carries its own tag and only revalidates against it
+        mockMvc.perform(get("/users"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"k1.7\""));
+        mockMvc.perform(get("/users").header("Accept-Encoding", "gzip"))
+                .andExpect(status().isOk())
+                .andExpect(header().string("ETag", "\"k1.7-gzip\""));
+        mockMvc.perform(get("/users").header("Accept-Encoding", "gzip").header("If-None-Match", "\"k1.7\""))
+                .andExpect(status().isOk())
+                .andExpect(header().string("Content-Encoding", "gzip"));
+        mockMvc.perform(get("/users").header("Accept-Encoding", "gzip").header("If-None-Match", "\"k1.7-gzip\""))
+                .andExpect(status().isNotModified());
+        mockMvc.perform(get("/users").header("If-None-Match", "\"k1.7-gzip\""))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist("Content-Encoding"));
+    }
+
+    @Test
+    public void getUsers_gzipRefused_plainBody() throws Exception {
+        // given
+        given(userService.getUsers(Mockito.anyLong(), Mockito.anyInt())).willReturn(Collections.emptyList());
+
+        // when
+        MockHttpServletRequestBuilder getRequest = get("/users").header("Accept-Encoding", "gzip;q=0");
+
+        // then
+        mockMvc.perform(getRequest)
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist("Content-Encoding"))
+                .andExpect(jsonPath("$", hasSize(0)));
+    }
+
+    @Test
+    public void update_staleIfMatch_preconditionFailed() throws Exception {
+        // given
+        UserPutUserIdDTO userPutUserIdDTO = new UserPutUserIdDTO();
+        userPutUserIdDTO.setToken("test");
+        userPutUserIdDTO.setUsername("testUsername");
+
+        doThrow(new UserVersionMismatch("The user has been changed in the meantime, please reload it.")).when(userService).updateUser(Mockito.any(),Mockito.eq("1"),Mockito.eq("\"41\""));
+
+        // when/then -> do the request + validate the result
+        MockHttpServletRequestBuilder putRequest = put("/users/{userId}",1)
+                .header("If-Match", "\"41\"")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(asJsonString(userPutUserIdDTO));
+
+        // then
+        mockMvc.perform(putRequest)
+                .andExpect(status().isPreconditionFailed());
+    }
+
     @Test
     public void getUser_UserIdDoesNotExists() throws Exception {
         // given
-        given(userService.getUser(Mockito.any())).willThrow(new UserNotAvailable("No User with this id available!"));
+        given(userService.getUserProfile(Mockito.any())).willThrow(new UserNotAvailable("No User with this id available!"));
 
         // when/then -> do the request + validate the result
         MockHttpServletRequestBuilder postRequest = get("/users/{userId}", 1);
@@ -0,0 +1,133 @@
+package ch.uzh.ifi.seal.soprafs20.controller;
+
+import ch.uzh.ifi.seal.soprafs20.constant.UserStatus;
+import ch.uzh.ifi.seal.soprafs20.rest.dto.UserGetDTO;
+import ch.uzh.ifi.seal.soprafs20.service.UserService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.BDDMockito.given;
+
+public class UserListCacheTest {
+
+    private UserService userService;
+
+    private UserListCache userListCache;
+
+    @BeforeEach
+    public void setup() {
+        userService = Mockito.mock(UserService.class);
+        userListCache = new UserListCache(userService, new ObjectMapper(), 2);
+    }
+
+    private static List<UserGetDTO> users(int count) {
+        List<UserGetDTO> users = new ArrayList<>();
+        for (int i = 1; i <= count; i++) {
+            UserGetDTO user = new UserGetDTO();
+            user.setId((long) i);
+            user.setUsername("user" + i);
+            user.setStatus(UserStatus.OFFLINE);
+            users.add(user);
+        }
+        return users;
+    }
+
+    @Test
+    public void get_sameVersion_servedWithoutRebuild() {
+        given(userService.getUsers(0L, 2)).willReturn(users(2));
+
+        UserListCache.Page first = userListCache.get(1L, 0, 2);
+        UserListCache.Page second = userListCache.get(1L, 0, 2);
+
+        assertSame(first, second);
+        assertEquals(Long.valueOf(2), first.getNextCursor());
+        assertTrue(new String(first.getJson(), StandardCharsets.UTF_8).contains("\"username\":\"user2\""));
+        Mockito.verify(userService, Mockito.times(1)).getUsers(0L, 2);
+        assertEquals(1, userListCache.getHitCount());
+    }
+
+    @Test
+    public void get_newVersion_rebuilt() {
+        given(userService.getUsers(0L, 3)).willReturn(users(2), users(3));
+
+        UserListCache.Page first = userListCache.get(1L, 0, 3);
+        UserListCache.Page second = userListCache.get(2L, 0, 3);
+
+        assertNull(first.getNextCursor());
+        assertEquals(Long.valueOf(3), second.getNextCursor());
+        assertEquals(2, userListCache.getBuildCount());
+    }
+
+    @Test
+    public void get_noVersionOrTooManyPages_notCached() {
+        given(userService.getUsers(Mockito.anyLong(), Mockito.anyInt())).willReturn(users(1));
+
+        userListCache.get(-1L, 0, 10);
+        userListCache.get(-1L, 0, 10);
+        userListCache.get(1L, 1, 10);
+        userListCache.get(1L, 2, 10);
+        userListCache.get(1L, 3, 10);
+        userListCache.get(1L, 3, 10);
+
+        // only two pages are kept per version
+        assertEquals(2, userListCache.getCachedPageCount());
+        assertEquals(6, userListCache.getBuildCount());
+    }
+
+    @Test
+    public void get_olderVersionAfterNewer_newerPagesKept() {
+        given(userService.getUsers(0L, 10)).willReturn(users(2), users(1), users(2));
+
+        UserListCache.Page newer = userListCache.get(2L, 0, 10);
+        // a request that read its version before the newer one and arrives late
+        UserListCache.Page older = userListCache.get(1L, 0, 10);
+
+//    make sure the late request is built for itself and the newer pages stay cached
+        assertTrue(new String(older.getJson(), StandardCharsets.UTF_8).contains("\"username\":\"user1\""));
+        assertSame(newer, userListCache.get(2L, 0, 10));
+        assertEquals(1, userListCache.getCachedPageCount());
+        assertEquals(2, userListCache.getBuildCount());
+        assertEquals(1, userListCache.getHitCount());
+    }
+
+    @Test
+    public void get_concurrentRequests_singleBuild() throws Exception {
+        CountDownLatch building = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        given(userService.getUsers(0L, 10)).willAnswer(invocation -> {
+            building.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return users(3);
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<UserListCache.Page>> pages = new ArrayList<>();
+            pages.add(executor.submit(() -> userListCache.get(1L, 0, 10)));
+            assertTrue(building.await(5, TimeUnit.SECONDS));
+            for (int i = 0; i < 3; i++) {
+                pages.add(executor.submit(() -> userListCache.get(1L, 0, 10)));
+            }
+            // give the waiting requests time to find the build in progress
+            Thread.sleep(100);
+            release.countDown();
+
+            UserListCache.Page page = pages.get(0).get(5, TimeUnit.SECONDS);
+            for (Future<UserListCache.Page> other : pages) {
+                assertSame(page, other.get(5, TimeUnit.SECONDS));
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        Mockito.verify(userService, Mockito.times(1)).getUsers(0L, 10);
+    }
+}
@@ -0,0 +1,80 @@
+package ch.uzh.ifi.seal.soprafs20.controller;
+
+import ch.uzh.ifi.seal.soprafs20.repository.UserRepository;
+import ch.uzh.ifi.seal.soprafs20.repository.UserTombstoneRepository;
+import ch.uzh.ifi.seal.soprafs20.service.PasswordHasher;
+import ch.uzh.ifi.seal.soprafs20.service.PresenceStore;
+import com.zaxxer.hikari.HikariDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+public class UserLoginIntegrationTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private PresenceStore presenceStore;
+
+    @SpyBean
+    private PasswordHasher passwordHasher;
+
+    @Qualifier("userRepository")
+    @Autowired
+    private UserRepository userRepository;
+
+    @Qualifier("userTombstoneRepository")
+    @Autowired
+    private UserTombstoneRepository userTombstoneRepository;
+
+    @AfterEach
+    public void cleanup() {
+        presenceStore.flush();
+        userRepository.deleteAll();
+        userTombstoneRepository.deleteAll();
+    }
+
+    @Test
+    public void login_overHttp_holdsNoConnectionWhileVerifyingPassword() throws Exception {
+        // given
+        mockMvc.perform(post("/users").contentType(MediaType.APPLICATION_JSON)
+                .content("{\"username\":\"poolUser\",\"password\":\"password\"}"))
+                .andExpect(status().isCreated());
+        HikariDataSource pool = dataSource.unwrap(HikariDataSource.class);
+        List<Integer> activeConnections = new CopyOnWriteArrayList<>();
+        Mockito.doAnswer(invocation -> {
+            activeConnections.add(pool.getHikariPoolMXBean().getActiveConnections());
+            return invocation.callRealMethod();
+        }).when(passwordHasher).verify(Mockito.any(), Mockito.any());
+
+        // when
+        mockMvc.perform(put("/login").contentType(MediaType.APPLICATION_JSON)
+                .content("{\"username\":\"poolUser\",\"password\":\"password\"}"))
+                .andExpect(status().isOk());
+
+//    make sure the connection of the user lookup went back to the pool before the password was checked
+        assertEquals(List.of(0), activeConnections);
+    }
+}
@@ -0,0 +1,112 @@
+package ch.uzh.ifi.seal.soprafs20.datasource;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReplicaRoutingDataSourceTest {
+
+    private final Connection primaryConnection = Mockito.mock(Connection.class);
+    private final Connection replicaConnection0 = Mockito.mock(Connection.class);
+    private final Connection replicaConnection1 = Mockito.mock(Connection.class);
+
+    private DataSource replica0;
+
+    private ReplicaLagGuard lagGuard;
+
+    private ReplicaRoutingDataSource router;
+
+    @BeforeEach
+    public void setup() throws SQLException {
+        DataSource primary = Mockito.mock(DataSource.class);
+        replica0 = Mockito.mock(DataSource.class);
+        DataSource replica1 = Mockito.mock(DataSource.class);
+        Mockito.when(primary.getConnection()).thenReturn(primaryConnection);
+        Mockito.when(replica0.getConnection()).thenReturn(replicaConnection0);
+        Mockito.when(replica1.getConnection()).thenReturn(replicaConnection1);
+        Mockito.when(replicaConnection0.isValid(Mockito.anyInt())).thenReturn(true);
+        Mockito.when(replicaConnection1.isValid(Mockito.anyInt())).thenReturn(true);
+
+        lagGuard = new ReplicaLagGuard(1000);
+        router = new ReplicaRoutingDataSource(primary, List.of(replica0, replica1), lagGuard, 1);
+    }
+
+    private Connection connectionOf(boolean replicaRead) throws SQLException {
+        ReplicaRouting.begin(replicaRead);
+        try {
+            return router.getConnection();
+        }
+        finally {
+            ReplicaRouting.end();
+        }
+    }
+
+    @Test
+    public void getConnection_replicaReads_roundRobinOverReplicas() throws SQLException {
+        assertSame(replicaConnection0, connectionOf(true));
+        assertSame(replicaConnection1, connectionOf(true));
+        assertSame(replicaConnection0, connectionOf(true));
+        assertEquals(3, router.getReplicaConnectionCount());
+    }
+
+    @Test
+    public void getConnection_otherTransactions_usePrimary() throws SQLException {
+        assertSame(primaryConnection, connectionOf(false));
+        assertSame(primaryConnection, router.getConnection());
+
+//    make sure a new transaction inside a replica read routes by its own kind
+        ReplicaRouting.begin(true);
+        try {
+            assertSame(primaryConnection, connectionOf(false));
+        }
+        finally {
+            ReplicaRouting.end();
+        }
+    }
+
+    @Test
+    public void getConnection_clientJustWrote_usesPrimary() throws SQLException {
+        lagGuard.requirePrimary();
+        try {
+            assertSame(primaryConnection, connectionOf(true));
+        }
+        finally {
+            lagGuard.release();
+        }
+        assertNotSame(primaryConnection, connectionOf(true));
+    }
+
+    @Test
+    public void getConnection_replicaFails_skippedUntilHealthyAgain() throws SQLException {
+        Mockito.when(replica0.getConnection()).thenThrow(new SQLException("connection refused"));
+
+//    make sure the failing read falls back to the primary and the replica leaves the rotation
+        assertSame(primaryConnection, connectionOf(true));
+        assertEquals(1, router.getHealthyReplicaCount());
+        assertSame(replicaConnection1, connectionOf(true));
+        assertSame(replicaConnection1, connectionOf(true));
+
+        Mockito.reset(replica0);
+        Mockito.when(replica0.getConnection()).thenReturn(replicaConnection0);
+        router.checkReplicas();
+        assertEquals(2, router.getHealthyReplicaCount());
+    }
+
+    @Test
+    public void checkReplicas_noHealthyReplica_readsFromPrimary() throws SQLException {
+        Mockito.when(replicaConnection0.isValid(Mockito.anyInt())).thenReturn(false);
+        Mockito.when(replicaConnection1.isValid(Mockito.anyInt())).thenReturn(false);
+
+        router.checkReplicas();
+
+        assertEquals(0, router.getHealthyReplicaCount());
+        assertSame(primaryConnection, connectionOf(true));
+    }
+}
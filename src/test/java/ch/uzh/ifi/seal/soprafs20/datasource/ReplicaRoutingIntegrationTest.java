@@ -0,0 +1,143 @@
+package ch.uzh.ifi.seal.soprafs20.datasource;
+
+import ch.uzh.ifi.seal.soprafs20.entity.User;
+import ch.uzh.ifi.seal.soprafs20.repository.UserRepository;
+import ch.uzh.ifi.seal.soprafs20.service.UserService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+
+import javax.persistence.EntityManagerFactory;
+import javax.servlet.http.Cookie;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.hamcrest.Matchers.hasSize;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Runs the application on two H2 databases, a primary and a replica. There is no replication between them: rows that
+ * are only in the replica show which reads it served.
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:primary;DB_CLOSE_DELAY=-1",
+        "users.datasource.replicas[0].url=" + ReplicaRoutingIntegrationTest.REPLICA_URL,
+        "users.datasource.replica-lag-guard-ms=60000"})
+@AutoConfigureMockMvc
+public class ReplicaRoutingIntegrationTest {
+
+    static final String REPLICA_URL = "jdbc:h2:mem:replica;DB_CLOSE_DELAY=-1";
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private UserService userService;
+
+    @Qualifier("userRepository")
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private ReplicaRoutingDataSource replicaRoutingDataSource;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @BeforeEach
+    public void setupReplica() throws SQLException {
+        try (Connection connection = DriverManager.getConnection(REPLICA_URL, "sa", "");
+             Statement statement = connection.createStatement()) {
+            statement.execute("create table if not exists user (id bigint not null primary key, "
+                    + "account_creation_date timestamp not null, birthday timestamp, password varchar(255) not null, "
+                    + "status integer not null, token varchar(255) not null, username varchar(255) not null, "
+                    + "change_version bigint, version bigint not null)");
+            statement.execute("delete from user");
+        }
+    }
+
+    @AfterEach
+    public void cleanup() {
+        userRepository.deleteAll();
+    }
+
+    private void replicate(long id, String username) throws SQLException {
+        try (Connection connection = DriverManager.getConnection(REPLICA_URL, "sa", "");
+             PreparedStatement statement = connection.prepareStatement("insert into user (id, account_creation_date, "
+                     + "password, status, token, username, change_version, version) values (?, current_timestamp, 'x', 0, ?, ?, 1, 0)")) {
+            statement.setLong(1, id);
+            statement.setString(2, "token-" + id);
+            statement.setString(3, username);
+            statement.executeUpdate();
+        }
+    }
+
+    @Test
+    public void replicaReads_servedByReplica_writesAndLoginByPrimary() throws SQLException {
+        User testUser = new User();
+        testUser.setUsername("testUsername");
+        testUser.setPassword("testPassword");
+        User newUser = userService.createUser(testUser);
+
+//    make sure the list comes from the replica, which has not seen the user yet
+        assertTrue(userService.getUsers(0, 10).isEmpty());
+        replicate(newUser.getId(), "testUsername");
+        assertEquals(1, userService.getUsers(0, 10).size());
+        assertTrue(replicaRoutingDataSource.getReplicaConnectionCount() > 0);
+
+//    make sure the login reads the user from the primary
+        User credentials = new User();
+        credentials.setUsername("testUsername");
+        credentials.setPassword("testPassword");
+        assertNotNull(userService.loginUser(credentials).getToken());
+        assertEquals(1, replicaRoutingDataSource.getHealthyReplicaCount());
+    }
+
+    @Test
+    public void readYourWrites_clientThatJustWrote_readsFromPrimary() throws Exception {
+        Cookie primaryUntil = mockMvc.perform(post("/users")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"username\":\"testUsername\",\"password\":\"testPassword\"}"))
+                .andExpect(status().isCreated())
+                .andReturn().getResponse().getCookie(ReadYourWritesFilter.COOKIE_NAME);
+        assertNotNull(primaryUntil);
+
+//    make sure only the client that registered sees the user before it reached the replica
+        mockMvc.perform(get("/users").cookie(primaryUntil))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)));
+        mockMvc.perform(get("/users"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(0)));
+    }
+
+    @Test
+    public void replicaRead_throughMockMvc_doesNotFillSecondLevelCache() throws Exception {
+        User testUser = new User();
+        testUser.setUsername("testUsername");
+        testUser.setPassword("testPassword");
+        User newUser = userService.createUser(testUser);
+        entityManagerFactory.getCache().evictAll();
+        replicate(newUser.getId(), "replicaUsername");
+
+//    make sure the profile is served by the replica, but what it loaded is not cached for the readers of the primary
+        mockMvc.perform(get("/users/" + newUser.getId()))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.username").value("replicaUsername"));
+        assertFalse(entityManagerFactory.getCache().contains(User.class, newUser.getId()));
+        assertEquals("testUsername", userRepository.findById(newUser.getId()).get().getUsername());
+    }
+}
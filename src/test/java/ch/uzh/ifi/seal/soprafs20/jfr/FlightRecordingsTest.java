@@ -0,0 +1,83 @@
+package ch.uzh.ifi.seal.soprafs20.jfr;
+
+import ch.uzh.ifi.seal.soprafs20.exceptions.IllegalRecordingInput;
+import ch.uzh.ifi.seal.soprafs20.exceptions.RecordingAlreadyRunning;
+import ch.uzh.ifi.seal.soprafs20.exceptions.RecordingNotFound;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FlightRecordingsTest {
+
+    private final FlightRecordings flightRecordings = new FlightRecordings(10);
+
+    @AfterEach
+    public void tearDown() {
+        flightRecordings.shutdown();
+    }
+
+    @Test
+    public void start_invalidInput_throwsException() {
+        assertThrows(IllegalRecordingInput.class, () -> flightRecordings.start(0, "profile"));
+        assertThrows(IllegalRecordingInput.class, () -> flightRecordings.start(11, "profile"));
+        assertThrows(IllegalRecordingInput.class, () -> flightRecordings.start(5, "everything"));
+    }
+
+    @Test
+    public void start_whileRunning_throwsException() {
+        Recording recording = flightRecordings.start(5, "default");
+        assertEquals(RecordingState.RUNNING, recording.getState());
+
+        assertThrows(RecordingAlreadyRunning.class, () -> flightRecordings.start(5, "default"));
+    }
+
+    @Test
+    public void stop_unknownRecording_throwsException() {
+        assertThrows(RecordingNotFound.class, () -> flightRecordings.stop(-1));
+    }
+
+    @Test
+    public void stop_containsUserOperationEvents() throws Exception {
+        Recording recording = flightRecordings.start(5, "default");
+
+        UserOperationEvent.record(new UserLoginEvent(), 7L, () -> {});
+        assertThrows(IllegalStateException.class, () -> UserOperationEvent.record(new UserUpdateEvent(), 8L, () -> {
+            throw new IllegalStateException("conflict");
+        }));
+
+        Path file = flightRecordings.stop(recording.getId());
+        List<RecordedEvent> events;
+        try {
+            events = RecordingFile.readAllEvents(file).stream()
+                    .filter(event -> event.getEventType().getName().startsWith("ch.uzh.ifi.seal.soprafs20.User"))
+                    .collect(Collectors.toList());
+        }
+        finally {
+            Files.deleteIfExists(file);
+        }
+
+//    make sure the outcome is recorded for successful and failed operations
+        assertEquals(2, events.size());
+        RecordedEvent login = events.stream()
+                .filter(event -> event.getEventType().getName().equals("ch.uzh.ifi.seal.soprafs20.UserLogin")).findFirst().orElseThrow();
+        assertEquals(7L, login.getLong("userId"));
+        assertEquals(UserOperationEvent.SUCCESS, login.getString("outcome"));
+        RecordedEvent update = events.stream()
+                .filter(event -> event.getEventType().getName().equals("ch.uzh.ifi.seal.soprafs20.UserUpdate")).findFirst().orElseThrow();
+        assertEquals(8L, update.getLong("userId"));
+        assertEquals("IllegalStateException", update.getString("outcome"));
+
+//    make sure a fetched recording is gone
+        assertThrows(RecordingNotFound.class, () -> flightRecordings.stop(recording.getId()));
+    }
+}
@@ -0,0 +1,134 @@
+package ch.uzh.ifi.seal.soprafs20.loader;
+
+import ch.uzh.ifi.seal.soprafs20.constant.UserStatus;
+import ch.uzh.ifi.seal.soprafs20.entity.User;
+import ch.uzh.ifi.seal.soprafs20.repository.UserChangeVersions;
+import ch.uzh.ifi.seal.soprafs20.repository.UserRepository;
+import ch.uzh.ifi.seal.soprafs20.service.PasswordHasher;
+import ch.uzh.ifi.seal.soprafs20.service.UserDirectoryVersion;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.DefaultApplicationArguments;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+public class UserBulkLoaderIntegrationTest {
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private UserDirectoryVersion userDirectoryVersion;
+
+    @Autowired
+    private UserChangeVersions userChangeVersions;
+
+    @Qualifier("userRepository")
+    @Autowired
+    private UserRepository userRepository;
+
+    @TempDir
+    Path tempDir;
+
+    // few iterations keep the test fast, the work factor does not change the behaviour
+    private final PasswordHasher passwordHasher = new PasswordHasher(1000, 1, 16);
+
+    @AfterEach
+    public void cleanup() {
+        userRepository.deleteAll();
+    }
+
+    @Test
+    public void run_csvFile_insertsAllRows() throws Exception {
+        // given -> more rows than fit into one multi-row statement plus a header and a duplicate
+        List<String> lines = new ArrayList<>();
+        lines.add("username,password");
+        for (int i = 0; i < 130; i++) lines.add("bulkUser" + i + ",password" + i);
+        lines.add("bulkUser7,otherPassword");
+        Path file = Files.write(tempDir.resolve("users.csv"), lines);
+
+        UserBulkLoader loader = new UserBulkLoader(dataSource, objectMapper, passwordHasher, userDirectoryVersion, userChangeVersions, file.toString(), 2, 2, 60);
+        String usersETag = userDirectoryVersion.getETag();
+
+        // when
+        loader.run(new DefaultApplicationArguments());
+
+        // then
+//    make sure the taken username only drops its own row and not the rest of its statement
+        assertEquals(130, userRepository.count());
+        assertEquals(130, loader.getRowsWritten());
+        assertEquals(1, loader.getRowsFailed());
+        assertNotEquals(usersETag, userDirectoryVersion.getETag());
+        User user = userRepository.findByUsername("bulkUser129");
+        assertNotNull(user.getId());
+        assertNotNull(user.getToken());
+        assertNotNull(user.getAccountCreationDate());
+        assertEquals(UserStatus.OFFLINE, user.getStatus());
+        assertNotNull(user.getChangeVersion());
+        assertEquals(Long.MAX_VALUE, userChangeVersions.lowWaterMark());
+        assertNotEquals("password129", user.getPassword());
+        assertTrue(passwordHasher.verify("password129", user.getPassword()));
+        assertFalse(passwordHasher.needsRehash(user.getPassword()));
+    }
+
+    @Test
+    public void run_ndjsonFile_insertsAllRows() throws Exception {
+        // given -> a malformed line in between
+        Path file = Files.write(tempDir.resolve("users.ndjson"), List.of(
+                "{\"username\":\"jsonUser1\",\"password\":\"password1\"}",
+                "{\"username\":\"broken\",",
+                "{\"username\":\"jsonUser2\",\"password\":\"password2\"}"));
+
+        UserBulkLoader loader = new UserBulkLoader(dataSource, objectMapper, passwordHasher, userDirectoryVersion, userChangeVersions, file.toString(), 1, 1, 60);
+
+        // when
+        loader.run(new DefaultApplicationArguments());
+
+        // then -> the malformed line is skipped and counted like a malformed CSV line
+        assertEquals(2, userRepository.count());
+        assertNotNull(userRepository.findByUsername("jsonUser2"));
+        assertEquals(1, loader.getRowsFailed());
+    }
+
+    @Test
+    public void run_writerFails_abortsLoad() throws Exception {
+        // given -> more batches than the queue between reader and writer holds, and no connection for the writer
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 500; i++) lines.add("failingUser" + i + ",password" + i);
+        Path file = Files.write(tempDir.resolve("users.csv"), lines);
+        DataSource failingDataSource = new DelegatingDataSource(dataSource) {
+            @Override
+            public Connection getConnection() throws SQLException {
+                throw new SQLException("no connection available");
+            }
+        };
+
+        UserBulkLoader loader = new UserBulkLoader(failingDataSource, objectMapper, passwordHasher, userDirectoryVersion, userChangeVersions, file.toString(), 1, 1, 60);
+
+//    make sure the load fails with the writer's error instead of waiting for it forever
+        ExecutionException exception = assertTimeoutPreemptively(Duration.ofSeconds(30),
+                () -> assertThrows(ExecutionException.class, () -> loader.run(new DefaultApplicationArguments())));
+        assertTrue(exception.getCause() instanceof SQLException);
+        assertEquals(0, userRepository.count());
+    }
+}
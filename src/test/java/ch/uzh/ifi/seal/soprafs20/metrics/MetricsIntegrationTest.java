@@ -0,0 +1,98 @@
+package ch.uzh.ifi.seal.soprafs20.metrics;
+
+import ch.uzh.ifi.seal.soprafs20.repository.UserRepository;
+import ch.uzh.ifi.seal.soprafs20.repository.UserTombstoneRepository;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+public class MetricsIntegrationTest {
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Qualifier("userRepository")
+    @Autowired
+    private UserRepository userRepository;
+
+    @Qualifier("userTombstoneRepository")
+    @Autowired
+    private UserTombstoneRepository userTombstoneRepository;
+
+    @AfterEach
+    public void cleanup() {
+        userRepository.deleteAll();
+        userTombstoneRepository.deleteAll();
+    }
+
+    @Test
+    public void prometheus_afterRequests_exposesEndpointRepositoryAndStatementMetrics() throws Exception {
+        // given
+        String created = mockMvc.perform(post("/users").contentType(MediaType.APPLICATION_JSON)
+                .content("{\"username\":\"metricsUser\",\"password\":\"password\"}"))
+                .andExpect(status().isCreated())
+                .andReturn().getResponse().getContentAsString();
+        long id = objectMapper.readTree(created).get("id").asLong();
+        mockMvc.perform(get("/users/" + id)).andExpect(status().isOk());
+
+        // when
+        String metrics = mockMvc.perform(get("/actuator/prometheus"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+
+        // then
+        assertMetric(metrics, "http_server_requests_seconds_count{", "uri=\"/users/{userId}\"");
+        assertMetric(metrics, "http_server_requests_seconds_bucket{", "uri=\"/users/{userId}\"");
+        assertMetric(metrics, "spring_data_repository_invocations_seconds_count{", "method=\"save\"", "outcome=\"SUCCESS\"", "repository=\"UserRepository\"");
+        assertMetric(metrics, "hibernate_statements_per_request_statements_count{", "method=\"POST\"", "uri=\"/users\"");
+        assertMetric(metrics, "hikaricp_connections_acquire_seconds_count{");
+        assertMetric(metrics, "cache_gets_total{", "cache=\"session-tokens\"", "result=\"hit\"");
+        assertMetric(metrics, "cache_gets_total{", "cache=\"users\"", "result=\"miss\"");
+        assertMetric(metrics, "users_password_hashing_completed_total");
+    }
+
+    @Test
+    public void requestStatementCounter_nestedCounts_countStatementsOfTheirScope() {
+        // given
+        RequestStatementCounter.begin();
+        userRepository.count();
+        int outerBefore = RequestStatementCounter.current();
+
+        // when
+        RequestStatementCounter.begin();
+        userRepository.count();
+        int inner = RequestStatementCounter.end();
+        int outer = RequestStatementCounter.end();
+
+        // then
+        assertEquals(1, outerBefore);
+        assertEquals(1, inner);
+        assertEquals(2, outer);
+//    make sure the thread is not counted anymore once all counts ended
+        assertEquals(0, RequestStatementCounter.end());
+    }
+
+    private static void assertMetric(String metrics, String name, String... tags) {
+        boolean found = Arrays.stream(metrics.split("\n"))
+                .anyMatch(line -> line.startsWith(name) && Arrays.stream(tags).allMatch(line::contains));
+        assertTrue(found, "No metric " + name + " with " + Arrays.toString(tags));
+    }
+}
@@ -0,0 +1,50 @@
+package ch.uzh.ifi.seal.soprafs20.metrics;
+
+import org.junit.jupiter.api.function.Executable;
+import org.junit.jupiter.api.function.ThrowingSupplier;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Pins the number of SQL statements Hibernate prepares on the current thread while an action runs, so an added query
+ * fails the test that covers it. Blocks of ids from the pooled USER_SEQ are not counted: one block serves 50 inserts,
+ * whether an action needs a new one depends on the inserts before it.
+ */
+public final class StatementCountAssertions {
+
+    private StatementCountAssertions() {
+    }
+
+    public static void assertStatementCount(int expected, Executable action) {
+        assertStatementCount(expected, () -> {
+            action.execute();
+            return null;
+        });
+    }
+
+    public static <T> T assertStatementCount(int expected, ThrowingSupplier<T> action) {
+        T result;
+        RequestStatementCounter.beginRecording();
+        try {
+            result = action.get();
+        }
+        catch (Throwable t) {
+            RequestStatementCounter.endRecording();
+            throw new AssertionError("The counted action failed", t);
+        }
+        List<String> statements = countedStatements(RequestStatementCounter.endRecording());
+        assertEquals(expected, statements.size(), "Unexpected SQL statements: " + statements);
+        return result;
+    }
+
+    private static List<String> countedStatements(List<String> recorded) {
+        List<String> counted = new ArrayList<>(recorded.size());
+        for (String sql : recorded) {
+            if (!sql.toUpperCase().contains("USER_SEQ")) counted.add(sql);
+        }
+        return counted;
+    }
+}
@@ -0,0 +1,79 @@
+package ch.uzh.ifi.seal.soprafs20.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.FilterChain;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StatementCountFilterTest {
+
+    public static class Handler {
+
+        @StatementBudget(1)
+        public void budgetOfOne() {
+        }
+
+        public void withoutBudget() {
+        }
+    }
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final StatementCountFilter filter = new StatementCountFilter(meterRegistry);
+    private final RequestStatementCounter counter = new RequestStatementCounter();
+
+    @Test
+    public void doFilter_withinBudget_recordsStatements() throws Exception {
+        filter.doFilter(request(), new MockHttpServletResponse(), chain("budgetOfOne", 1));
+
+        assertEquals(1, summary().count());
+        assertEquals(1.0, summary().totalAmount());
+        assertNull(meterRegistry.find(StatementCountFilter.OVER_BUDGET_METRIC_NAME).counter());
+    }
+
+    @Test
+    public void doFilter_overBudget_countsRequest() throws Exception {
+        filter.doFilter(request(), new MockHttpServletResponse(), chain("budgetOfOne", 3));
+        filter.doFilter(request(), new MockHttpServletResponse(), chain("budgetOfOne", 2));
+
+        Counter overBudget = meterRegistry.find(StatementCountFilter.OVER_BUDGET_METRIC_NAME).tags("method", "GET", "uri", "/users/{userId}").counter();
+        assertNotNull(overBudget);
+        assertEquals(2.0, overBudget.count());
+        assertEquals(5.0, summary().totalAmount());
+    }
+
+    @Test
+    public void doFilter_noBudget_neverOverBudget() throws Exception {
+        filter.doFilter(request(), new MockHttpServletResponse(), chain("withoutBudget", 10));
+
+        assertEquals(10.0, summary().totalAmount());
+        assertNull(meterRegistry.find(StatementCountFilter.OVER_BUDGET_METRIC_NAME).counter());
+    }
+
+    private static MockHttpServletRequest request() {
+        return new MockHttpServletRequest("GET", "/users/1");
+    }
+
+    /**
+     * Stands in for the DispatcherServlet: marks the handler and prepares the given number of statements.
+     */
+    private FilterChain chain(String handlerMethod, int statements) throws NoSuchMethodException {
+        HandlerMethod handler = new HandlerMethod(new Handler(), Handler.class.getMethod(handlerMethod));
+        return (request, response) -> {
+            request.setAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE, "/users/{userId}");
+            request.setAttribute(HandlerMapping.BEST_MATCHING_HANDLER_ATTRIBUTE, handler);
+            for (int i = 0; i < statements; i++) counter.inspect("select 1");
+        };
+    }
+
+    private DistributionSummary summary() {
+        return meterRegistry.get(StatementCountFilter.METRIC_NAME).tags("method", "GET", "uri", "/users/{userId}").summary();
+    }
+}
@@ -7,14 +7,20 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
 import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.context.annotation.Import;
+
+import org.springframework.data.domain.PageRequest;
 
 import java.util.Date;
+import java.util.List;
 import java.util.Optional;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @DataJpaTest
+@Import(UserChangeVersions.class)
 public class UserRepositoryIntegrationTest {
 
     @Autowired
@@ -102,4 +108,32 @@ public class UserRepositoryIntegrationTest {
         assertEquals(found.getAccountCreationDate(), user.getAccountCreationDate());
         assertEquals(found.getPassword(), user.getPassword());
     }
+
+    @Test
+    public void changeVersion_increasesOnEveryWrite() {
+        // given
+        User user = new User();
+        user.setUsername("firstname@lastname");
+        user.setStatus(UserStatus.OFFLINE);
+        user.setToken("1");
+        user.setAccountCreationDate(new Date());
+        user.setPassword("password");
+
+        entityManager.persist(user);
+        entityManager.flush();
+        entityManager.clear();
+        Long createdVersion = userRepository.findById(user.getId()).get().getChangeVersion();
+
+        // when
+        userRepository.updateStatusOfUsers(List.of(user.getId()), UserStatus.ONLINE);
+        entityManager.clear();
+
+        // then
+        assertNotNull(createdVersion);
+        assertTrue(userRepository.findById(user.getId()).get().getChangeVersion() > createdVersion);
+        List<UserChangeView> changes = userRepository.findChangesSince(createdVersion, Long.MAX_VALUE, PageRequest.of(0, 10));
+        assertEquals(1, changes.size());
+        assertEquals(user.getId(), changes.get(0).getId());
+        assertEquals(UserStatus.ONLINE, changes.get(0).getStatus());
+    }
 }
@@ -0,0 +1,53 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OptimisticRetryTest {
+
+    private final OptimisticRetry optimisticRetry = new OptimisticRetry(3, 1, 2);
+
+    @Test
+    public void run_conflictsBelowLimit_retriedUntilSuccess() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        String result = optimisticRetry.run(() -> {
+            if (attempts.incrementAndGet() < 3) throw new ObjectOptimisticLockingFailureException("User", 1L);
+            return "written";
+        });
+
+        assertEquals("written", result);
+        assertEquals(3, attempts.get());
+        assertEquals(2, optimisticRetry.getRetryCount());
+        assertEquals(0, optimisticRetry.getExhaustedCount());
+    }
+
+    @Test
+    public void run_conflictsBeyondLimit_lastConflictThrown() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThrows(ObjectOptimisticLockingFailureException.class, () -> optimisticRetry.run(() -> {
+            attempts.incrementAndGet();
+            throw new ObjectOptimisticLockingFailureException("User", 1L);
+        }));
+
+        assertEquals(3, attempts.get());
+        assertEquals(1, optimisticRetry.getExhaustedCount());
+    }
+
+    @Test
+    public void run_otherFailure_notRetried() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThrows(IllegalStateException.class, () -> optimisticRetry.run(() -> {
+            attempts.incrementAndGet();
+            throw new IllegalStateException();
+        }));
+
+        assertEquals(1, attempts.get());
+    }
+}
@@ -0,0 +1,82 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import ch.uzh.ifi.seal.soprafs20.exceptions.ServerBusy;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PasswordHasherTest {
+
+    // few iterations keep the tests fast, the work factor does not change the behaviour
+    private final PasswordHasher passwordHasher = new PasswordHasher(1000, 2, 4);
+
+    @AfterEach
+    public void teardown() {
+        passwordHasher.shutdown();
+    }
+
+    @Test
+    public void hash_thenVerify_success() {
+        String hash = passwordHasher.hash("testPassword");
+
+        assertNotEquals("testPassword", hash);
+        assertTrue(passwordHasher.verify("testPassword", hash));
+        assertFalse(passwordHasher.verify("wrongPassword", hash));
+        assertFalse(passwordHasher.needsRehash(hash));
+    }
+
+    @Test
+    public void hash_samePasswordTwice_differentSalt() {
+        assertNotEquals(passwordHasher.hash("testPassword"), passwordHasher.hash("testPassword"));
+    }
+
+    @Test
+    public void verify_legacyPlaintext_needsRehash() {
+        assertTrue(passwordHasher.verify("testPassword", "testPassword"));
+        assertFalse(passwordHasher.verify("wrongPassword", "testPassword"));
+        assertTrue(passwordHasher.needsRehash("testPassword"));
+    }
+
+    @Test
+    public void verify_legacyPlaintextLookingLikeHash_treatedAsPlaintext() {
+        String stored = "pbkdf2-sha256$not-a-number$salt";
+
+        assertTrue(passwordHasher.verify(stored, stored));
+        assertFalse(passwordHasher.verify("wrongPassword", stored));
+        assertTrue(passwordHasher.needsRehash(stored));
+    }
+
+    @Test
+    public void needsRehash_otherWorkFactor() {
+        PasswordHasher strongerHasher = new PasswordHasher(2000, 1, 1);
+        try {
+            String hash = passwordHasher.hash("testPassword");
+
+            // the old hash still verifies, but is flagged for an upgrade
+            assertTrue(strongerHasher.verify("testPassword", hash));
+            assertTrue(strongerHasher.needsRehash(hash));
+        }
+        finally {
+            strongerHasher.shutdown();
+        }
+    }
+
+    @Test
+    public void hashAll_moreThanThreadsAndQueue_rejectedFast() {
+        // one thread busy with a slow hash + one queued -> the third password does not fit
+        PasswordHasher saturatedHasher = new PasswordHasher(500000, 1, 1);
+        try {
+            List<String> passwords = Collections.nCopies(3, "testPassword");
+
+            assertThrows(ServerBusy.class, () -> saturatedHasher.hashAll(passwords));
+            assertEquals(1, saturatedHasher.getRejectedCount());
+        }
+        finally {
+            saturatedHasher.shutdown();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import ch.uzh.ifi.seal.soprafs20.constant.UserStatus;
+import ch.uzh.ifi.seal.soprafs20.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PresenceStoreTest {
+
+    private UserRepository userRepository;
+
+    private PresenceStore presenceStore;
+
+    @BeforeEach
+    public void setup() {
+        userRepository = Mockito.mock(UserRepository.class);
+        presenceStore = new PresenceStore(userRepository);
+    }
+
+    @Test
+    public void transition_expectedStatus_changesAndMarksPending() {
+        assertTrue(presenceStore.transition(1L, () -> UserStatus.OFFLINE, UserStatus.OFFLINE, UserStatus.ONLINE));
+
+        assertEquals(UserStatus.ONLINE, presenceStore.get(1L));
+        assertEquals(1, presenceStore.getPendingCount());
+        Mockito.verifyNoInteractions(userRepository);
+    }
+
+    @Test
+    public void transition_unexpectedStatus_noChange() {
+        presenceStore.transition(1L, () -> UserStatus.OFFLINE, UserStatus.OFFLINE, UserStatus.ONLINE);
+
+//    make sure the second login fails and the stored status is not asked for again
+        assertFalse(presenceStore.transition(1L, () -> fail("stored status read for a known user"), UserStatus.OFFLINE, UserStatus.ONLINE));
+        assertEquals(UserStatus.ONLINE, presenceStore.get(1L));
+    }
+
+    @Test
+    public void transition_unknownUser_noChange() {
+        assertFalse(presenceStore.transition(1L, () -> null, UserStatus.ONLINE, UserStatus.OFFLINE));
+
+        assertNull(presenceStore.get(1L));
+        assertEquals(0, presenceStore.getPendingCount());
+    }
+
+    @Test
+    public void transition_loadingStoredStatus_doesNotBlockOtherUsers() {
+        // users 1 and 17 share a bin of the map
+        presenceStore.transition(17L, () -> UserStatus.OFFLINE, UserStatus.OFFLINE, UserStatus.ONLINE);
+        ExecutorService otherThread = Executors.newSingleThreadExecutor();
+        try {
+            Supplier<UserStatus> slowQuery = () -> {
+//    make sure a transition of another user completes while the stored status is being read
+                Future<Boolean> logout = otherThread.submit(() -> presenceStore.transition(17L, () -> fail("user 17 is known"), UserStatus.ONLINE, UserStatus.OFFLINE));
+                assertTrue(assertDoesNotThrow(() -> logout.get(5, TimeUnit.SECONDS)));
+                return UserStatus.OFFLINE;
+            };
+
+            assertTrue(presenceStore.transition(1L, slowQuery, UserStatus.OFFLINE, UserStatus.ONLINE));
+            assertEquals(UserStatus.ONLINE, presenceStore.get(1L));
+            assertEquals(UserStatus.OFFLINE, presenceStore.get(17L));
+        }
+        finally {
+            otherThread.shutdownNow();
+        }
+    }
+
+    @Test
+    public void transition_userDroppedWhileLoading_loadsAgain() {
+        presenceStore.transition(2L, () -> UserStatus.OFFLINE, UserStatus.OFFLINE, UserStatus.ONLINE);
+        int[] loads = new int[1];
+        Supplier<UserStatus> storedStatus = () -> {
+            // the first query races with the removal of another user, its result is not trusted
+            if (loads[0]++ == 0) presenceStore.forget(2L);
+            return UserStatus.OFFLINE;
+        };
+
+        assertTrue(presenceStore.transition(1L, storedStatus, UserStatus.OFFLINE, UserStatus.ONLINE));
+
+        assertEquals(2, loads[0]);
+        assertEquals(UserStatus.ONLINE, presenceStore.get(1L));
+    }
+
+    @Test
+    public void flush_writesOneUpdatePerStatus() {
+        presenceStore.transition(1L, () -> UserStatus.OFFLINE, UserStatus.OFFLINE, UserStatus.ONLINE);
+        presenceStore.transition(2L, () -> UserStatus.OFFLINE, UserStatus.OFFLINE, UserStatus.ONLINE);
+        presenceStore.transition(3L, () -> UserStatus.ONLINE, UserStatus.ONLINE, UserStatus.OFFLINE);
+
+        presenceStore.flush();
+
+        Mockito.verify(userRepository).updateStatusOfUsers(Mockito.argThat(ids -> ids.size() == 2 && ids.containsAll(List.of(1L, 2L))), Mockito.eq(UserStatus.ONLINE));
+        Mockito.verify(userRepository).updateStatusOfUsers(List.of(3L), UserStatus.OFFLINE);
+        assertEquals(0, presenceStore.getPendingCount());
+    }
+
+    @Test
+    public void flush_offlineUsersAreDropped_onlineUsersAreKept() {
+        presenceStore.transition(1L, () -> UserStatus.OFFLINE, UserStatus.OFFLINE, UserStatus.ONLINE);
+        presenceStore.transition(2L, () -> UserStatus.ONLINE, UserStatus.ONLINE, UserStatus.OFFLINE);
+
+        presenceStore.flush();
+
+        assertEquals(UserStatus.ONLINE, presenceStore.get(1L));
+        assertNull(presenceStore.get(2L));
+    }
+
+    @Test
+    public void flush_nothingPending_noUpdate() {
+        presenceStore.flush();
+
+        Mockito.verifyNoInteractions(userRepository);
+    }
+}
@@ -0,0 +1,41 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * SseEmitter that keeps the raw text of every event sent to it instead of writing to a response.
+ */
+class RecordingEmitter extends SseEmitter {
+
+    private final List<String> events = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void send(SseEventBuilder builder) {
+        StringBuilder event = new StringBuilder();
+        builder.build().forEach(part -> event.append(part.getData()));
+        events.add(event.toString());
+    }
+
+    List<String> getEvents() {
+        return events;
+    }
+
+    /**
+     * Waits for events delivered by the dispatch threads.
+     */
+    List<String> awaitEvents(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (events.size() < count && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        return events;
+    }
+
+    static String idOf(String event) {
+        for (String line : event.split("\n")) {
+            if (line.startsWith("id:")) return line.substring(3);
+        }
+        return null;
+    }
+}
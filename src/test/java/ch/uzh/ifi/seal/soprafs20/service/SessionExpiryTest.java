@@ -0,0 +1,154 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import ch.uzh.ifi.seal.soprafs20.constant.TokenMode;
+import ch.uzh.ifi.seal.soprafs20.constant.UserStatus;
+import ch.uzh.ifi.seal.soprafs20.entity.User;
+import ch.uzh.ifi.seal.soprafs20.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SessionExpiryTest {
+
+    private final AtomicLong now = new AtomicLong();
+
+    private UserRepository userRepository;
+
+    private PresenceStore presenceStore;
+
+    private SessionExpiry sessionExpiry;
+
+    @BeforeEach
+    public void setup() {
+        userRepository = Mockito.mock(UserRepository.class);
+        presenceStore = new PresenceStore(userRepository);
+        // given -> sessions expire after 100 idle ticks of the fake clock, the wheel turns every 10
+        sessionExpiry = new SessionExpiry(userRepository, presenceStore, new SessionTokens(TokenMode.OPAQUE, ""), event -> {}, 100, 10, now::get);
+    }
+
+    private void login(long userId) {
+        presenceStore.transition(userId, () -> UserStatus.OFFLINE, UserStatus.OFFLINE, UserStatus.ONLINE);
+        sessionExpiry.started(userId);
+    }
+
+    @Test
+    public void sweep_idleSession_loggedOut() {
+        login(1L);
+
+        now.set(99);
+        sessionExpiry.sweep();
+        assertEquals(UserStatus.ONLINE, presenceStore.get(1L));
+
+        now.set(100);
+        sessionExpiry.sweep();
+        assertEquals(UserStatus.OFFLINE, presenceStore.get(1L));
+        assertEquals(0, sessionExpiry.getOpenSessionCount());
+        assertEquals(1, sessionExpiry.getExpiredCount());
+    }
+
+    @Test
+    public void sweep_idleSignedSession_revokesToken() {
+        SessionTokens sessionTokens = new SessionTokens(TokenMode.SIGNED, "testSecret");
+        sessionExpiry = new SessionExpiry(userRepository, presenceStore, sessionTokens, event -> {}, 100, 10, now::get);
+        String token = sessionTokens.issue(1L, 0);
+        User user = new User();
+        user.setToken(token);
+        Mockito.when(userRepository.findById(1L)).thenReturn(Optional.of(user));
+        login(1L);
+
+        now.set(100);
+        sessionExpiry.sweep();
+
+//    make sure the token of the expired session is revoked like on logout, in memory and in the database
+        assertFalse(sessionTokens.isCurrent(sessionTokens.verify(token), () -> fail("generation read again")));
+        Mockito.verify(userRepository).replaceToken(Mockito.eq(1L), Mockito.argThat(stored -> sessionTokens.verify(stored).getGeneration() == 1));
+    }
+
+    @Test
+    public void sweep_touchedSession_rescheduled() {
+        login(1L);
+
+        now.set(60);
+        assertTrue(sessionExpiry.touch(1L));
+
+//    make sure the old deadline only reschedules the session and the new one expires it
+        now.set(100);
+        sessionExpiry.sweep();
+        assertEquals(UserStatus.ONLINE, presenceStore.get(1L));
+
+        now.set(160);
+        sessionExpiry.sweep();
+        assertEquals(UserStatus.OFFLINE, presenceStore.get(1L));
+    }
+
+    @Test
+    public void sweep_endedSession_notTouchedAgain() {
+        login(1L);
+        presenceStore.transition(1L, () -> UserStatus.ONLINE, UserStatus.ONLINE, UserStatus.OFFLINE);
+        sessionExpiry.ended(1L);
+
+        now.set(200);
+        sessionExpiry.sweep();
+
+        assertFalse(sessionExpiry.touch(1L));
+        assertEquals(0, sessionExpiry.getExpiredCount());
+    }
+
+    @Test
+    public void sweep_newLoginReplacesOldSession() {
+        login(1L);
+        now.set(50);
+        presenceStore.transition(1L, () -> UserStatus.ONLINE, UserStatus.ONLINE, UserStatus.OFFLINE);
+        sessionExpiry.ended(1L);
+        login(1L);
+
+//    make sure the deadline of the first session does not end the second one
+        now.set(100);
+        sessionExpiry.sweep();
+        assertEquals(UserStatus.ONLINE, presenceStore.get(1L));
+
+        now.set(150);
+        sessionExpiry.sweep();
+        assertEquals(UserStatus.OFFLINE, presenceStore.get(1L));
+    }
+
+    @Test
+    public void sweep_statusReadFails_retriedWithNextTick() {
+        Mockito.when(userRepository.findIdsByStatus(UserStatus.ONLINE)).thenReturn(List.of(7L, 8L));
+        Mockito.when(userRepository.findStatusById(7L)).thenThrow(new IllegalStateException("database unavailable")).thenReturn(UserStatus.ONLINE);
+        Mockito.when(userRepository.findStatusById(8L)).thenReturn(UserStatus.ONLINE);
+        sessionExpiry.trackOpenSessions();
+
+        now.set(100);
+        sessionExpiry.sweep();
+
+//    make sure the failure of one session neither aborts the others nor drops it
+        assertEquals(UserStatus.OFFLINE, presenceStore.get(8L));
+        assertNull(presenceStore.get(7L));
+        assertEquals(1, sessionExpiry.getOpenSessionCount());
+
+        now.set(110);
+        sessionExpiry.sweep();
+        assertEquals(UserStatus.OFFLINE, presenceStore.get(7L));
+        assertEquals(0, sessionExpiry.getOpenSessionCount());
+        assertEquals(2, sessionExpiry.getExpiredCount());
+    }
+
+    @Test
+    public void trackOpenSessions_usersOnlineBeforeStart_expire() {
+        Mockito.when(userRepository.findIdsByStatus(UserStatus.ONLINE)).thenReturn(List.of(7L));
+        Mockito.when(userRepository.findStatusById(7L)).thenReturn(UserStatus.ONLINE);
+
+        sessionExpiry.trackOpenSessions();
+        now.set(100);
+        sessionExpiry.sweep();
+
+        assertEquals(UserStatus.OFFLINE, presenceStore.get(7L));
+    }
+}
@@ -0,0 +1,61 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import ch.uzh.ifi.seal.soprafs20.constant.TokenMode;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SessionTokensTest {
+
+    private final SessionTokens sessionTokens = new SessionTokens(TokenMode.SIGNED, "testSecret");
+
+    @Test
+    public void issue_thenVerify_returnsClaims() {
+        String token = sessionTokens.issue(42L, 3L);
+
+        SessionTokens.Claims claims = sessionTokens.verify(token);
+
+        assertNotNull(claims);
+        assertEquals(42L, claims.getUserId());
+        assertEquals(3L, claims.getGeneration());
+        assertTrue(claims.getIssuedAt() > 0);
+    }
+
+    @Test
+    public void verify_tamperedOrForeignToken_returnsNull() {
+        String token = sessionTokens.issue(42L, 0L);
+        String otherUserToken = sessionTokens.issue(43L, 0L);
+        // payload of one user combined with the signature of another
+        String tampered = otherUserToken.substring(0, otherUserToken.indexOf('.')) + token.substring(token.indexOf('.'));
+
+        assertNull(sessionTokens.verify(tampered));
+        assertNull(new SessionTokens(TokenMode.SIGNED, "otherSecret").verify(token));
+        assertNull(sessionTokens.verify(UUID.randomUUID().toString()));
+        assertNull(sessionTokens.verify("not.base64!"));
+    }
+
+    @Test
+    public void revoke_olderGenerationNoLongerCurrent() {
+        SessionTokens.Claims claims = sessionTokens.verify(sessionTokens.issue(42L, 0L));
+        assertTrue(sessionTokens.isCurrent(claims, () -> null));
+
+        sessionTokens.revoke(42L, 0L);
+
+        assertFalse(sessionTokens.isCurrent(claims, () -> null));
+        assertTrue(sessionTokens.isCurrent(sessionTokens.verify(sessionTokens.issue(42L, 1L)), () -> null));
+    }
+
+    @Test
+    public void currentGeneration_unknownUser_seededFromStoredToken() {
+        String storedToken = sessionTokens.issue(42L, 5L);
+
+        // the stored token is only consulted once, afterwards the generation is known in memory
+        assertEquals(5L, sessionTokens.currentGeneration(42L, () -> storedToken));
+        assertEquals(5L, sessionTokens.currentGeneration(42L, () -> {
+            throw new AssertionError("the stored token must not be loaded again");
+        }));
+        assertEquals(0L, sessionTokens.currentGeneration(7L, () -> UUID.randomUUID().toString()));
+    }
+}
@@ -0,0 +1,85 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TimingWheelTest {
+
+    @Test
+    public void advance_expiresExactlyAtDeadline() {
+        TimingWheel<String> wheel = new TimingWheel<>(0);
+        wheel.schedule("soon", 5);
+        wheel.schedule("later", 70);
+        List<String> expired = new ArrayList<>();
+
+        wheel.advance(4, expired::add);
+        assertTrue(expired.isEmpty());
+        wheel.advance(5, expired::add);
+        assertEquals(List.of("soon"), expired);
+
+//    make sure the entry from the coarser level is moved down and expires on its tick, not on the boundary
+        wheel.advance(69, expired::add);
+        assertEquals(List.of("soon"), expired);
+        wheel.advance(70, expired::add);
+        assertEquals(List.of("soon", "later"), expired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void schedule_pastDeadline_expiresWithNextTick() {
+        TimingWheel<String> wheel = new TimingWheel<>(100);
+        wheel.schedule("late", 50);
+        List<String> expired = new ArrayList<>();
+
+        wheel.advance(101, expired::add);
+
+        assertEquals(List.of("late"), expired);
+    }
+
+    @Test
+    public void schedule_beyondRange_expiresAtDeadline() {
+        TimingWheel<String> wheel = new TimingWheel<>(0);
+        long deadline = 40_000_000L;
+        wheel.schedule("far", deadline);
+        List<String> expired = new ArrayList<>();
+
+        wheel.advance(deadline - 1, expired::add);
+        assertTrue(expired.isEmpty());
+        wheel.advance(deadline, expired::add);
+        assertEquals(List.of("far"), expired);
+    }
+
+    @Test
+    public void advance_randomDeadlines_eachExpiresInTheStepOfItsDeadline() {
+        Random random = new Random(42);
+        long start = 123_456;
+        TimingWheel<Long> wheel = new TimingWheel<>(start);
+        List<Long> deadlines = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            long deadline = start + 1 + random.nextInt(500_000);
+            deadlines.add(deadline);
+            wheel.schedule(deadline, deadline);
+        }
+
+        int expiredCount = 0;
+        long tick = start;
+        while (tick < start + 500_001) {
+            long previous = tick;
+            tick = Math.min(start + 500_001, tick + 1 + random.nextInt(3000));
+            List<Long> expired = new ArrayList<>();
+            wheel.advance(tick, expired::add);
+            for (long deadline : expired) {
+                assertTrue(deadline > previous && deadline <= tick);
+            }
+            expiredCount += expired.size();
+        }
+
+        assertEquals(deadlines.size(), expiredCount);
+        assertEquals(0, wheel.size());
+    }
+}
@@ -0,0 +1,73 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import ch.uzh.ifi.seal.soprafs20.constant.UserStatus;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TokenCacheTest {
+
+    private final AtomicLong now = new AtomicLong();
+
+    private TokenCache tokenCache;
+
+    @BeforeEach
+    public void setup() {
+        // given -> room for two sessions that live for 100 ticks of the fake clock
+        tokenCache = new TokenCache(2, 100, now::get);
+    }
+
+    @Test
+    public void get_cachedToken_hit() {
+        tokenCache.put("token", 1L, UserStatus.ONLINE);
+
+        TokenCache.Entry entry = tokenCache.get("token");
+
+        assertEquals(1L, entry.getUserId());
+        assertEquals(UserStatus.ONLINE, entry.getStatus());
+        assertEquals(1, tokenCache.getHitCount());
+        assertEquals(0, tokenCache.getMissCount());
+    }
+
+    @Test
+    public void get_unknownToken_miss() {
+        assertNull(tokenCache.get("unknown"));
+        assertEquals(1, tokenCache.getMissCount());
+    }
+
+    @Test
+    public void get_expiredToken_evictedAndMiss() {
+        tokenCache.put("token", 1L, UserStatus.ONLINE);
+        now.addAndGet(100);
+
+        assertNull(tokenCache.get("token"));
+        assertEquals(1, tokenCache.getEvictionCount());
+        assertEquals(0, tokenCache.size());
+    }
+
+    @Test
+    public void put_overCapacity_evictsLeastRecentlyUsed() {
+        tokenCache.put("first", 1L, UserStatus.ONLINE);
+        tokenCache.put("second", 2L, UserStatus.ONLINE);
+        // touch the first token so the second one becomes the eldest
+        tokenCache.get("first");
+        tokenCache.put("third", 3L, UserStatus.OFFLINE);
+
+        assertEquals(2, tokenCache.size());
+        assertEquals(1, tokenCache.getEvictionCount());
+        assertNotNull(tokenCache.get("first"));
+        assertNull(tokenCache.get("second"));
+        assertNotNull(tokenCache.get("third"));
+    }
+
+    @Test
+    public void invalidate_removesToken() {
+        tokenCache.put("token", 1L, UserStatus.ONLINE);
+        tokenCache.invalidate("token");
+
+        assertNull(tokenCache.get("token"));
+    }
+}
@@ -0,0 +1,189 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import ch.uzh.ifi.seal.soprafs20.constant.OverflowPolicy;
+import ch.uzh.ifi.seal.soprafs20.entity.User;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserEventBroadcasterTest {
+
+    private final List<Runnable> pendingTasks = new ArrayList<>();
+
+    // given -> events are sent right away on the publishing thread
+    private UserEventBroadcaster directBroadcaster(int replaySize, int bufferSize) {
+        return new UserEventBroadcaster(new ObjectMapper(), replaySize, bufferSize, OverflowPolicy.DROP_OLDEST, 0L, 0L,
+                Runnable::run);
+    }
+
+    // given -> events are only sent once the collected dispatch tasks are run, i.e. every subscriber is slow
+    private UserEventBroadcaster slowBroadcaster(int bufferSize, OverflowPolicy overflowPolicy) {
+        return new UserEventBroadcaster(new ObjectMapper(), 16, bufferSize, overflowPolicy, 0L, 0L, pendingTasks::add);
+    }
+
+    private static User user(long id, String username) {
+        User user = new User();
+        user.setId(id);
+        user.setUsername(username);
+        return user;
+    }
+
+    @Test
+    public void onUserEvent_deliveredToEverySubscriber() {
+        UserEventBroadcaster broadcaster = directBroadcaster(16, 16);
+        RecordingEmitter first = new RecordingEmitter();
+        RecordingEmitter second = new RecordingEmitter();
+        broadcaster.register(first, null);
+        broadcaster.register(second, null);
+
+        broadcaster.onUserEvent(UserEvent.loggedIn(1L));
+
+        for (RecordingEmitter emitter : List.of(first, second)) {
+            assertEquals(1, emitter.getEvents().size());
+            String event = emitter.getEvents().get(0);
+            assertTrue(event.contains("event:LOGGED_IN"));
+            assertTrue(event.contains("\"userId\":1"));
+            assertTrue(event.contains("\"status\":\"ONLINE\""));
+            // fields that are not part of the change are left out
+            assertFalse(event.contains("username"));
+        }
+    }
+
+    @Test
+    public void register_lastEventId_replaysMissedEvents() {
+        UserEventBroadcaster broadcaster = directBroadcaster(16, 16);
+        RecordingEmitter first = new RecordingEmitter();
+        broadcaster.register(first, null);
+        broadcaster.onUserEvent(UserEvent.created(user(1L, "first")));
+        broadcaster.onUserEvent(UserEvent.renamed(user(1L, "renamed")));
+        broadcaster.onUserEvent(UserEvent.loggedIn(1L));
+
+        RecordingEmitter reconnected = new RecordingEmitter();
+        broadcaster.register(reconnected, RecordingEmitter.idOf(first.getEvents().get(0)));
+
+//    make sure exactly the events after the given id are replayed, in order
+        assertEquals(first.getEvents().subList(1, 3), reconnected.getEvents());
+    }
+
+    @Test
+    public void register_lastEventIdOutOfReplayWindow_sendsReset() {
+        UserEventBroadcaster broadcaster = directBroadcaster(2, 16);
+        RecordingEmitter first = new RecordingEmitter();
+        broadcaster.register(first, null);
+        for (long id = 1; id <= 4; id++) broadcaster.onUserEvent(UserEvent.loggedIn(id));
+
+        RecordingEmitter reconnected = new RecordingEmitter();
+        broadcaster.register(reconnected, RecordingEmitter.idOf(first.getEvents().get(0)));
+
+        assertEquals(1, reconnected.getEvents().size());
+        assertTrue(reconnected.getEvents().get(0).contains("event:" + UserEventBroadcaster.RESET_EVENT));
+//    make sure the reset carries the latest id, so the next reconnect resumes from there
+        assertEquals(RecordingEmitter.idOf(first.getEvents().get(3)), RecordingEmitter.idOf(reconnected.getEvents().get(0)));
+    }
+
+    @Test
+    public void register_lastEventIdOfOtherRun_sendsReset() {
+        UserEventBroadcaster broadcaster = directBroadcaster(16, 16);
+        RecordingEmitter emitter = new RecordingEmitter();
+
+        broadcaster.register(emitter, "someOtherEpoch-1");
+
+        assertTrue(emitter.getEvents().get(0).contains("event:" + UserEventBroadcaster.RESET_EVENT));
+    }
+
+    @Test
+    public void slowSubscriber_dropOldest_keepsNewestEvents() {
+        UserEventBroadcaster broadcaster = slowBroadcaster(2, OverflowPolicy.DROP_OLDEST);
+        RecordingEmitter emitter = new RecordingEmitter();
+        broadcaster.register(emitter, null);
+
+        for (long id = 1; id <= 3; id++) broadcaster.onUserEvent(UserEvent.loggedIn(id));
+        pendingTasks.forEach(Runnable::run);
+
+        assertEquals(1, broadcaster.getDroppedCount());
+        assertEquals(2, emitter.getEvents().size());
+        assertTrue(emitter.getEvents().get(0).contains("\"userId\":2"));
+        assertTrue(emitter.getEvents().get(1).contains("\"userId\":3"));
+    }
+
+    @Test
+    public void slowSubscriber_disconnect_removesSubscriber() {
+        UserEventBroadcaster broadcaster = slowBroadcaster(2, OverflowPolicy.DISCONNECT);
+        broadcaster.register(new RecordingEmitter(), null);
+
+        for (long id = 1; id <= 3; id++) broadcaster.onUserEvent(UserEvent.loggedIn(id));
+
+        assertEquals(1, broadcaster.getDisconnectedCount());
+        assertEquals(0, broadcaster.getSubscriberCount());
+    }
+
+    @Test
+    public void blockedSubscriber_writeTimeout_healthySubscriberStillReceivesEvents() throws InterruptedException {
+        // given -> a single dispatch thread, which the blocked subscriber takes
+        ExecutorService dispatcher = new ThreadPoolExecutor(1, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>());
+        UserEventBroadcaster broadcaster = new UserEventBroadcaster(new ObjectMapper(), 16, 16,
+                OverflowPolicy.DROP_OLDEST, 0L, 50L, dispatcher);
+        CountDownLatch sending = new CountDownLatch(1);
+        CountDownLatch unblock = new CountDownLatch(1);
+        // a client that keeps its socket open but stopped reading
+        RecordingEmitter blocked = new RecordingEmitter() {
+            @Override
+            public void send(SseEventBuilder builder) {
+                sending.countDown();
+                try {
+                    unblock.await();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        RecordingEmitter healthy = new RecordingEmitter();
+        broadcaster.register(blocked, null);
+        broadcaster.register(healthy, null);
+
+        try {
+            broadcaster.onUserEvent(UserEvent.loggedIn(1L));
+            assertTrue(sending.await(5, TimeUnit.SECONDS));
+            // queued behind the blocked send, whichever subscriber was dispatched first
+            broadcaster.onUserEvent(UserEvent.loggedIn(2L));
+            Thread.sleep(100);
+            broadcaster.expireStalledSends();
+
+//    make sure the blocked subscriber is disconnected and the healthy one gets every event
+            assertEquals(2, healthy.awaitEvents(2).size());
+            assertEquals(1, broadcaster.getDisconnectedCount());
+            assertEquals(1, broadcaster.getSubscriberCount());
+        }
+        finally {
+            unblock.countDown();
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void onUserEvent_thousandsOfIdleSubscribers_allReceiveIt() {
+        UserEventBroadcaster broadcaster = directBroadcaster(16, 16);
+        List<RecordingEmitter> emitters = new ArrayList<>();
+        for (int i = 0; i < 5000; i++) {
+            RecordingEmitter emitter = new RecordingEmitter();
+            emitters.add(emitter);
+            broadcaster.register(emitter, null);
+        }
+
+        broadcaster.onUserEvent(UserEvent.loggedOut(1L));
+
+        assertEquals(5000, broadcaster.getSubscriberCount());
+        for (RecordingEmitter emitter : emitters) assertEquals(1, emitter.getEvents().size());
+    }
+}
@@ -3,7 +3,12 @@ package ch.uzh.ifi.seal.soprafs20.service;
 import ch.uzh.ifi.seal.soprafs20.constant.UserStatus;
 import ch.uzh.ifi.seal.soprafs20.entity.User;
 import ch.uzh.ifi.seal.soprafs20.exceptions.*;
+import ch.uzh.ifi.seal.soprafs20.repository.UserChangeVersions;
 import ch.uzh.ifi.seal.soprafs20.repository.UserRepository;
+import ch.uzh.ifi.seal.soprafs20.repository.UserTombstoneRepository;
+import ch.uzh.ifi.seal.soprafs20.rest.dto.UserChangesGetDTO;
+import ch.uzh.ifi.seal.soprafs20.rest.dto.UserGetDTO;
+import org.hibernate.SessionFactory;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -11,9 +16,17 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static ch.uzh.ifi.seal.soprafs20.metrics.StatementCountAssertions.assertStatementCount;
 import static org.junit.jupiter.api.Assertions.*;
 
 /**
@@ -29,12 +42,41 @@ public class UserServiceIntegrationTest {
     @Autowired
     private UserRepository userRepository;
 
+    @Qualifier("userTombstoneRepository")
+    @Autowired
+    private UserTombstoneRepository userTombstoneRepository;
+
     @Autowired
     private UserService userService;
 
+    @Autowired
+    private TokenCache tokenCache;
+
+    @Autowired
+    private PresenceStore presenceStore;
+
+    @Autowired
+    private UserEventBroadcaster userEventBroadcaster;
+
+    @Autowired
+    private UserDirectoryVersion userDirectoryVersion;
+
+    @Autowired
+    private UserCacheStatistics userCacheStatistics;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private UserChangeVersions userChangeVersions;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
     @AfterEach
     public void setup() {
         userRepository.deleteAll();
+        userTombstoneRepository.deleteAll();
     }
 
 
@@ -80,6 +122,83 @@ public class UserServiceIntegrationTest {
         assertEquals(exceptionMessage, exception.getMessage());
     }
 
+    @Test
+    public void createUser_concurrentDuplicateUsername_exactlyOneWins() throws Exception {
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger created = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+
+//        all threads try to register the same username at the same time
+        for (int i = 0; i < threads; i++) {
+            futures.add(executor.submit(() -> {
+                User testUser = new User();
+                testUser.setUsername("testUsername");
+                testUser.setPassword("testPassword");
+                start.await();
+                try {
+                    userService.createUser(testUser);
+                    created.incrementAndGet();
+                }
+                catch (UsernameAlreadyExists e) {
+                    rejected.incrementAndGet();
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) future.get(30, TimeUnit.SECONDS);
+        executor.shutdown();
+
+//    make sure the unique constraint lets exactly one registration through
+        assertEquals(1, created.get());
+        assertEquals(threads - 1, rejected.get());
+        assertEquals(1, userRepository.count());
+    }
+
+    @Test
+    public void createUsers_batch_createsValidUsersAndReportsErrors() {
+        User existingUser = new User();
+        existingUser.setUsername("taken");
+        existingUser.setPassword("testPassword");
+        userService.createUser(existingUser);
+
+//        given more users than fit into one chunk, plus a taken, an empty and a repeated username
+        List<User> newUsers = new ArrayList<>();
+        for (int i = 0; i < 120; i++) {
+            User newUser = new User();
+            newUser.setUsername("testUsername" + i);
+            newUser.setPassword("testPassword");
+            newUsers.add(newUser);
+        }
+        User takenUser = new User();
+        takenUser.setUsername("taken");
+        takenUser.setPassword("testPassword");
+        newUsers.add(60, takenUser);
+        User emptyUser = new User();
+        emptyUser.setUsername("");
+        emptyUser.setPassword("testPassword");
+        newUsers.add(emptyUser);
+        User repeatedUser = new User();
+        repeatedUser.setUsername("testUsername0");
+        repeatedUser.setPassword("testPassword");
+        newUsers.add(repeatedUser);
+
+        List<RegistrationResult> results = userService.createUsers(newUsers);
+
+//    make sure every valid user is created and every invalid one reports its own error
+        assertEquals(newUsers.size(), results.size());
+        assertEquals(121, userRepository.count());
+        assertNotNull(results.get(0).getUser().getId());
+        assertNotNull(results.get(60).getError());
+        assertNotNull(results.get(61).getUser());
+        assertEquals("Username and/or password can't consist of an empty string!", results.get(121).getError());
+        assertNotNull(results.get(122).getError());
+        assertNotNull(userRepository.findByUsername("testUsername119"));
+    }
+
     @Test
     public void createUser_emptyStrings_throwsException() {
         assertNull(userRepository.findByUsername("testUsername"));
@@ -118,7 +237,7 @@ public class UserServiceIntegrationTest {
         testUser.setPassword("testPassword");
         User newUser=userService.createUser(testUser);
 
-        User loggedInUser=userService.loginUser(newUser);
+        User loggedInUser=userService.loginUser(credentials("testUsername", "testPassword"));
 
 //        check if everything has gone right
         assertEquals(loggedInUser.getStatus(),UserStatus.ONLINE);
@@ -140,13 +259,188 @@ public class UserServiceIntegrationTest {
         User newUser=userService.createUser(testUser);
 
 //        loginUser
-        userService.loginUser(newUser);
+        userService.loginUser(credentials("testUsername", "testPassword"));
 
         // check that an error is thrown if user is already logged in
-        assertThrows(UserAlreadyLoggedIn.class, () -> userService.loginUser(newUser));
+        assertThrows(UserAlreadyLoggedIn.class, () -> userService.loginUser(credentials("testUsername", "testPassword")));
 
     }
 
+    @Test
+    public void login_concurrentLogins_exactlyOneWins() throws Exception {
+        User testUser = new User();
+        testUser.setUsername("testUsername");
+        testUser.setPassword("testPassword");
+        User newUser=userService.createUser(testUser);
+
+//        all threads try to log in the same user at the same time
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger loggedIn = new AtomicInteger();
+        AtomicInteger alreadyLoggedIn = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            futures.add(executor.submit(() -> {
+                User credentials = new User();
+                credentials.setUsername("testUsername");
+                credentials.setPassword("testPassword");
+                start.await();
+                try {
+                    userService.loginUser(credentials);
+                    loggedIn.incrementAndGet();
+                }
+                catch (UserAlreadyLoggedIn e) {
+                    alreadyLoggedIn.incrementAndGet();
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) future.get(30, TimeUnit.SECONDS);
+        executor.shutdown();
+
+//    make sure the presence store lets exactly one login through
+        assertEquals(1, loggedIn.get());
+        assertEquals(threads - 1, alreadyLoggedIn.get());
+        presenceStore.flush();
+        assertEquals(UserStatus.ONLINE, userRepository.findByToken(newUser.getToken()).getStatus());
+    }
+
+    @Test
+    public void logout_concurrentLogouts_exactlyOneWins() throws Exception {
+        User testUser = new User();
+        testUser.setUsername("testUsername");
+        testUser.setPassword("testPassword");
+        User newUser=userService.createUser(testUser);
+        userService.loginUser(credentials("testUsername", "testPassword"));
+
+//        all threads try to log out the same session at the same time
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger loggedOut = new AtomicInteger();
+        AtomicInteger alreadyLoggedOut = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            futures.add(executor.submit(() -> {
+                User session = new User();
+                session.setToken(newUser.getToken());
+                start.await();
+                try {
+                    userService.logOutUser(session);
+                    loggedOut.incrementAndGet();
+                }
+                catch (UserAlreadyLoggedOut e) {
+                    alreadyLoggedOut.incrementAndGet();
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) future.get(30, TimeUnit.SECONDS);
+        executor.shutdown();
+
+//    make sure the presence store lets exactly one logout through
+        assertEquals(1, loggedOut.get());
+        assertEquals(threads - 1, alreadyLoggedOut.get());
+        presenceStore.flush();
+        assertEquals(UserStatus.OFFLINE, userRepository.findByToken(newUser.getToken()).getStatus());
+    }
+
+    @Test
+    public void login_statusIsReadFromPresenceAndWrittenBehind() {
+        User testUser = new User();
+        testUser.setUsername("testUsername");
+        testUser.setPassword("testPassword");
+        User newUser=userService.createUser(testUser);
+
+        userService.loginUser(credentials("testUsername", "testPassword"));
+
+//    make sure reads see the new status right away and the database catches up with the flush
+        User profileRequest = new User();
+        profileRequest.setId(newUser.getId());
+        assertEquals(UserStatus.ONLINE, userService.getUserProfile(profileRequest).getStatus());
+        assertEquals(UserStatus.ONLINE, userService.getUsers(0, 10).get(0).getStatus());
+        presenceStore.flush();
+        assertEquals(0, presenceStore.getPendingCount());
+        assertEquals(UserStatus.ONLINE, userRepository.findByUsername("testUsername").getStatus());
+    }
+
+    @Test
+    public void heartbeat_onlyKeepsOpenSessionsAlive() {
+        User testUser = new User();
+        testUser.setUsername("testUsername");
+        testUser.setPassword("testPassword");
+        User newUser=userService.createUser(testUser);
+        User session = new User();
+        session.setToken(newUser.getToken());
+
+//    make sure a heartbeat is accepted while logged in and rejected once the session is gone
+        userService.loginUser(credentials("testUsername", "testPassword"));
+        userService.heartbeat(session);
+        userService.logOutUser(session);
+        assertThrows(UserCredentialsWrong.class, () -> userService.heartbeat(session));
+    }
+
+    @Test
+    public void events_publishedForCommittedChangesOnly() throws Exception {
+        RecordingEmitter emitter = new RecordingEmitter();
+        userEventBroadcaster.register(emitter, null);
+
+        User testUser = new User();
+        testUser.setUsername("testUsername");
+        testUser.setPassword("testPassword");
+        userService.createUser(testUser);
+        User duplicate = new User();
+        duplicate.setUsername("testUsername");
+        duplicate.setPassword("otherPassword");
+        assertThrows(UsernameAlreadyExists.class, () -> userService.createUser(duplicate));
+        userService.loginUser(credentials("testUsername", "testPassword"));
+
+//    make sure the rolled back registration did not produce an event
+        List<String> events = emitter.awaitEvents(2);
+        Thread.sleep(100);
+        assertEquals(2, events.size());
+        assertTrue(events.get(0).contains("event:CREATED"));
+        assertTrue(events.get(1).contains("event:LOGGED_IN"));
+    }
+
+    @Test
+    public void createUser_passwordIsStoredHashed() {
+        User testUser = new User();
+        testUser.setUsername("testUsername");
+        testUser.setPassword("testPassword");
+        userService.createUser(testUser);
+
+//    make sure the plaintext never reaches the database
+        String stored = userRepository.findByUsername("testUsername").getPassword();
+        assertNotEquals("testPassword", stored);
+        assertTrue(stored.startsWith("pbkdf2-sha256$"));
+    }
+
+    @Test
+    public void login_legacyPlaintextPassword_migratedToHash() {
+//        given a user that was stored before passwords were hashed
+        User legacyUser = new User();
+        legacyUser.setUsername("testUsername");
+        legacyUser.setPassword("testPassword");
+        legacyUser.setToken("legacyToken");
+        legacyUser.setStatus(UserStatus.OFFLINE);
+        legacyUser.setAccountCreationDate(new Date());
+        userRepository.saveAndFlush(legacyUser);
+
+        userService.loginUser(credentials("testUsername", "testPassword"));
+
+//    make sure the login succeeded and replaced the plaintext by a hash that still verifies
+        presenceStore.flush();
+        User migratedUser = userRepository.findByUsername("testUsername");
+        assertEquals(UserStatus.ONLINE, migratedUser.getStatus());
+        assertTrue(migratedUser.getPassword().startsWith("pbkdf2-sha256$"));
+        userService.logOutUser(migratedUser);
+        assertEquals(UserStatus.ONLINE, userService.loginUser(credentials("testUsername", "testPassword")).getStatus());
+    }
+
     @Test
     public void login_invalidCredentials() {
         assertNull(userRepository.findByUsername("testUsername"));
@@ -183,12 +477,31 @@ public class UserServiceIntegrationTest {
         testUser.setPassword("testPassword");
         User newUser=userService.createUser(testUser);
 
-        userService.loginUser(newUser);
+        userService.loginUser(credentials("testUsername", "testPassword"));
         userService.logOutUser(newUser);
 
         assertEquals(newUser.getStatus(), UserStatus.OFFLINE);
     }
 
+    @Test
+    public void logout_twice_secondLogoutServedFromTokenCache() {
+        assertNull(userRepository.findByUsername("testUsername"));
+
+        User testUser = new User();
+        testUser.setUsername("testUsername");
+        testUser.setPassword("testPassword");
+        User newUser=userService.createUser(testUser);
+
+        userService.loginUser(credentials("testUsername", "testPassword"));
+        userService.logOutUser(newUser);
+        long hitsBefore = tokenCache.getHitCount();
+
+//    make sure the cached offline session rejects the second logout
+        assertThrows(UserAlreadyLoggedOut.class, () -> userService.logOutUser(newUser));
+        assertEquals(hitsBefore + 1, tokenCache.getHitCount());
+        assertEquals(UserStatus.OFFLINE, tokenCache.get(newUser.getToken()).getStatus());
+    }
+
     @Test
     public void logout_invalid_Token() {
         assertNull(userRepository.findByUsername("testUsername"));
@@ -302,6 +615,85 @@ public class UserServiceIntegrationTest {
         assertEquals(exception.getMessage(),exceptionMsg);
     }
 
+    @Test
+    public void update_ifMatch_rejectsStaleWriters() {
+        User testUser = new User();
+        testUser.setUsername("testUsername");
+        testUser.setPassword("testPassword");
+        User newUser=userService.createUser(testUser);
+        String eTag = userService.getUserETag(newUser);
+
+        User update = new User();
+        update.setToken(newUser.getToken());
+        update.setUsername("first");
+        userService.updateUser(update, newUser.getId().toString(), eTag);
+
+//    make sure the second writer with the same tag is rejected and the tag has moved on
+        update.setUsername("second");
+        assertThrows(UserVersionMismatch.class, () -> userService.updateUser(update, newUser.getId().toString(), eTag));
+        assertEquals("first", userRepository.findByToken(newUser.getToken()).getUsername());
+        assertNotEquals(eTag, userService.getUserETag(newUser));
+        assertThrows(UserVersionMismatch.class, () -> userService.updateUser(update, newUser.getId().toString(), "W/" + userService.getUserETag(newUser)));
+        userService.updateUser(update, newUser.getId().toString(), "*");
+        assertEquals("second", userRepository.findByToken(newUser.getToken()).getUsername());
+    }
+
+    @Test
+    public void update_concurrentWriters_noneLost() throws Exception {
+        User testUser = new User();
+        testUser.setUsername("testUsername");
+        testUser.setPassword("testPassword");
+        User newUser=userService.createUser(testUser);
+
+        // given -> three writers that change the birthday of the same user at the same time
+        int writers = 3;
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> results = new ArrayList<>();
+        for (int i = 0; i < writers; i++) {
+            Date birthday = new Date(1_000_000_000L * (i + 1));
+            results.add(executor.submit(() -> {
+                start.await();
+                User update = new User();
+                update.setToken(newUser.getToken());
+                update.setBirthday(birthday);
+                userService.updateUser(update, newUser.getId().toString());
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> result : results) result.get(10, TimeUnit.SECONDS);
+        executor.shutdown();
+
+//    make sure every write was applied on top of the others: a writer loses at most twice, within the retry limit
+        assertEquals(writers, userRepository.findByToken(newUser.getToken()).getVersion());
+    }
+
+    @Test
+    public void userETags_moveWithCommittedChanges() {
+        String usersETag = userDirectoryVersion.getETag();
+        User testUser = new User();
+        testUser.setUsername("testUsername");
+        testUser.setPassword("testPassword");
+        User newUser=userService.createUser(testUser);
+        String userETag = userService.getUserETag(newUser);
+
+//    make sure a login changes both tags before it reaches the database
+        assertNotEquals(usersETag, userDirectoryVersion.getETag());
+        usersETag = userDirectoryVersion.getETag();
+        userService.loginUser(credentials("testUsername", "testPassword"));
+        assertNotEquals(usersETag, userDirectoryVersion.getETag());
+        assertNotEquals(userETag, userService.getUserETag(newUser));
+
+//    make sure a failed write does not
+        usersETag = userDirectoryVersion.getETag();
+        User duplicate = new User();
+        duplicate.setUsername("testUsername");
+        duplicate.setPassword("otherPassword");
+        assertThrows(UsernameAlreadyExists.class, () -> userService.createUser(duplicate));
+        assertEquals(usersETag, userDirectoryVersion.getETag());
+    }
+
     @Test
     public void getUser_userIdExists() {
         assertNull(userRepository.findByUsername("testUsername"));
@@ -320,6 +712,23 @@ public class UserServiceIntegrationTest {
         assertEquals(getUser.getToken(), newUser.getToken());
     }
 
+    @Test
+    public void getUserProfile_userIdExists() {
+        assertNull(userRepository.findByUsername("testUsername"));
+
+        User testUser = new User();
+        testUser.setUsername("testUsername");
+        testUser.setPassword("testPassword");
+        User newUser=userService.createUser(testUser);
+        UserGetDTO profile=userService.getUserProfile(newUser);
+
+//    make sure the projection carries the public fields of the user
+        assertEquals(newUser.getId(), profile.getId());
+        assertEquals(newUser.getUsername(), profile.getUsername());
+        assertEquals(newUser.getStatus(), profile.getStatus());
+        assertNotNull(profile.getAccountCreationDate());
+    }
+
     @Test
     public void getUser_userIdDoesNotExists() {
         assertNull(userRepository.findByUsername("testUsername"));
@@ -336,4 +745,326 @@ public class UserServiceIntegrationTest {
         UserNotAvailable exception= assertThrows(UserNotAvailable.class, () -> userService.getUser(newUser));
         assertEquals(exception.getMessage(),exceptionMsg);
     }
+
+    @Test
+    public void getUsers_keysetPagination_returnsConsecutivePages() {
+        for (int i = 0; i < 5; i++) {
+            User testUser = new User();
+            testUser.setUsername("testUsername" + i);
+            testUser.setPassword("testPassword");
+            userService.createUser(testUser);
+        }
+
+        List<UserGetDTO> firstPage = userService.getUsers(0L, 2);
+        List<UserGetDTO> secondPage = userService.getUsers(firstPage.get(1).getId(), 2);
+        List<UserGetDTO> lastPage = userService.getUsers(secondPage.get(1).getId(), 2);
+
+//    make sure the pages are ordered by id, do not overlap and the last one is only partially filled
+        assertEquals(2, firstPage.size());
+        assertEquals(2, secondPage.size());
+        assertEquals(1, lastPage.size());
+        assertTrue(firstPage.get(1).getId() < secondPage.get(0).getId());
+        assertEquals("testUsername4", lastPage.get(0).getUsername());
+    }
+
+    @Test
+    public void getUsers_limitAboveMaximum_isClamped() {
+        assertEquals(UserService.MAX_PAGE_SIZE, UserService.pageSize(Integer.MAX_VALUE));
+        assertEquals(1, UserService.pageSize(0));
+    }
+
+    @Test
+    public void exportUsers_streamsAllUsersInIdOrder() {
+        for (int i = 0; i < 3; i++) {
+            User testUser = new User();
+            testUser.setUsername("testUsername" + i);
+            testUser.setPassword("testPassword");
+            userService.createUser(testUser);
+        }
+
+        List<String> exported = new ArrayList<>();
+        userService.exportUsers(user -> exported.add(user.getUsername()));
+
+//    make sure every user is handed to the sink exactly once and in id order
+        assertEquals(List.of("testUsername0", "testUsername1", "testUsername2"), exported);
+    }
+
+    @Test
+    public void getUserChanges_returnsOnlyChangesSinceVersion() {
+        User first = new User();
+        first.setUsername("testUsername0");
+        first.setPassword("testPassword");
+        first = userService.createUser(first);
+        User second = new User();
+        second.setUsername("testUsername1");
+        second.setPassword("testPassword");
+        second = userService.createUser(second);
+
+        UserChangesGetDTO initialSync = userService.getUserChanges(0L, 100);
+        assertEquals(2, initialSync.getUsers().size());
+        assertFalse(initialSync.isMore());
+
+        User update = new User();
+        update.setToken(first.getToken());
+        update.setBirthday(new Date());
+        userService.updateUser(update, first.getId().toString());
+        User deletion = new User();
+        deletion.setToken(second.getToken());
+        userService.deleteUser(deletion, second.getId().toString());
+
+//    make sure the next sync only carries the changed user and the tombstone of the deleted one
+        UserChangesGetDTO delta = userService.getUserChanges(initialSync.getVersion(), 100);
+        assertEquals(1, delta.getUsers().size());
+        assertEquals(first.getId(), delta.getUsers().get(0).getId());
+        assertNotNull(delta.getUsers().get(0).getBirthday());
+        assertEquals(List.of(second.getId()), delta.getDeletedUserIds());
+        assertTrue(delta.getVersion() > initialSync.getVersion());
+        assertTrue(userService.getUserChanges(delta.getVersion(), 100).getUsers().isEmpty());
+    }
+
+    @Test
+    public void getUserChanges_pagesByVersion() {
+        for (int i = 0; i < 3; i++) {
+            User testUser = new User();
+            testUser.setUsername("testUsername" + i);
+            testUser.setPassword("testPassword");
+            userService.createUser(testUser);
+        }
+
+        UserChangesGetDTO firstPage = userService.getUserChanges(0L, 2);
+        UserChangesGetDTO secondPage = userService.getUserChanges(firstPage.getVersion(), 2);
+
+        assertEquals(2, firstPage.getUsers().size());
+        assertTrue(firstPage.isMore());
+        assertEquals(1, secondPage.getUsers().size());
+        assertEquals("testUsername2", secondPage.getUsers().get(0).getUsername());
+    }
+
+    @Test
+    public void getUserChanges_writeInFlight_cursorStaysBelowIt() {
+        userService.createUser(credentials("testUsername0", "testPassword"));
+        long initialVersion = userService.getUserChanges(0L, 100).getVersion();
+
+        new TransactionTemplate(transactionManager).execute(status -> {
+            // a write that has taken its version but not committed yet, a later one commits meanwhile
+            userChangeVersions.next();
+            userService.createUser(credentials("testUsername1", "testPassword"));
+
+//    make sure the later version is held back, the cursor must not move past the write in flight
+            UserChangesGetDTO sync = userService.getUserChanges(initialVersion, 100);
+            assertTrue(sync.getUsers().isEmpty());
+            assertEquals(initialVersion, sync.getVersion());
+            return null;
+        });
+
+        UserChangesGetDTO sync = userService.getUserChanges(initialVersion, 100);
+        assertEquals(1, sync.getUsers().size());
+        assertEquals("testUsername1", sync.getUsers().get(0).getUsername());
+    }
+
+    @Test
+    public void getUserChanges_bulkStatusWrite_notSplitAcrossPages() {
+        for (int i = 0; i < 3; i++) userService.createUser(credentials("testUsername" + i, "testPassword"));
+        long initialVersion = userService.getUserChanges(0L, 100).getVersion();
+        for (int i = 0; i < 3; i++) userService.loginUser(credentials("testUsername" + i, "testPassword"));
+        // one bulk UPDATE, all three users share its change version
+        presenceStore.flush();
+
+//    make sure the page takes all users of the version, the cursor would skip the ones left out
+        UserChangesGetDTO page = userService.getUserChanges(initialVersion, 2);
+        assertEquals(3, page.getUsers().size());
+        page.getUsers().forEach(user -> assertEquals(UserStatus.ONLINE, user.getStatus()));
+        assertTrue(userService.getUserChanges(page.getVersion(), 2).getUsers().isEmpty());
+    }
+
+    @Test
+    public void getUserProfile_repeatedReads_servedFromCache() {
+        User testUser = new User();
+        testUser.setUsername("testUsername");
+        testUser.setPassword("testPassword");
+        User newUser = userService.createUser(testUser);
+        // no status write of an earlier test may evict the cache in between
+        presenceStore.flush();
+        userService.getUserProfile(newUser);
+
+        long statements = userCacheStatistics.getStatementCount();
+        long hits = userCacheStatistics.getHitCount();
+        for (int i = 0; i < 5; i++) {
+            userService.getUserETag(newUser);
+            assertEquals("testUsername", userService.getUserProfile(newUser).getUsername());
+        }
+
+//    make sure the reads did not go to the database
+        assertEquals(statements, userCacheStatistics.getStatementCount());
+        assertTrue(userCacheStatistics.getHitCount() >= hits + 10);
+    }
+
+    @Test
+    public void presenceFlush_otherUsersStayCached() {
+        User loggedIn = userService.createUser(credentials("testUsername0", "testPassword"));
+        User other = userService.createUser(credentials("testUsername1", "testPassword"));
+        presenceStore.flush();
+        userService.getUserProfile(loggedIn);
+        userService.getUserProfile(other);
+
+        userService.loginUser(credentials("testUsername0", "testPassword"));
+        presenceStore.flush();
+
+//    make sure the flush only invalidates the user it wrote, the other one is still served from the cache
+        assertStatementCount(0, () -> userRepository.findById(other.getId()));
+        assertEquals(UserStatus.ONLINE, assertStatementCount(1, () -> userRepository.findById(loggedIn.getId())).get().getStatus());
+    }
+
+    @Test
+    public void replaceToken_insideTransaction_laterChangesOfManagedUsersKept() {
+        User written = userService.createUser(credentials("testUsername0", "testPassword"));
+        User other = userService.createUser(credentials("testUsername1", "testPassword"));
+
+        new TransactionTemplate(transactionManager).execute(status -> {
+            User managedWritten = userRepository.findById(written.getId()).get();
+            User managedOther = userRepository.findById(other.getId()).get();
+            userRepository.replaceToken(written.getId(), "replacedToken");
+
+//    make sure both users stay managed and the written one carries the new token
+            assertEquals("replacedToken", managedWritten.getToken());
+            managedWritten.setUsername("renamed0");
+            managedOther.setUsername("renamed1");
+            return null;
+        });
+
+        User storedWritten = userRepository.findById(written.getId()).get();
+        assertEquals("renamed0", storedWritten.getUsername());
+        assertEquals("replacedToken", storedWritten.getToken());
+        assertEquals("renamed1", userRepository.findById(other.getId()).get().getUsername());
+    }
+
+    @Test
+    public void updateUser_newUsername_naturalIdCacheFollows() {
+        User testUser = new User();
+        testUser.setUsername("testUsername");
+        testUser.setPassword("testPassword");
+        User newUser = userService.createUser(testUser);
+        assertEquals(newUser.getId(), userRepository.findByUsername("testUsername").getId());
+
+        User update = new User();
+        update.setToken(newUser.getToken());
+        update.setUsername("renamed");
+        userService.updateUser(update, newUser.getId().toString());
+
+//    make sure the old username is gone from the cache and the new one resolves to the user
+        assertNull(userRepository.findByUsername("testUsername"));
+        assertEquals(newUser.getId(), userRepository.findByUsername("renamed").getId());
+        long naturalIdHits = userCacheStatistics.getNaturalIdHitCount();
+        assertEquals("renamed", userService.loginUser(credentials("renamed", "testPassword")).getUsername());
+        assertTrue(userCacheStatistics.getNaturalIdHitCount() > naturalIdHits);
+        assertEquals("renamed", userService.getUserProfile(newUser).getUsername());
+    }
+
+    // SQL statements behind every endpoint of the UserController, with an empty second-level cache
+
+    @Test
+    public void createUser_statementCount_insertOnly() {
+        User testUser = credentials("testUsername", "testPassword");
+
+        User createdUser = assertStatementCount(1, () -> userService.createUser(testUser));
+
+        assertNotNull(createdUser.getId());
+    }
+
+    @Test
+    public void createUsers_statementCount_oneBatch() {
+        List<User> newUsers = new ArrayList<>();
+        for (int i = 0; i < 3; i++) newUsers.add(credentials("batchUser" + i, "testPassword"));
+
+        List<RegistrationResult> results = assertStatementCount(1, () -> userService.createUsers(newUsers));
+
+        assertEquals(3, results.size());
+        assertEquals(3, userRepository.count());
+    }
+
+    @Test
+    public void getUser_statementCount_versionLookupThenProfile() {
+        User newUser = userService.createUser(credentials("testUsername", "testPassword"));
+        emptySecondLevelCache();
+
+//    make sure the ETag is a projection that leaves the cache alone, the profile fills it
+        long puts = userCacheStatistics.getPutCount();
+        assertStatementCount(1, () -> userService.getUserETag(newUser));
+        assertEquals(puts, userCacheStatistics.getPutCount());
+        assertStatementCount(1, () -> userService.getUserProfile(newUser));
+
+//    make sure both are read from the cache entry afterwards
+        assertStatementCount(0, () -> {
+            userService.getUserETag(newUser);
+            userService.getUserProfile(newUser);
+        });
+    }
+
+    @Test
+    public void loginHeartbeatLogout_statementCount_sessionServedFromMemory() {
+        userService.createUser(credentials("testUsername", "testPassword"));
+        emptySecondLevelCache();
+
+//    make sure the login resolves the username, loads the user and reads the stored status, nothing else
+        User loggedInUser = assertStatementCount(3, () -> userService.loginUser(credentials("testUsername", "testPassword")));
+        User session = new User();
+        session.setToken(loggedInUser.getToken());
+
+//    make sure heartbeat and logout find the session in the token cache and the PresenceStore
+        assertStatementCount(0, () -> userService.heartbeat(session));
+        assertStatementCount(0, () -> userService.logOutUser(session));
+    }
+
+    @Test
+    public void updateUser_statementCount_selectAndUpdate() {
+        User newUser = userService.createUser(credentials("testUsername", "testPassword"));
+        emptySecondLevelCache();
+        User update = new User();
+        update.setToken(newUser.getToken());
+        update.setUsername("renamed");
+
+//    make sure the unique constraint checks the new username, not a query
+        assertStatementCount(2, () -> userService.updateUser(update, newUser.getId().toString()));
+
+        assertEquals("renamed", userRepository.findById(newUser.getId()).get().getUsername());
+    }
+
+    @Test
+    public void deleteUser_statementCount_selectTombstoneAndDelete() {
+        User newUser = userService.createUser(credentials("testUsername", "testPassword"));
+        emptySecondLevelCache();
+        User session = new User();
+        session.setToken(newUser.getToken());
+
+        assertStatementCount(3, () -> userService.deleteUser(session, newUser.getId().toString()));
+
+        assertTrue(userRepository.findById(newUser.getId()).isEmpty());
+    }
+
+    @Test
+    public void listings_statementCount_oneQueryPerSource() {
+        userService.createUser(credentials("testUsername", "testPassword"));
+        emptySecondLevelCache();
+
+        assertEquals(1, assertStatementCount(1, () -> userService.getUsers(0, 100)).size());
+        assertEquals(1, assertStatementCount(2, () -> userService.getUserChanges(0, 100)).getUsers().size());
+        List<User> exported = new ArrayList<>();
+        assertStatementCount(1, () -> userService.exportUsers(exported::add));
+        assertEquals(1, exported.size());
+    }
+
+    /**
+     * Starts from an empty second-level cache, without pending status writes that could evict it in between.
+     */
+    private void emptySecondLevelCache() {
+        presenceStore.flush();
+        entityManagerFactory.unwrap(SessionFactory.class).getCache().evictAllRegions();
+    }
+
+    private static User credentials(String username, String password) {
+        User user = new User();
+        user.setUsername(username);
+        user.setPassword(password);
+        return user;
+    }
 }
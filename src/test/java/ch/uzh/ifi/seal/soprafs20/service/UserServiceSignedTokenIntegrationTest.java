@@ -0,0 +1,120 @@
+package ch.uzh.ifi.seal.soprafs20.service;
+
+import ch.uzh.ifi.seal.soprafs20.constant.UserStatus;
+import ch.uzh.ifi.seal.soprafs20.entity.User;
+import ch.uzh.ifi.seal.soprafs20.exceptions.UserAlreadyLoggedOut;
+import ch.uzh.ifi.seal.soprafs20.exceptions.UserCredentialsWrong;
+import ch.uzh.ifi.seal.soprafs20.exceptions.UserNotAvailable;
+import ch.uzh.ifi.seal.soprafs20.repository.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.web.WebAppConfiguration;
+
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test class for the UserService with signed session tokens.
+ *
+ * @see UserService
+ * @see SessionTokens
+ */
+@WebAppConfiguration
+@SpringBootTest(properties = {"users.token.mode=SIGNED", "users.token.secret=testSecret"})
+public class UserServiceSignedTokenIntegrationTest {
+
+    @Qualifier("userRepository")
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private SessionTokens sessionTokens;
+
+    @Autowired
+    private PresenceStore presenceStore;
+
+    @AfterEach
+    public void setup() {
+        userRepository.deleteAll();
+    }
+
+    @Test
+    public void login_issuesSignedToken() {
+        User newUser = createUser("testUsername");
+
+        User loggedInUser = userService.loginUser(credentials("testUsername"));
+
+//    make sure the token describes the user and is the one stored
+        SessionTokens.Claims claims = sessionTokens.verify(loggedInUser.getToken());
+        assertNotNull(claims);
+        assertEquals(newUser.getId().longValue(), claims.getUserId());
+        assertEquals(loggedInUser.getToken(), userRepository.findByUsername("testUsername").getToken());
+    }
+
+    @Test
+    public void logout_revokesToken() {
+        createUser("testUsername");
+        User loggedInUser = userService.loginUser(credentials("testUsername"));
+
+        userService.logOutUser(session(loggedInUser.getToken()));
+
+//    make sure the token is dead right away, for logging out again and for changing the user
+        presenceStore.flush();
+        assertEquals(UserStatus.OFFLINE, userRepository.findByUsername("testUsername").getStatus());
+        assertThrows(UserAlreadyLoggedOut.class, () -> userService.logOutUser(session(loggedInUser.getToken())));
+        User update = session(loggedInUser.getToken());
+        update.setBirthday(new Date());
+        assertThrows(UserCredentialsWrong.class, () -> userService.updateUser(update, loggedInUser.getId().toString()));
+
+//    and that the next login gets a token of the next generation
+        User loggedInAgain = userService.loginUser(credentials("testUsername"));
+        assertEquals(sessionTokens.verify(loggedInUser.getToken()).getGeneration() + 1,
+                sessionTokens.verify(loggedInAgain.getToken()).getGeneration());
+    }
+
+    @Test
+    public void logout_forgedToken_throwsException() {
+        createUser("testUsername");
+        userService.loginUser(credentials("testUsername"));
+
+        assertThrows(UserNotAvailable.class, () -> userService.logOutUser(session("forged.token")));
+    }
+
+    @Test
+    public void update_tokenOfOtherUser_throwsException() {
+        createUser("testUsername");
+        User otherUser = createUser("otherUsername");
+        User loggedInUser = userService.loginUser(credentials("testUsername"));
+
+        User update = session(loggedInUser.getToken());
+        update.setUsername("newUsername");
+
+        assertThrows(UserCredentialsWrong.class, () -> userService.updateUser(update, otherUser.getId().toString()));
+        userService.updateUser(update, loggedInUser.getId().toString());
+        assertNotNull(userRepository.findByUsername("newUsername"));
+    }
+
+    private User createUser(String username) {
+        return userService.createUser(credentials(username));
+    }
+
+    private static User credentials(String username) {
+        User user = new User();
+        user.setUsername(username);
+        user.setPassword("testPassword");
+        return user;
+    }
+
+    private static User session(String token) {
+        User user = new User();
+        user.setToken(token);
+        return user;
+    }
+}
@@ -2,15 +2,20 @@ package ch.uzh.ifi.seal.soprafs20.service;
 
 import ch.uzh.ifi.seal.soprafs20.constant.UserStatus;
 import ch.uzh.ifi.seal.soprafs20.entity.User;
+import ch.uzh.ifi.seal.soprafs20.exceptions.IllegalRegistrationInput;
 import ch.uzh.ifi.seal.soprafs20.exceptions.SopraServiceException;
 import ch.uzh.ifi.seal.soprafs20.exceptions.UsernameAlreadyExists;
 import ch.uzh.ifi.seal.soprafs20.repository.UserRepository;
+import ch.uzh.ifi.seal.soprafs20.repository.UserTombstoneRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.PlatformTransactionManager;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -19,6 +24,30 @@ public class UserServiceTest {
     @Mock
     private UserRepository userRepository;
 
+    @Mock
+    private UserTombstoneRepository userTombstoneRepository;
+
+    @Mock
+    private TokenCache tokenCache;
+
+    @Mock
+    private PasswordHasher passwordHasher;
+
+    @Mock
+    private SessionTokens sessionTokens;
+
+    @Mock
+    private PresenceStore presenceStore;
+
+    @Mock
+    private SessionExpiry sessionExpiry;
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
     @InjectMocks
     private UserService userService;
 
@@ -37,6 +66,7 @@ public class UserServiceTest {
 
         // when -> any object is being save in the userRepository -> return the dummy testUser
         Mockito.when(userRepository.save(Mockito.any())).thenReturn(testUser);
+        Mockito.when(passwordHasher.hash(Mockito.any())).thenReturn("hashedPassword");
     }
 
     @Test
@@ -44,13 +74,15 @@ public class UserServiceTest {
 //         when -> any object is being saved in the userRepository -> return the dummy testUser
         User createdUser = userService.createUser(testUser);
 
-        // then
+        // then -> a single write, no uniqueness lookup beforehand
         Mockito.verify(userRepository, Mockito.times(1)).save(Mockito.any());
+        Mockito.verify(userRepository, Mockito.never()).findByUsername(Mockito.any());
 
         assertEquals(testUser.getId(), createdUser.getId());
         assertEquals(testUser.getUsername(), createdUser.getUsername());
         assertNotNull(createdUser.getToken());
         assertEquals(UserStatus.OFFLINE, createdUser.getStatus());
+        assertEquals("hashedPassword", createdUser.getPassword());
     }
 
 
@@ -60,8 +92,8 @@ public class UserServiceTest {
         // given -> a first user has already been created
         userService.createUser(testUser);
 
-        // when -> setup additional mocks for UserRepository
-        Mockito.when(userRepository.findByUsername(Mockito.any())).thenReturn(testUser);
+        // when -> setup additional mocks for UserRepository -> the unique constraint rejects the second insert
+        Mockito.doThrow(new DataIntegrityViolationException("unique constraint violated")).when(userRepository).flush();
 
         // then -> attempt to create second user with same user -> check that an error is thrown
         String exceptionMessage = "The username provided is not unique. Therefore, the user could not be created!";
@@ -69,5 +101,14 @@ public class UserServiceTest {
         assertEquals(exceptionMessage, exception.getMessage());
     }
 
+    @Test
+    public void createUser_missingPassword_throwsException() {
+        testUser.setPassword(null);
+
+        // then -> rejected before the insert, a NOT NULL violation must not be reported as a taken username
+        assertThrows(IllegalRegistrationInput.class, () -> userService.createUser(testUser));
+        Mockito.verify(userRepository, Mockito.never()).save(Mockito.any());
+    }
+
 
 }